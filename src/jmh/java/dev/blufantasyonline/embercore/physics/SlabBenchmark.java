@@ -0,0 +1,112 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.CoreSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the batched slab test's scalar loop in {@link Physics} with {@link VectorizedSlab}, over one ray and a
+ * crowd of boxes like the ones entity raycasts gather.
+ * <br><br>
+ * Each vectorized benchmark runs in a JVM with the Vector API enabled and its vectors capped at a given size, so
+ * that it tests 2, 4 or 8 boxes at a time; a width the machine can't do natively fails its benchmark rather than
+ * being measured at another width. The scalar benchmark runs without the module, the way servers that haven't
+ * enabled it do. Run with {@code mvn -P benchmark test-compile exec:exec}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SlabBenchmark {
+    private static final String MAX_VECTOR_SIZE = "-XX:MaxVectorSize=";
+
+    // 1003 leaves a remainder for the scalar tail at every width
+    @Param({"16", "128", "1003", "8192"})
+    public int boxes;
+
+    private double[] minX, minY, minZ, maxX, maxY, maxZ, out;
+    private double originX, originY, originZ, inverseX, inverseY, inverseZ, length;
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        for (String arg : params.getJvmArgs())
+            if (arg.startsWith(MAX_VECTOR_SIZE)) {
+                int lanes = Integer.parseInt(arg.substring(MAX_VECTOR_SIZE.length())) / Double.BYTES;
+                if (VectorizedSlab.lanes() != lanes)
+                    throw new IllegalStateException("This machine can't test " + lanes + " boxes at a time.");
+            }
+        // scalar() measures the plain loop even if the module was passed down from the running JVM
+        CoreSettings.physicsSettings.vectorizedSlabs = false;
+
+        // player-sized boxes scattered around a 64-block cube, with a ray through its middle
+        Random random = new Random(1);
+        minX = new double[boxes];
+        minY = new double[boxes];
+        minZ = new double[boxes];
+        maxX = new double[boxes];
+        maxY = new double[boxes];
+        maxZ = new double[boxes];
+        out = new double[boxes];
+        for (int i = 0; i < boxes; i++) {
+            minX[i] = random.nextDouble() * 64.0;
+            minY[i] = random.nextDouble() * 64.0;
+            minZ[i] = random.nextDouble() * 64.0;
+            maxX[i] = minX[i] + 0.6;
+            maxY[i] = minY[i] + 1.8;
+            maxZ[i] = minZ[i] + 0.6;
+        }
+        originX = 0.5;
+        originY = 30.0;
+        originZ = 1.5;
+        double directionX = 0.8, directionY = 0.1, directionZ = 0.6;
+        double norm = Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        inverseX = norm / directionX;
+        inverseY = norm / directionY;
+        inverseZ = norm / directionZ;
+        length = 96.0;
+    }
+
+    @Benchmark
+    public int scalar() {
+        return Physics.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                minX, minY, minZ, maxX, maxY, maxZ, boxes, length, out);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", MAX_VECTOR_SIZE + "16"})
+    public int vectorized2() {
+        return vectorized();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", MAX_VECTOR_SIZE + "32"})
+    public int vectorized4() {
+        return vectorized();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", MAX_VECTOR_SIZE + "64"})
+    public int vectorized8() {
+        return vectorized();
+    }
+
+    private int vectorized() {
+        return VectorizedSlab.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                minX, minY, minZ, maxX, maxY, maxZ, boxes, length, out);
+    }
+}
@@ -12,6 +12,7 @@ import java.util.logging.Level;
 @Preload
 public final class CoreSettings {
     public static CoreLogSettings coreLogSettings = new CoreLogSettings();
+    public static PhysicsSettings physicsSettings = new PhysicsSettings();
 
     public static final class CoreLogSettings {
         @JsonProperty
@@ -25,4 +26,60 @@ public final class CoreSettings {
         @JsonProperty
         public boolean serialization = false;
     }
+
+    public static final class PhysicsSettings {
+        /**
+         * The side length, in blocks, of the cells living entities are bucketed into for collision checks.
+         */
+        @JsonProperty
+        public double entityGridCellSize = 4.0;
+        /**
+         * How far to either side of a raycast to look for entities. Entities belong to the chunk containing their
+         * position, so this should be at least half the width of the widest hitbox raycasts should be able to hit.
+         */
+        @JsonProperty
+        public double entityPadding = 2.0;
+        /**
+         * Whether raycasts against many boxes at once should use the JDK's Vector API. Only has an effect if the
+         * server was started with {@code --add-modules jdk.incubator.vector}.
+         */
+        @JsonProperty
+        public boolean vectorizedSlabs = true;
+        /**
+         * How many ticks a line of sight check is remembered for, as long as neither end moves to another block.
+         * 0 turns remembering off.
+         */
+        @JsonProperty
+        public int lineOfSightCacheTicks = 5;
+        /**
+         * The most trail particles sent in one tick, across every world. Past this, every trail is thinned out evenly.
+         * 0 turns the budget off.
+         */
+        @JsonProperty
+        public int trailParticleBudget = 4000;
+        /**
+         * How far away, in blocks, a player can see trail particles from.
+         */
+        @JsonProperty
+        public double trailViewDistance = 64.0;
+        /**
+         * How wide, in degrees, the cone in front of a player is that trail particles are sent within. 360 sends
+         * them all around.
+         */
+        @JsonProperty
+        public double trailViewAngle = 140.0;
+        /**
+         * The most simulation ticks run in one server tick to catch up after the server lags. Time beyond that is
+         * dropped, so projectiles slow down rather than making a slow server tick slower still.
+         */
+        @JsonProperty
+        public int maxCatchUpTicks = 4;
+        /**
+         * A file in the plugin's folder to record every projectile tick to from startup, for replaying with
+         * {@code ProjectileReplay}. Empty to not record. Recordings grow by a few megabytes a minute per hundred
+         * projectiles in flight, so only leave this on while chasing a problem.
+         */
+        @JsonProperty
+        public String projectileRecording = "";
+    }
 }
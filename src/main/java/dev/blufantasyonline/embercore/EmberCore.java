@@ -1,5 +1,6 @@
 package dev.blufantasyonline.embercore;
 
+import dev.blufantasyonline.embercore.physics.ProjectileRecorder;
 import dev.blufantasyonline.embercore.reflection.PluginLoader;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -8,6 +9,11 @@ import java.util.logging.Level;
 public final class EmberCore extends JavaPlugin {
     public static final String CONFIG_KEY = "config";
 
+    /**
+     * The rate, in ticks per second, the server is meant to run at and the physics simulation always steps at. The
+     * rate it's actually running at is measured by
+     * {@link dev.blufantasyonline.embercore.physics.PhysicsClock#getServerTickrate()}.
+     */
     public static int serverTickrate = 20;
 
     private Level logLevel = Level.INFO;
@@ -90,6 +96,7 @@ public final class EmberCore extends JavaPlugin {
     @Override
     public void onDisable() {
         info("EmberCore v%s is being disabled.", getDescription().getVersion());
+        ProjectileRecorder.stop();
     }
 
     public void setup(JavaPlugin plugin) {
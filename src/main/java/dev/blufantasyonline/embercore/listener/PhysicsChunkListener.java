@@ -0,0 +1,44 @@
+package dev.blufantasyonline.embercore.listener;
+
+import dev.blufantasyonline.embercore.physics.ProjectileRegistry;
+import dev.blufantasyonline.embercore.physics.spatial.StaticGeometryIndex;
+import dev.blufantasyonline.embercore.reflection.annotations.OnEnable;
+import org.bukkit.Chunk;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+@OnEnable
+public final class PhysicsChunkListener implements Listener {
+    /**
+     * Wakes projectiles that went dormant at the edge of this chunk.
+     */
+    @EventHandler
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        ProjectileRegistry.wakeChunk(event.getWorld(), chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Throws away the chunk's static geometry octree. Its shapes stay registered for when it loads again.
+     */
+    @EventHandler
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        StaticGeometryIndex index = StaticGeometryIndex.get(event.getWorld());
+        if (index != null) {
+            Chunk chunk = event.getChunk();
+            index.evict(chunk.getX(), chunk.getZ());
+        }
+    }
+
+    /**
+     * Clears out projectiles, static geometry and cached physics data for worlds that are going away.
+     */
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        ProjectileRegistry.unloadWorld(event.getWorld());
+        StaticGeometryIndex.remove(event.getWorld());
+    }
+}
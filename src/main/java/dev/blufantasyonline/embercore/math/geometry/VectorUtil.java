@@ -20,20 +20,37 @@ public final class VectorUtil {
             return false;
 
         // source's direction
-        Vector dir = source.getDirection().normalize();
+        Vector dir = source.getDirection();
         // difference between source and target locations
-        Vector diff = target.toVector().subtract(source.toVector());
-        double angle = Math.toDegrees(dir.angle(diff));
-
-        // Since we're only checking the angle in one direction rather than two, halve the vision radius
-        if (angle <= visionRadius / 2)
-            // true if within radius and within vision range
-            // square roots are demanding and this might be used many times
-            // so I just compare squares
-            return source.distanceSquared(target) <= Math.pow(visionRange, 2);
-        else
-            // false if not in vision radius
+        double dx = target.getX() - source.getX(),
+                dy = target.getY() - source.getY(),
+                dz = target.getZ() - source.getZ();
+        // there's no angle to a target standing exactly on the source
+        if (dx == 0 && dy == 0 && dz == 0)
             return false;
+
+        // Since we're only checking the angle in one direction rather than two, halve the vision radius.
+        // Square roots and inverse cosines are demanding and this might be used many times, so compare cosines
+        // and squares instead.
+        return withinCone(dx, dy, dz, dir.getX(), dir.getY(), dir.getZ(), Math.cos(Math.toRadians(visionRadius / 2.0)))
+                && dx * dx + dy * dy + dz * dz <= visionRange * visionRange;
+    }
+
+    /**
+     * Determines whether the angle between two vectors is at most the one with the given cosine, without taking
+     * any square roots or inverse cosines. Neither vector needs to be normalized.
+     *
+     * @param cosHalfAngle The cosine of the largest angle allowed, which is half a cone's full angle.
+     */
+    public static boolean withinCone(double x, double y, double z,
+                                     double axisX, double axisY, double axisZ, double cosHalfAngle) {
+        double dot = x * axisX + y * axisY + z * axisZ;
+        double bound = cosHalfAngle * cosHalfAngle
+                * (x * x + y * y + z * z) * (axisX * axisX + axisY * axisY + axisZ * axisZ);
+        // cos(angle) >= cosHalfAngle, squared; which side of zero each is on decides which way the squares compare
+        if (cosHalfAngle >= 0)
+            return dot >= 0 && dot * dot >= bound;
+        return dot >= 0 || dot * dot <= bound;
     }
 
     public static Vector direction(Location from, Entity to) {
@@ -0,0 +1,19 @@
+package dev.blufantasyonline.embercore.physics;
+
+/**
+ * How a {@link VectorProjectile} detects collisions while moving.
+ */
+public enum CollisionMode {
+    /**
+     * Sweeps the projectile's hitbox along its velocity once per tick and finds the exact time of impact with
+     * each entity and block in its path. Hooks fire with the projectile placed at the point of contact.
+     * {@link VectorProjectile#interpolatedTick()} is never called in this mode.
+     */
+    CONTINUOUS,
+    /**
+     * Divides each tick's movement into {@link VectorProjectile#getInterpolationScale()} pieces and checks for
+     * overlaps at each one, calling {@link VectorProjectile#interpolatedTick()} every time. Fast projectiles with
+     * small hitboxes can end up doing a great deal of work per tick in this mode.
+     */
+    SUBSTEP
+}
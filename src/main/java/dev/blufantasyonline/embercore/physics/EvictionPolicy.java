@@ -0,0 +1,21 @@
+package dev.blufantasyonline.embercore.physics;
+
+/**
+ * Which projectiles {@link ProjectileRegistry} destroys to make room once there are more than its maximum.
+ */
+public enum EvictionPolicy {
+    /**
+     * Destroys the projectiles that were registered first.
+     */
+    OLDEST,
+    /**
+     * Destroys the projectiles farthest from any player in their world. Projectiles in worlds with no players in
+     * them go first.
+     */
+    FARTHEST_FROM_PLAYER,
+    /**
+     * Destroys the projectiles with the lowest {@link VectorProjectile#getPriority() priority}, oldest first among
+     * equals.
+     */
+    LOWEST_PRIORITY
+}
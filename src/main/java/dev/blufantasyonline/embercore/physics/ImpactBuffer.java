@@ -0,0 +1,120 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.physics.spatial.EntityGrid;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.BoundingBox;
+
+import java.util.ArrayList;
+
+/**
+ * The entities a continuous projectile's hitbox will sweep through during one tick, along with the time at which
+ * it reaches each, earliest first.
+ * <br><br>
+ * {@link #solve} reads nothing but the entity grid and its arguments, so as long as the grid isn't being rebuilt,
+ * separate buffers can be filled on separate threads.
+ */
+final class ImpactBuffer {
+    final ArrayList<LivingEntity> candidates = new ArrayList<>();
+    final ArrayList<BoundingBox> candidateBoxes = new ArrayList<>();
+    final BoundingBox sweep = new BoundingBox();
+    // candidates' boxes grown by the projectile's half-extents, one array per coordinate, for the batched slab test
+    private double[] minX = new double[16], minY = new double[16], minZ = new double[16];
+    private double[] maxX = new double[16], maxY = new double[16], maxZ = new double[16];
+    private double[] candidateTimes = new double[16];
+    private double[] times = new double[16];
+    private int[] indices = new int[16];
+    private int count = 0;
+
+    /**
+     * Finds every entity the given hitbox passes through on its way along the given displacement. The path is
+     * tested by treating the hitbox's center as a ray against each entity's hitbox grown by the half-extents.
+     */
+    void solve(EntityGrid grid, double x, double y, double z, double dx, double dy, double dz,
+               double halfX, double halfY, double halfZ) {
+        candidates.clear();
+        candidateBoxes.clear();
+        count = 0;
+        sweep.resize(x - halfX, y - halfY, z - halfZ, x + halfX, y + halfY, z + halfZ)
+                .expandDirectional(dx, dy, dz);
+        grid.query(sweep, candidates, candidateBoxes);
+
+        int size = candidateBoxes.size();
+        if (times.length < size)
+            grow(size);
+        for (int j = 0; j < size; j++) {
+            BoundingBox box = candidateBoxes.get(j);
+            minX[j] = box.getMinX() - halfX;
+            minY[j] = box.getMinY() - halfY;
+            minZ[j] = box.getMinZ() - halfZ;
+            maxX[j] = box.getMaxX() + halfX;
+            maxY[j] = box.getMaxY() + halfY;
+            maxZ[j] = box.getMaxZ() + halfZ;
+        }
+        if (Physics.slab(x, y, z, 1.0 / dx, 1.0 / dy, 1.0 / dz, minX, minY, minZ, maxX, maxY, maxZ,
+                size, 1.0, candidateTimes) == 0)
+            return;
+
+        for (int j = 0; j < size; j++) {
+            double t = candidateTimes[j];
+            if (t == Physics.MISS)
+                continue;
+            // insertion sort; there are rarely more than a handful
+            int k = count++;
+            while (k > 0 && times[k - 1] > t) {
+                times[k] = times[k - 1];
+                indices[k] = indices[k - 1];
+                k--;
+            }
+            times[k] = t;
+            indices[k] = j;
+        }
+    }
+
+    /**
+     * Forgets the last {@link #solve}, for a tick on which no entities are looked for.
+     */
+    void clear() {
+        candidates.clear();
+        candidateBoxes.clear();
+        count = 0;
+    }
+
+    /**
+     * Multiplies every time found by the given factor, capping them at 1, for a {@link #solve} run over a longer
+     * path than the one being stepped.
+     */
+    void scaleTimes(double factor) {
+        for (int n = 0; n < count; n++)
+            times[n] = Math.min(1.0, times[n] * factor);
+    }
+
+    private void grow(int capacity) {
+        minX = new double[capacity];
+        minY = new double[capacity];
+        minZ = new double[capacity];
+        maxX = new double[capacity];
+        maxY = new double[capacity];
+        maxZ = new double[capacity];
+        candidateTimes = new double[capacity];
+        times = new double[capacity];
+        indices = new int[capacity];
+    }
+
+    /**
+     * @return How many entities were found by the last {@link #solve}.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return The time of impact, as a fraction of the displacement, with the nth entity found.
+     */
+    double time(int n) {
+        return times[n];
+    }
+
+    LivingEntity entity(int n) {
+        return candidates.get(indices[n]);
+    }
+}
@@ -1,10 +1,24 @@
 package dev.blufantasyonline.embercore.physics;
 
 import dev.blufantasyonline.embercore.util.TimeUnits;
+import org.bukkit.util.Vector;
 
 import static dev.blufantasyonline.embercore.math.MathUtil.toSeconds;
 
+/**
+ * Kinematics formulas and aiming solvers.
+ * <br><br>
+ * The solvers work in any consistent units. To aim a {@link VectorProjectile}, use blocks and ticks: speeds in
+ * blocks per tick and accelerations in blocks per tick per tick. A projectile moves by its velocity before
+ * accelerating each tick, so it follows the solved path exactly if it's launched with the solved velocity
+ * <i>plus half its acceleration</i>.
+ */
 public final class Kinematics {
+    private static final int INTERCEPT_REFINEMENTS = 60;
+    // how close to zero, relative to the size of its terms, the intercept quartic has to come at a turning point for
+    // the target to count as just barely reachable
+    private static final double GRAZE_TOLERANCE = 1e-9;
+
     public static double acceleration(double distance, double initialVelocity, long timeMs) {
         double time = toSeconds(timeMs, TimeUnits.MILLISECONDS);
         return 2.0 * ((distance / Math.pow(time, 2)) - (initialVelocity / time));
@@ -24,4 +38,303 @@ public final class Kinematics {
     public static double distance(double initialVelocity, double acceleration, long timeMs) {
         return (initialVelocity * timeMs) + (0.5 * acceleration * Math.pow(toSeconds(timeMs, TimeUnits.MILLISECONDS), 2));
     }
+
+    /**
+     * Finds the angles above the horizontal at which something launched at the given speed lands on a target,
+     * under gravity alone.
+     *
+     * @param distance The horizontal distance to the target.
+     * @param height   How far above the launch point the target is. Negative if it's below.
+     * @param gravity  The strength of gravity, as a positive number.
+     * @param out      Receives the angles, in radians, lowest first. Needs room for two.
+     * @return How many angles there are: 0 if the target is out of reach, 1 if it's just barely in reach, otherwise 2.
+     */
+    public static int launchAngles(double distance, double height, double speed, double gravity, double[] out) {
+        double speedSquared = speed * speed;
+        if (distance == 0) {
+            // straight up or down; only reachable going up if the speed is enough
+            if (height > 0 && speedSquared < 2 * gravity * height)
+                return 0;
+            out[0] = height >= 0 ? Math.PI / 2 : -Math.PI / 2;
+            return 1;
+        }
+        if (gravity == 0) {
+            out[0] = Math.atan2(height, distance);
+            return 1;
+        }
+        double discriminant = speedSquared * speedSquared
+                - gravity * (gravity * distance * distance + 2 * height * speedSquared);
+        if (discriminant < 0)
+            return 0;
+        double root = Math.sqrt(discriminant);
+        out[0] = Math.atan((speedSquared - root) / (gravity * distance));
+        if (root == 0)
+            return 1;
+        out[1] = Math.atan((speedSquared + root) / (gravity * distance));
+        return 2;
+    }
+
+    /**
+     * Finds the velocity with which something launched at the given speed lands on a target, under gravity alone.
+     *
+     * @param gravity The strength of gravity, pulling along negative Y, as a positive number.
+     * @param high    Whether to take the high, lobbed arc rather than the flatter one.
+     * @return The launch velocity, or null if the target is out of reach.
+     */
+    public static Vector launchVelocity(Vector from, Vector to, double speed, double gravity, boolean high) {
+        double dx = to.getX() - from.getX(), dz = to.getZ() - from.getZ();
+        double distance = Math.sqrt(dx * dx + dz * dz);
+        double[] angles = new double[2];
+        int count = launchAngles(distance, to.getY() - from.getY(), speed, gravity, angles);
+        if (count == 0)
+            return null;
+        double angle = high ? angles[count - 1] : angles[0];
+        double horizontal = speed * Math.cos(angle);
+        if (distance == 0)
+            return new Vector(0, speed * Math.sin(angle), 0);
+        return new Vector(dx / distance * horizontal, speed * Math.sin(angle), dz / distance * horizontal);
+    }
+
+    /**
+     * @return How long something launched at the given speed and angle (in radians) takes to cover the given
+     * horizontal distance, or {@link Double#POSITIVE_INFINITY} if it's launched straight up or down.
+     */
+    public static double timeOfFlight(double distance, double speed, double angle) {
+        double horizontal = speed * Math.cos(angle);
+        return Math.abs(horizontal) < 1e-12 ? Double.POSITIVE_INFINITY : distance / horizontal;
+    }
+
+    /**
+     * @param verticalSpeed How fast something is moving upward to start with.
+     * @param height        The height to reach, relative to the start.
+     * @param gravity       The strength of gravity, as a positive number.
+     * @return How long it takes to come down to the given height (or go up to it, if it never comes back down), or
+     * {@link Double#NaN} if it never gets there.
+     */
+    public static double timeToHeight(double verticalSpeed, double height, double gravity) {
+        if (gravity == 0)
+            return verticalSpeed == 0 || height / verticalSpeed < 0 ? Double.NaN : height / verticalSpeed;
+        // height = verticalSpeed * t - gravity / 2 * t^2, latest root
+        double discriminant = verticalSpeed * verticalSpeed - 2 * gravity * height;
+        if (discriminant < 0)
+            return Double.NaN;
+        double t = (verticalSpeed + Math.sqrt(discriminant)) / gravity;
+        return t < 0 ? Double.NaN : t;
+    }
+
+    /**
+     * Finds how to aim a shot at a moving target so that the two meet. Both the shot and the target may be
+     * accelerating, such as a shot pulled down by gravity at a falling target.
+     *
+     * @param projectileAcceleration The shot's acceleration, such as gravity.
+     * @param targetAcceleration     The target's acceleration, or null if it isn't accelerating.
+     * @param maxTime                The latest interception to consider.
+     * @param high                   Whether to take the latest interception within the window rather than the
+     *                               earliest. For a shot under gravity, that's the lobbed arc.
+     * @param velocityOut            Receives the launch velocity, if there is one.
+     * @return How long until the shot meets the target, or {@link Double#NaN} if it can't within the window.
+     */
+    public static double intercept(Vector shooter, Vector target, Vector targetVelocity, Vector targetAcceleration,
+                                   double speed, Vector projectileAcceleration, double maxTime, boolean high,
+                                   Vector velocityOut) {
+        double tax = 0, tay = 0, taz = 0;
+        if (targetAcceleration != null) {
+            tax = targetAcceleration.getX();
+            tay = targetAcceleration.getY();
+            taz = targetAcceleration.getZ();
+        }
+        double dx = target.getX() - shooter.getX(), dy = target.getY() - shooter.getY(),
+                dz = target.getZ() - shooter.getZ();
+        double ux = targetVelocity.getX(), uy = targetVelocity.getY(), uz = targetVelocity.getZ();
+        double ax = (tax - projectileAcceleration.getX()) / 2.0,
+                ay = (tay - projectileAcceleration.getY()) / 2.0,
+                az = (taz - projectileAcceleration.getZ()) / 2.0;
+        double t = interceptTime(dx, dy, dz, ux, uy, uz, ax, ay, az, speed, maxTime, high);
+        if (!Double.isNaN(t))
+            velocityOut.setX((dx + (ux + ax * t) * t) / t)
+                    .setY((dy + (uy + ay * t) * t) / t)
+                    .setZ((dz + (uz + az * t) * t) / t);
+        return t;
+    }
+
+    /**
+     * Solves many interceptions in one pass, such as every turret in an arena aiming at its target, without
+     * creating any objects. Positions, velocities and accelerations are stored three to an entry, in the order
+     * x, y, z; entry n starts at {@code n * 3}.
+     *
+     * @param targetAccelerations    The targets' accelerations, or null if none are accelerating.
+     * @param speeds                 Each shooter's launch speed.
+     * @param projectileAcceleration The acceleration all the shots share, such as gravity. Three elements.
+     * @param count                  How many entries to solve.
+     * @param velocitiesOut          Receives each launch velocity, three to an entry. Entries with no solution are
+     *                               zeroed.
+     * @param timesOut               Receives each time until the shot meets its target, or {@link Double#NaN} if it
+     *                               can't within the window.
+     * @return How many entries have a solution.
+     * @see #intercept(Vector, Vector, Vector, Vector, double, Vector, double, boolean, Vector)
+     */
+    public static int intercept(double[] shooters, double[] targets, double[] targetVelocities,
+                                double[] targetAccelerations, double[] speeds, double[] projectileAcceleration,
+                                int count, double maxTime, boolean high,
+                                double[] velocitiesOut, double[] timesOut) {
+        int solved = 0;
+        for (int i = 0; i < count; i++) {
+            int o = i * 3;
+            double dx = targets[o] - shooters[o], dy = targets[o + 1] - shooters[o + 1],
+                    dz = targets[o + 2] - shooters[o + 2];
+            double ux = targetVelocities[o], uy = targetVelocities[o + 1], uz = targetVelocities[o + 2];
+            double ax = -projectileAcceleration[0], ay = -projectileAcceleration[1], az = -projectileAcceleration[2];
+            if (targetAccelerations != null) {
+                ax += targetAccelerations[o];
+                ay += targetAccelerations[o + 1];
+                az += targetAccelerations[o + 2];
+            }
+            ax /= 2.0;
+            ay /= 2.0;
+            az /= 2.0;
+
+            double t = interceptTime(dx, dy, dz, ux, uy, uz, ax, ay, az, speeds[i], maxTime, high);
+            timesOut[i] = t;
+            if (Double.isNaN(t)) {
+                velocitiesOut[o] = 0;
+                velocitiesOut[o + 1] = 0;
+                velocitiesOut[o + 2] = 0;
+                continue;
+            }
+            velocitiesOut[o] = (dx + (ux + ax * t) * t) / t;
+            velocitiesOut[o + 1] = (dy + (uy + ay * t) * t) / t;
+            velocitiesOut[o + 2] = (dz + (uz + az * t) * t) / t;
+            solved++;
+        }
+        return solved;
+    }
+
+    /**
+     * Finds a time t at which a shot fired at the given speed can be where the target will be. Relative to the
+     * shooter, the target is at d + u t + a t^2, where a is half the difference between the target's acceleration
+     * and the shot's. The shot only has to cover that offset in a straight line at its speed (gravity is folded into
+     * a), so the answer is a root of f(t) = |d + u t + a t^2|^2 - speed^2 t^2, a quartic in t. Without any relative
+     * acceleration it's a quadratic and is solved exactly.
+     * <br><br>
+     * Otherwise, between the points where f turns around it only rises or only falls, so each of those stretches
+     * holds at most one root, which is narrowed down by bisection. The turning points are the roots of the cubic f',
+     * found the same way between the roots of the quadratic f''. A target the shot can only just reach is a root
+     * where f touches zero without crossing it, which is caught at the turning point itself.
+     *
+     * @return The earliest such time within the window (the latest if {@code high} is true), or {@link Double#NaN}.
+     */
+    private static double interceptTime(double dx, double dy, double dz, double ux, double uy, double uz,
+                                        double ax, double ay, double az, double speed, double maxTime,
+                                        boolean high) {
+        if (maxTime <= 0 || speed <= 0)
+            return Double.NaN;
+        // coefficients from the highest power down
+        double c4 = ax * ax + ay * ay + az * az;
+        double c3 = 2 * (ax * ux + ay * uy + az * uz);
+        double c2 = ux * ux + uy * uy + uz * uz + 2 * (ax * dx + ay * dy + az * dz) - speed * speed;
+        double c1 = 2 * (dx * ux + dy * uy + dz * uz);
+        double c0 = dx * dx + dy * dy + dz * dz;
+        if (c0 == 0)
+            return Double.NaN;
+
+        if (c4 == 0) {
+            // no relative acceleration, so c3 is 0 too
+            double t1, t2;
+            if (Math.abs(c2) < 1e-12) {
+                // the target moves away exactly as fast as the shot; only one root
+                t1 = t2 = -c0 / c1;
+            } else {
+                double discriminant = c1 * c1 - 4 * c2 * c0;
+                if (discriminant < 0)
+                    return Double.NaN;
+                double root = Math.sqrt(discriminant);
+                t1 = (-c1 - root) / (2 * c2);
+                t2 = (-c1 + root) / (2 * c2);
+                if (t1 > t2) {
+                    double swap = t1;
+                    t1 = t2;
+                    t2 = swap;
+                }
+            }
+            double first = t1 > 0 && t1 <= maxTime ? t1 : Double.NaN;
+            double second = t2 > 0 && t2 <= maxTime ? t2 : Double.NaN;
+            if (high)
+                return Double.isNaN(second) ? first : second;
+            return Double.isNaN(first) ? second : first;
+        }
+
+        // f' = 4 c4 t^3 + 3 c3 t^2 + 2 c2 t + c1 and f'' = 12 c4 t^2 + 6 c3 t + 2 c2, with c4 > 0
+        double d3 = 4 * c4, d2 = 3 * c3, d1 = 2 * c2;
+        double inflection1 = Double.NaN, inflection2 = Double.NaN;
+        double discriminant = 36 * c3 * c3 - 96 * c4 * c2;
+        if (discriminant > 0) {
+            double root = Math.sqrt(discriminant);
+            inflection1 = (-6 * c3 - root) / (24 * c4);
+            inflection2 = (-6 * c3 + root) / (24 * c4);
+        }
+
+        int turns = 0;
+        double turn1 = maxTime, turn2 = maxTime, turn3 = maxTime;
+        double lo = 0, slopeLo = c1;
+        for (int i = 0; i < 3 && turns < 3; i++) {
+            // NaN if there's no such inflection, which is skipped along with any behind the last boundary
+            double hi = Math.min(i == 0 ? inflection1 : i == 1 ? inflection2 : maxTime, maxTime);
+            if (!(hi > lo))
+                continue;
+            double slopeHi = polynomial(0, d3, d2, d1, c1, hi);
+            if ((slopeLo > 0) != (slopeHi > 0)) {
+                double turn = refine(0, d3, d2, d1, c1, lo, hi, slopeLo > 0);
+                if (turns == 0)
+                    turn1 = turn;
+                else if (turns == 1)
+                    turn2 = turn;
+                else
+                    turn3 = turn;
+                turns++;
+            }
+            lo = hi;
+            slopeLo = slopeHi;
+        }
+
+        double found = Double.NaN;
+        lo = 0;
+        double valueLo = c0;
+        for (int i = 0; i <= turns; i++) {
+            double hi = i == 0 ? turn1 : i == 1 ? turn2 : i == 2 ? turn3 : maxTime;
+            double valueHi = polynomial(c4, c3, c2, c1, c0, hi);
+            double t = Double.NaN;
+            if ((valueLo > 0) != (valueHi > 0))
+                t = refine(c4, c3, c2, c1, c0, lo, hi, valueLo > 0);
+            else if (i < turns && valueHi > 0 && valueHi <= GRAZE_TOLERANCE
+                    * ((((c4 * hi + Math.abs(c3)) * hi + Math.abs(c2)) * hi + Math.abs(c1)) * hi + c0))
+                t = hi;
+            if (!Double.isNaN(t)) {
+                if (!high)
+                    return t;
+                found = t;
+            }
+            lo = hi;
+            valueLo = valueHi;
+        }
+        return found;
+    }
+
+    private static double polynomial(double c4, double c3, double c2, double c1, double c0, double t) {
+        return (((c4 * t + c3) * t + c2) * t + c1) * t + c0;
+    }
+
+    /**
+     * Bisects a root of the given polynomial, of degree 4 or less, between two times its sign differs at.
+     */
+    private static double refine(double c4, double c3, double c2, double c1, double c0,
+                                 double lo, double hi, boolean positiveAtLo) {
+        for (int i = 0; i < INTERCEPT_REFINEMENTS; i++) {
+            double mid = (lo + hi) / 2.0;
+            if ((polynomial(c4, c3, c2, c1, c0, mid) > 0) == positiveAtLo)
+                lo = mid;
+            else
+                hi = mid;
+        }
+        return (lo + hi) / 2.0;
+    }
 }
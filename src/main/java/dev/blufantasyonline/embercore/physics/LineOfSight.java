@@ -0,0 +1,170 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.CoreSettings;
+import dev.blufantasyonline.embercore.physics.raycast.GridTraversal;
+import dev.blufantasyonline.embercore.physics.spatial.BlockCache;
+import dev.blufantasyonline.embercore.physics.spatial.CellKey;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Answers whether one point can see another past the blocks between them. Pairs with
+ * {@link dev.blufantasyonline.embercore.math.geometry.VectorUtil#canSee(Location, Location, float, double)}, which
+ * only checks angle and distance.
+ * <br><br>
+ * The blocks between the two points are walked in order and looked up through the tick's {@link BlockCache}, so
+ * sight lines crossing the same area share block reads. Answers are remembered for
+ * {@link CoreSettings.PhysicsSettings#lineOfSightCacheTicks} ticks for as long as both points stay in the same blocks,
+ * so a guard checking every nearby player every tick only traces again once someone moves to another block or the
+ * answer expires. The memory is a fixed-size table per world, so it can't grow without bound; pairs that land in the
+ * same slot just push each other out.
+ * <br><br>
+ * Only solid blocks block sight, and only where the line actually crosses their collision box, so the gap above a
+ * slab can be seen through. Chunks that aren't loaded block sight rather than being loaded.
+ */
+public final class LineOfSight {
+    private static final HashMap<UUID, Memo> memos = new HashMap<>();
+    private static final GridTraversal traversal = new GridTraversal();
+    private static final int MEMO_SIZE = 4096;
+    private static long hits = 0, misses = 0;
+
+    /**
+     * @return True if nothing blocks the straight line between the two locations. Locations in different worlds
+     * can't see each other.
+     */
+    public static boolean hasLineOfSight(Location observer, Location target) {
+        World world = observer.getWorld();
+        if (world == null || !world.equals(target.getWorld()))
+            return false;
+        return check(world, observer.getX(), observer.getY(), observer.getZ(),
+                target.getX(), target.getY(), target.getZ());
+    }
+
+    /**
+     * Checks many sight lines at once, such as every guard against every player near it. The nth observer is
+     * checked against the nth target.
+     *
+     * @return One answer per pair, in the same order.
+     */
+    public static boolean[] hasLineOfSight(List<Location> observers, List<Location> targets) {
+        if (observers.size() != targets.size())
+            throw new IllegalArgumentException("Expected as many targets as observers, got "
+                    + targets.size() + " and " + observers.size());
+        boolean[] results = new boolean[observers.size()];
+        for (int i = 0; i < results.length; i++)
+            results[i] = hasLineOfSight(observers.get(i), targets.get(i));
+        return results;
+    }
+
+    /**
+     * Forgets every remembered answer in the given world, for when blocks have changed in a way that matters
+     * right away.
+     */
+    public static void invalidate(World world) {
+        Memo memo = memos.get(world.getUID());
+        if (memo != null)
+            memo.clear();
+    }
+
+    /**
+     * Drops the remembered answers for the given world.
+     */
+    public static void remove(World world) {
+        memos.remove(world.getUID());
+    }
+
+    /**
+     * @return How many checks were answered from memory, since the server started.
+     */
+    public static long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return How many checks had to walk the blocks, since the server started.
+     */
+    public static long getMisses() {
+        return misses;
+    }
+
+    private static boolean check(World world, double fromX, double fromY, double fromZ,
+                                 double toX, double toY, double toZ) {
+        int ticks = CoreSettings.physicsSettings.lineOfSightCacheTicks;
+        if (ticks <= 0) {
+            misses++;
+            return trace(world, fromX, fromY, fromZ, toX, toY, toZ);
+        }
+
+        long from = CellKey.pack((int) Math.floor(fromX), (int) Math.floor(fromY), (int) Math.floor(fromZ)),
+                to = CellKey.pack((int) Math.floor(toX), (int) Math.floor(toY), (int) Math.floor(toZ));
+        long now = ProjectileRegistry.currentTick();
+        Memo memo = memos.computeIfAbsent(world.getUID(), uid -> new Memo());
+        int slot = Memo.slot(from, to);
+        if (memo.expires[slot] > now && memo.from[slot] == from && memo.to[slot] == to) {
+            hits++;
+            return memo.results[slot];
+        }
+
+        misses++;
+        boolean result = trace(world, fromX, fromY, fromZ, toX, toY, toZ);
+        memo.from[slot] = from;
+        memo.to[slot] = to;
+        memo.expires[slot] = now + ticks;
+        memo.results[slot] = result;
+        return result;
+    }
+
+    private static boolean trace(World world, double fromX, double fromY, double fromZ,
+                                 double toX, double toY, double toZ) {
+        double dx = toX - fromX, dy = toY - fromY, dz = toZ - fromZ;
+        double inverseX = 1.0 / dx, inverseY = 1.0 / dy, inverseZ = 1.0 / dz;
+        BlockCache blockCache = BlockCache.of(world);
+        traversal.reset(fromX, fromY, fromZ, dx, dy, dz, 1.0, 1.0);
+        int chunkX = 0, chunkZ = 0;
+        boolean chunkKnown = false;
+        while (traversal.next()) {
+            int x = traversal.x(), y = traversal.y(), z = traversal.z();
+            if (!chunkKnown || x >> 4 != chunkX || z >> 4 != chunkZ) {
+                chunkX = x >> 4;
+                chunkZ = z >> 4;
+                chunkKnown = true;
+                if (!world.isChunkLoaded(chunkX, chunkZ))
+                    return false;
+            }
+            int slot = blockCache.lookup(x, y, z);
+            if (!blockCache.isSolid(slot) || !blockCache.hasShape(slot))
+                continue;
+            double[] b = blockCache.bounds();
+            int o = slot * 6;
+            if (Physics.slab(fromX, fromY, fromZ, inverseX, inverseY, inverseZ,
+                    b[o], b[o + 1], b[o + 2], b[o + 3], b[o + 4], b[o + 5], 1.0) != Physics.MISS)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remembered answers for one world, in a direct-mapped table keyed by the blocks at both ends.
+     */
+    private static final class Memo {
+        private final long[] from = new long[MEMO_SIZE], to = new long[MEMO_SIZE];
+        // the tick at which each answer goes stale; a zeroed slot is already stale
+        private final long[] expires = new long[MEMO_SIZE];
+        private final boolean[] results = new boolean[MEMO_SIZE];
+
+        private static int slot(long from, long to) {
+            long key = from * 0x9E3779B97F4A7C15L + to;
+            key *= 0xC2B2AE3D27D4EB4FL;
+            return (int) (key ^ (key >>> 32)) & (MEMO_SIZE - 1);
+        }
+
+        private void clear() {
+            Arrays.fill(expires, 0L);
+        }
+    }
+}
@@ -1,116 +1,183 @@
 package dev.blufantasyonline.embercore.physics;
 
+import dev.blufantasyonline.embercore.CoreSettings;
 import dev.blufantasyonline.embercore.math.MathUtil;
+import dev.blufantasyonline.embercore.math.geometry.VectorUtil;
 import dev.blufantasyonline.embercore.math.geometry.Vectors;
-import dev.blufantasyonline.embercore.physics.raycast.Geometry;
+import dev.blufantasyonline.embercore.physics.raycast.GridTraversal;
 import dev.blufantasyonline.embercore.physics.raycast.Intersection;
-import dev.blufantasyonline.embercore.physics.raycast.Plane;
 import dev.blufantasyonline.embercore.physics.raycast.Ray;
-import org.bukkit.Chunk;
+import dev.blufantasyonline.embercore.physics.spatial.CellKey;
+import dev.blufantasyonline.embercore.physics.spatial.ChunkEntitySnapshot;
+import dev.blufantasyonline.embercore.physics.spatial.EntityGrid;
+import dev.blufantasyonline.embercore.physics.spatial.StaticGeometryIndex;
+import dev.blufantasyonline.embercore.physics.spatial.StaticShape;
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public final class Physics {
     private static final double CHUNK_SIZE = 16.0;
 
-    public static Intersection<Ray, BoundingBox> intersection(Ray ray, BoundingBox box) {
-        World world = ray.origin.getWorld();
-        if (box.contains(ray.origin.toVector()) || box.contains(ray.end.toVector()))
-            return new Intersection<>(ray, box, box.getCenter().toLocation(world));
-
-        Vector min = box.getMin();
-        Vector max = box.getMax();
-        Vector dir = ray.direction;
-
-        // whether the ray is pointing in the positive direction on all 3 axes
-        boolean[] positive = new boolean[]{
-                dir.getX() >= 0,
-                dir.getY() >= 0,
-                dir.getZ() >= 0
-        };
-
-        // we're now treating the bounding box as 6 planes
-        Vector[] near = new Vector[] {
-                positive[0] ? min : max,
-                positive[1] ? min : max,
-                positive[2] ? min : max
-        };
-
-        // but we're only concerned about the 3 planes closest to the ray origin and based on
-        Plane[] planes = new Plane[] {
-                new Plane(near[0].toLocation(world), new Vector(positive[0] ? -1 : 1, 0, 0)),
-                new Plane(near[1].toLocation(world), new Vector(0, positive[1] ? -1 : 1, 0)),
-                new Plane(near[2].toLocation(world), new Vector(0, 0, positive[2] ? -1 : 1))
-        };
-
-        Location closest = null;
-        double d2 = 0;
-        for (int i = 0; i < planes.length; i++){
-            Intersection<Ray, Geometry> intersection = planes[i].intersection(ray);
-            // if it hits the plane and the hit point is within (on) box boundaries
-            if (intersection.hit() && box.contains(intersection.getHitPoint().toVector())) {
-                if (closest == null) {
-                    closest = intersection.getHitPoint();
-                    d2 = closest.distanceSquared(ray.origin);
-                }
-                else {
-                    // update the current closest point
-                    Location hit = intersection.getHitPoint();
-                    double d2_2 = hit.distance(ray.origin);
-                    if (d2_2 < d2) {
-                        closest = hit;
-                        d2 = d2_2;
-                    }
-                }
-            }
-        }
-
-        return new Intersection<>(ray, box, closest);
-
-        // fallback code below
+    /**
+     * Returned by the slab test kernels when a ray misses.
+     */
+    public static final double MISS = Double.POSITIVE_INFINITY;
+    // The vectorized kernel needs the incubating Vector API, which is only there if the server was started with
+    // --add-modules jdk.incubator.vector.
+    private static final int VECTOR_LANES = vectorLanes();
 
-        /*Vector tMin = new Vector();
-        Vector tMax = new Vector();
-        Vector s = ray.origin.toVector();
-        Vector dir = new Vector(1, 1, 1).divide(ray.direction);
+    public static Intersection<Ray, BoundingBox> intersection(Ray ray, BoundingBox box) {
+        return new Intersection<>(ray, box, ray, distance(ray, box));
+    }
 
-        Vector[] bounds = { box.getMin().clone(), box.getMax().clone() };
-        tMin.setX((bounds[sign[0]].getX() - s.getX()) * dir.getX());
-        tMax.setX((bounds[1 - sign[0]].getX() - s.getX()) * dir.getX());
-        tMin.setY((bounds[sign[1]].getY() - s.getY()) * dir.getY());
-        tMax.setY((bounds[1 - sign[1]].getY() - s.getY()) * dir.getY());
+    /**
+     * Finds how far along the ray it first touches the box, without allocating anything.
+     *
+     * @return The distance from the ray's origin to the point where it enters the box (0.0 if the origin is
+     * already inside it), or {@link #MISS} if the ray never touches the box within its length.
+     */
+    public static double distance(Ray ray, BoundingBox box) {
+        return slab(ray.origin.getX(), ray.origin.getY(), ray.origin.getZ(),
+                ray.inverseX, ray.inverseY, ray.inverseZ,
+                box.getMinX(), box.getMinY(), box.getMinZ(),
+                box.getMaxX(), box.getMaxY(), box.getMaxZ(),
+                ray.length);
+    }
 
-        // ensure these contain the smallest and largest values in this interaction
+    /**
+     * Slab test between a ray and an axis-aligned box, done entirely on primitives.
+     * <br><br>
+     * The ray is described by its origin and the reciprocal of each component of its direction, so that callers
+     * testing one ray against many boxes only divide once. The direction does not have to be normalized; results
+     * are in multiples of it.
+     *
+     * @param maxT How far along the ray to test. Hits beyond this are treated as misses.
+     * @return The entry value of t (0.0 if the origin is inside the box), or {@link #MISS}.
+     */
+    public static double slab(double originX, double originY, double originZ,
+                              double inverseX, double inverseY, double inverseZ,
+                              double minX, double minY, double minZ,
+                              double maxX, double maxY, double maxZ,
+                              double maxT) {
+        return slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                minX, minY, minZ, maxX, maxY, maxZ, maxT, null);
+    }
 
-        if (tMin.getX() > tMax.getY() || tMin.getY() > tMax.getX())
-            return new Intersection<>(ray, box, null);
+    /**
+     * As {@link #slab(double, double, double, double, double, double, double, double, double, double, double, double, double)},
+     * but on a hit also writes the entry and exit values of t into the first two elements of the provided array,
+     * which callers can reuse between tests.
+     */
+    public static double slab(double originX, double originY, double originZ,
+                              double inverseX, double inverseY, double inverseZ,
+                              double minX, double minY, double minZ,
+                              double maxX, double maxY, double maxZ,
+                              double maxT, double[] out) {
+        double tNear = Double.NEGATIVE_INFINITY;
+        double tFar = Double.POSITIVE_INFINITY;
 
-        if (tMin.getY() > tMin.getX())
-            tMin.setX(tMin.getY());
+        // An axis the ray doesn't move along has an infinite inverse, and its slab times would be 0 * infinity = NaN
+        // if the origin lies exactly on one of the box's faces. The ray is either within that slab the whole way or
+        // never, so such axes are checked by position instead.
+        if (Double.isInfinite(inverseX)) {
+            if (originX < minX || originX > maxX)
+                return MISS;
+        } else {
+            double t1 = (minX - originX) * inverseX, t2 = (maxX - originX) * inverseX;
+            tNear = Math.min(t1, t2);
+            tFar = Math.max(t1, t2);
+        }
 
-        if (tMax.getY() < tMax.getX())
-            tMax.setX(tMax.getY());
+        if (Double.isInfinite(inverseY)) {
+            if (originY < minY || originY > maxY)
+                return MISS;
+        } else {
+            double t1 = (minY - originY) * inverseY, t2 = (maxY - originY) * inverseY;
+            tNear = Math.max(tNear, Math.min(t1, t2));
+            tFar = Math.min(tFar, Math.max(t1, t2));
+        }
 
-        tMin.setZ((bounds[sign[2]].getZ() - s.getZ()) * dir.getZ());
-        tMax.setZ((bounds[1 - sign[2]].getZ() - s.getZ()) * dir.getZ());
+        if (Double.isInfinite(inverseZ)) {
+            if (originZ < minZ || originZ > maxZ)
+                return MISS;
+        } else {
+            double t1 = (minZ - originZ) * inverseZ, t2 = (maxZ - originZ) * inverseZ;
+            tNear = Math.max(tNear, Math.min(t1, t2));
+            tFar = Math.min(tFar, Math.max(t1, t2));
+        }
 
-        if (tMin.getX() > tMax.getZ() || tMin.getZ() > tMax.getX())
-            return new Intersection<>(ray, box, null);
+        if (tNear < 0.0)
+            tNear = 0.0;
+        if (tNear > tFar || tNear > maxT)
+            return MISS;
+        if (out != null) {
+            out[0] = tNear;
+            out[1] = tFar;
+        }
+        return tNear;
+    }
 
-        if (tMin.getZ() > tMin.getX())
-            tMin.setX(tMin.getZ());
+    /**
+     * Slab test between one ray and many boxes, stored as separate arrays of each coordinate. Gives the same
+     * answers as testing each box with
+     * {@link #slab(double, double, double, double, double, double, double, double, double, double, double, double, double)},
+     * but several boxes are tested at once if the server has the JDK's Vector API enabled and
+     * {@link CoreSettings.PhysicsSettings#vectorizedSlabs} is on.
+     *
+     * @param count How many boxes to test, starting from the first element of each array.
+     * @param out   Receives, for each box, the entry value of t or {@link #MISS}. Must hold at least {@code count}
+     *              elements.
+     * @return How many of the boxes the ray hits.
+     */
+    public static int slab(double originX, double originY, double originZ,
+                           double inverseX, double inverseY, double inverseZ,
+                           double[] minX, double[] minY, double[] minZ,
+                           double[] maxX, double[] maxY, double[] maxZ,
+                           int count, double maxT, double[] out) {
+        if (VECTOR_LANES > 1 && count >= VECTOR_LANES && CoreSettings.physicsSettings.vectorizedSlabs)
+            return VectorizedSlab.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                    minX, minY, minZ, maxX, maxY, maxZ, count, maxT, out);
+        int hits = 0;
+        for (int i = 0; i < count; i++) {
+            double t = slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                    minX[i], minY[i], minZ[i], maxX[i], maxY[i], maxZ[i], maxT);
+            out[i] = t;
+            if (t != MISS)
+                hits++;
+        }
+        return hits;
+    }
 
-        if (tMax.getZ() < tMax.getX())
-            tMax.setX(tMax.getZ());
+    /**
+     * @return Whether batched slab tests can use the Vector API on this server.
+     */
+    public static boolean isVectorized() {
+        return VECTOR_LANES > 1;
+    }
 
-        return new Intersection<>(ray, box, box.getCenter().toLocation(world));*/
+    private static int vectorLanes() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return 0;
+        try {
+            // with only two lanes, the kernel benchmarks slower than the scalar loop (see SlabBenchmark)
+            int lanes = VectorizedSlab.lanes();
+            return lanes >= 4 ? lanes : 0;
+        } catch (LinkageError e) {
+            return 0;
+        }
     }
 
     public static Set<LivingEntity> raycastEntities(Ray ray) {
@@ -127,43 +194,20 @@ public final class Physics {
         if (world == null)
             return potentialTargets;
 
-        // restrict our search to only chunks that will be hit by this raycast
-        Set<Chunk> hitChunks = new HashSet<>();
+        // restrict our search to only loaded chunks that an entity hit by this raycast could be standing in
+        Set<Long> hitChunks = new LinkedHashSet<>();
+        collectChunks(ray, CoreSettings.physicsSettings.entityPadding, hitChunks);
 
-        // check if the raycast will only ever hit this chunk.
-        // this is the case if someone looks straight up or down.
-        Location sameChunkCheck = origin.clone().add(direction.clone().multiply(distance));
-        if (world.getChunkAt(origin).equals(world.getChunkAt(sameChunkCheck))) {
-            hitChunks.add(world.getChunkAt(origin));
-        } else {
-            // set up a location to do this
-            Location chunkCheck = origin.clone();
-            // then precalculate this so we're not creating a new vector every iteration
-            Vector chunkCastVector = direction.clone().multiply(CHUNK_SIZE);
-            double distTraveled = 0.0;
-
-            // We add the CHUNK_SIZE here because a raycast of length <= 16.0 would only check the origin
-            // and the loop would break after one iteration. This means we cast for an extra chunk.
-            while (distTraveled < distance + CHUNK_SIZE) {
-                hitChunks.add(world.getChunkAt(chunkCheck));
-                distTraveled += CHUNK_SIZE;
-                chunkCheck.add(chunkCastVector);
-            }
-        }
-
-        // we now have a set of all chunks the raycast could hit
-        // TODO: actually, we don't, because if a ray passes the corner or edge of another chunk, it'll do this really
-        //       funny thing where it won't bother checking the entities in that chunk. need to balance polling entities
-        //       as well since an entity with a large hitbox standing on a chunk border won't be hit
-
-        for (Chunk chunk : hitChunks) {
-            for (Entity e : chunk.getEntities()) {
+        for (long key : hitChunks) {
+            int chunkX = CellKey.chunkX(key), chunkZ = CellKey.chunkZ(key);
+            if (!world.isChunkLoaded(chunkX, chunkZ))
+                continue;
+            for (Entity e : world.getChunkAt(chunkX, chunkZ).getEntities()) {
                 if (!(e instanceof LivingEntity))
                     continue;
                 LivingEntity entity = (LivingEntity) e;
                 BoundingBox hitbox = entity.getBoundingBox();
-                Intersection<Ray, BoundingBox> intersection = intersection(ray, hitbox);
-                if (intersection != null)
+                if (distance(ray, hitbox) != MISS)
                     potentialTargets.add(entity);
             }
         }
@@ -174,4 +218,382 @@ public final class Physics {
     public static Set<LivingEntity> raycastEntities(Location origin, Vector direction, double distance) {
         return raycastEntities(new Ray(origin, direction, distance));
     }
-}
\ No newline at end of file
+
+    /**
+     * Raycasts for living entities along many rays at once. See
+     * {@link #raycastEntities(List, ChunkEntitySnapshot)}; this uses the snapshot shared by the current tick.
+     */
+    public static List<List<Intersection<Ray, LivingEntity>>> raycastEntities(List<Ray> rays) {
+        return raycastEntities(rays, ChunkEntitySnapshot.current());
+    }
+
+    /**
+     * Raycasts for living entities along many rays at once, such as the pellets of a shotgun blast. Each chunk's
+     * entities and their hitboxes are read once into the provided snapshot and shared between every ray, rather
+     * than being fetched again for each.
+     *
+     * @return One list per ray, in the same order as the rays, of every living entity it hits, ordered from
+     * nearest to farthest.
+     */
+    public static List<List<Intersection<Ray, LivingEntity>>> raycastEntities(List<Ray> rays,
+                                                                              ChunkEntitySnapshot snapshot) {
+        List<List<Intersection<Ray, LivingEntity>>> results = new ArrayList<>(rays.size());
+        Set<Long> chunks = new LinkedHashSet<>();
+        double padding = CoreSettings.physicsSettings.entityPadding;
+        double[] times = new double[16];
+
+        for (Ray ray : rays) {
+            List<Intersection<Ray, LivingEntity>> hits = new ArrayList<>();
+            results.add(hits);
+            World world = ray.origin.getWorld();
+            if (world == null || MathUtil.zero(ray.length))
+                continue;
+
+            double x = ray.origin.getX(), y = ray.origin.getY(), z = ray.origin.getZ();
+            chunks.clear();
+            collectChunks(ray, padding, chunks);
+            for (long key : chunks) {
+                ChunkEntitySnapshot.Entry entry = snapshot.get(world, key);
+                if (entry == null)
+                    continue;
+                int size = entry.entities.length;
+                if (times.length < size)
+                    times = new double[size];
+                if (slab(x, y, z, ray.inverseX, ray.inverseY, ray.inverseZ,
+                        entry.minX, entry.minY, entry.minZ, entry.maxX, entry.maxY, entry.maxZ,
+                        size, ray.length, times) == 0)
+                    continue;
+                for (int i = 0; i < size; i++)
+                    if (times[i] != MISS)
+                        hits.add(new Intersection<>(ray, entry.entities[i], ray, times[i]));
+            }
+            hits.sort(Comparator.comparingDouble(Intersection::getDistance));
+        }
+        return results;
+    }
+
+    /**
+     * Collects the keys (see {@link CellKey#chunk(int, int)}) of every chunk within the given horizontal distance
+     * of the ray, in the order the ray reaches them. Chunks the ray itself passes through are found with an exact
+     * grid traversal, so chunks it only clips at a corner are not missed.
+     *
+     * @param padding How far to either side of the ray to look. Entities are stored in the chunk containing their
+     *                position, so this should be at least the half-width of the widest hitbox that should be found.
+     */
+    public static void collectChunks(Ray ray, double padding, Set<Long> out) {
+        Location origin = ray.origin;
+        Vector direction = ray.direction;
+        // chunks are full-height columns, so walk the ray's shadow on the XZ plane
+        GridTraversal traversal = new GridTraversal().reset(origin.getX(), 0.0, origin.getZ(),
+                direction.getX(), 0.0, direction.getZ(), ray.length, CHUNK_SIZE);
+        while (traversal.next()) {
+            double x1 = origin.getX() + direction.getX() * traversal.enter(),
+                    x2 = origin.getX() + direction.getX() * traversal.exit(),
+                    z1 = origin.getZ() + direction.getZ() * traversal.enter(),
+                    z2 = origin.getZ() + direction.getZ() * traversal.exit();
+            int minX = CellKey.cell(Math.min(x1, x2) - padding, CHUNK_SIZE),
+                    maxX = CellKey.cell(Math.max(x1, x2) + padding, CHUNK_SIZE),
+                    minZ = CellKey.cell(Math.min(z1, z2) - padding, CHUNK_SIZE),
+                    maxZ = CellKey.cell(Math.max(z1, z2) + padding, CHUNK_SIZE);
+            for (int x = minX; x <= maxX; x++)
+                for (int z = minZ; z <= maxZ; z++)
+                    out.add(CellKey.chunk(x, z));
+        }
+    }
+
+    /**
+     * Walks every block the ray passes through, in order, and returns the first one matching the provided
+     * condition. Stops at the first unloaded chunk rather than loading it.
+     *
+     * @return The first matching block, or null if there isn't one.
+     */
+    public static Block raycastBlock(Ray ray, Predicate<Block> condition) {
+        World world = ray.origin.getWorld();
+        if (world == null)
+            return null;
+        GridTraversal traversal = new GridTraversal().reset(ray.origin.getX(), ray.origin.getY(), ray.origin.getZ(),
+                ray.direction.getX(), ray.direction.getY(), ray.direction.getZ(), ray.length, 1.0);
+        while (traversal.next()) {
+            if (!world.isChunkLoaded(traversal.x() >> 4, traversal.z() >> 4))
+                return null;
+            Block block = world.getBlockAt(traversal.x(), traversal.y(), traversal.z());
+            if (condition.test(block))
+                return block;
+        }
+        return null;
+    }
+
+    /**
+     * Finds every piece of custom geometry registered with the world's {@link StaticGeometryIndex} that the ray
+     * passes through, ordered by distance. Chunks that aren't loaded are skipped.
+     */
+    public static List<Intersection<Ray, StaticShape>> raycastShapes(Ray ray) {
+        World world = ray.origin.getWorld();
+        StaticGeometryIndex index = world == null ? null : StaticGeometryIndex.get(world);
+        return index == null ? new ArrayList<>() : index.raycast(ray);
+    }
+
+    /**
+     * Finds every living entity whose hitbox is at least partly within the given distance of a point.
+     *
+     * @param out The buffer to put the results in. It's cleared first.
+     * @return The provided buffer.
+     */
+    public static QueryBuffer querySphere(Location center, double radius, QueryBuffer out) {
+        out.clear();
+        World world = center.getWorld();
+        if (world == null || radius <= 0)
+            return out;
+        double x = center.getX(), y = center.getY(), z = center.getZ();
+        broadphase(world, x - radius, y - radius, z - radius, x + radius, y + radius, z + radius, out);
+
+        double radiusSquared = radius * radius;
+        for (int i = 0; i < out.candidates.size(); i++) {
+            BoundingBox box = out.candidateBoxes.get(i);
+            if (distanceSquared(box, x, y, z) <= radiusSquared)
+                out.add(out.candidates.get(i), box);
+        }
+        return out;
+    }
+
+    /**
+     * Finds every living entity that the given location can see, in the sense of
+     * {@link VectorUtil#canSee(Location, Location, float, double)}: the center of its hitbox is within range and
+     * within half the vision angle of the direction the location faces.
+     *
+     * @param visionRadius The full angle of the cone, in degrees.
+     * @param visionRange  How far the cone reaches.
+     * @param out          The buffer to put the results in. It's cleared first.
+     * @return The provided buffer.
+     */
+    public static QueryBuffer queryCone(Location apex, float visionRadius, double visionRange, QueryBuffer out) {
+        out.clear();
+        World world = apex.getWorld();
+        if (world == null || visionRadius == 0f || visionRange <= 0)
+            return out;
+        double x = apex.getX(), y = apex.getY(), z = apex.getZ();
+        broadphase(world, x - visionRange, y - visionRange, z - visionRange,
+                x + visionRange, y + visionRange, z + visionRange, out);
+
+        Vector direction = apex.getDirection();
+        double cosHalfAngle = Math.cos(Math.toRadians(visionRadius / 2.0));
+        double rangeSquared = visionRange * visionRange;
+        for (int i = 0; i < out.candidates.size(); i++) {
+            BoundingBox box = out.candidateBoxes.get(i);
+            double dx = box.getCenterX() - x, dy = box.getCenterY() - y, dz = box.getCenterZ() - z;
+            if (dx * dx + dy * dy + dz * dz <= rangeSquared
+                    && VectorUtil.withinCone(dx, dy, dz, direction.getX(), direction.getY(), direction.getZ(),
+                    cosHalfAngle))
+                out.add(out.candidates.get(i), box);
+        }
+        return out;
+    }
+
+    /**
+     * Finds every living entity whose hitbox is at least partly within the given distance of the line segment
+     * between two points, such as the path of a beam with some thickness.
+     *
+     * @param out The buffer to put the results in. It's cleared first.
+     * @return The provided buffer.
+     */
+    public static QueryBuffer queryCapsule(Location from, Location to, double radius, QueryBuffer out) {
+        out.clear();
+        World world = from.getWorld();
+        if (world == null || radius < 0)
+            return out;
+        double x = from.getX(), y = from.getY(), z = from.getZ();
+        double dx = to.getX() - x, dy = to.getY() - y, dz = to.getZ() - z;
+        broadphase(world, Math.min(x, x + dx) - radius, Math.min(y, y + dy) - radius, Math.min(z, z + dz) - radius,
+                Math.max(x, x + dx) + radius, Math.max(y, y + dy) + radius, Math.max(z, z + dz) + radius, out);
+
+        double radiusSquared = radius * radius;
+        double inverseX = 1.0 / dx, inverseY = 1.0 / dy, inverseZ = 1.0 / dz;
+        for (int i = 0; i < out.candidates.size(); i++) {
+            BoundingBox box = out.candidateBoxes.get(i);
+            // A segment that misses the box grown by the radius is too far away. One that hits it is close enough
+            // unless it only passes through the grown box's edges or corners, which are rounded off in the
+            // capsule's shape, so those are settled by the exact distance.
+            if (slab(x, y, z, inverseX, inverseY, inverseZ,
+                    box.getMinX() - radius, box.getMinY() - radius, box.getMinZ() - radius,
+                    box.getMaxX() + radius, box.getMaxY() + radius, box.getMaxZ() + radius, 1.0) != MISS
+                    && segmentDistanceSquared(box, x, y, z, dx, dy, dz) <= radiusSquared)
+                out.add(out.candidates.get(i), box);
+        }
+        return out;
+    }
+
+    /**
+     * Finds every living entity whose hitbox overlaps a box turned to face the same way as the given location, such
+     * as the area in front of a player swinging a weapon.
+     *
+     * @param center      The center of the box. Its yaw and pitch orient the box.
+     * @param halfExtents Half the box's size along each of its own axes: x to the right of the direction faced, y
+     *                    upward and z forward.
+     * @param out         The buffer to put the results in. It's cleared first.
+     * @return The provided buffer.
+     */
+    public static QueryBuffer queryBox(Location center, Vector halfExtents, QueryBuffer out) {
+        out.clear();
+        World world = center.getWorld();
+        if (world == null)
+            return out;
+        // same as Location.getDirection(), without the Vector
+        double yaw = Math.toRadians(center.getYaw()), pitch = Math.toRadians(center.getPitch());
+        double forwardX = -Math.sin(yaw) * Math.cos(pitch), forwardY = -Math.sin(pitch),
+                forwardZ = Math.cos(yaw) * Math.cos(pitch);
+        // the right-hand axis stays level no matter the pitch
+        double[] axes = out.axes;
+        axes[0] = -Math.cos(yaw);
+        axes[1] = 0.0;
+        axes[2] = -Math.sin(yaw);
+        // up = right x forward
+        axes[3] = -axes[2] * forwardY;
+        axes[4] = axes[2] * forwardX - axes[0] * forwardZ;
+        axes[5] = axes[0] * forwardY;
+        axes[6] = forwardX;
+        axes[7] = forwardY;
+        axes[8] = forwardZ;
+        double[] half = out.halfExtents;
+        half[0] = halfExtents.getX();
+        half[1] = halfExtents.getY();
+        half[2] = halfExtents.getZ();
+        double x = center.getX(), y = center.getY(), z = center.getZ();
+        double reachX = 0, reachY = 0, reachZ = 0;
+        for (int j = 0; j < 3; j++) {
+            reachX += half[j] * Math.abs(axes[j * 3]);
+            reachY += half[j] * Math.abs(axes[j * 3 + 1]);
+            reachZ += half[j] * Math.abs(axes[j * 3 + 2]);
+        }
+        broadphase(world, x - reachX, y - reachY, z - reachZ, x + reachX, y + reachY, z + reachZ, out);
+
+        for (int i = 0; i < out.candidates.size(); i++) {
+            BoundingBox box = out.candidateBoxes.get(i);
+            if (overlapsOriented(box, x, y, z, axes, half))
+                out.add(out.candidates.get(i), box);
+        }
+        return out;
+    }
+
+    private static void broadphase(World world, double minX, double minY, double minZ,
+                                   double maxX, double maxY, double maxZ, QueryBuffer out) {
+        out.area.resize(minX, minY, minZ, maxX, maxY, maxZ);
+        EntityGrid.of(world).query(out.area, out.candidates, out.candidateBoxes);
+    }
+
+    /**
+     * @return The squared distance from a point to the nearest point of a box, or 0.0 if the point is inside it.
+     */
+    private static double distanceSquared(BoundingBox box, double x, double y, double z) {
+        double dx = Math.max(0.0, Math.max(box.getMinX() - x, x - box.getMaxX())),
+                dy = Math.max(0.0, Math.max(box.getMinY() - y, y - box.getMaxY())),
+                dz = Math.max(0.0, Math.max(box.getMinZ() - z, z - box.getMaxZ()));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * The squared distance between a box and a line segment, 0.0 if it passes through the box.
+     * <br><br>
+     * Along the segment, the squared distance to the box is a sum of one quadratic per axis the point is outside
+     * the box on, so it's convex, and its slope is piecewise linear, only changing where the segment crosses one of
+     * the planes of the box's faces. The closest point is where the slope reaches zero: the crossings bracket the
+     * one stretch that happens in, and on that stretch the slope is a line, so its zero is found exactly.
+     */
+    private static double segmentDistanceSquared(BoundingBox box, double x, double y, double z,
+                                                 double dx, double dy, double dz) {
+        double lo = 0.0, hi = 1.0;
+        double slopeLo = distanceSlope(box, x, y, z, dx, dy, dz, lo),
+                slopeHi = distanceSlope(box, x, y, z, dx, dy, dz, hi);
+        double t;
+        if (slopeLo >= 0.0)
+            t = lo;
+        else if (slopeHi <= 0.0)
+            t = hi;
+        else {
+            for (int axis = 0; axis < 3; axis++) {
+                double start = axis == 0 ? x : axis == 1 ? y : z;
+                double step = axis == 0 ? dx : axis == 1 ? dy : dz;
+                double min = axis == 0 ? box.getMinX() : axis == 1 ? box.getMinY() : box.getMinZ();
+                double max = axis == 0 ? box.getMaxX() : axis == 1 ? box.getMaxY() : box.getMaxZ();
+                for (int side = 0; side < 2; side++) {
+                    // NaN or infinite if the segment doesn't move along this axis, which never falls in between
+                    double crossing = ((side == 0 ? min : max) - start) / step;
+                    if (!(crossing > lo && crossing < hi))
+                        continue;
+                    double slope = distanceSlope(box, x, y, z, dx, dy, dz, crossing);
+                    if (slope < 0.0) {
+                        lo = crossing;
+                        slopeLo = slope;
+                    } else {
+                        hi = crossing;
+                        slopeHi = slope;
+                    }
+                }
+            }
+            t = lo - slopeLo * (hi - lo) / (slopeHi - slopeLo);
+        }
+        return distanceSquared(box, x + dx * t, y + dy * t, z + dz * t);
+    }
+
+    /**
+     * @return Half the rate at which the squared distance from the point t of the way along a segment to a box
+     * changes with t.
+     */
+    private static double distanceSlope(BoundingBox box, double x, double y, double z,
+                                        double dx, double dy, double dz, double t) {
+        return dx * outside(x + dx * t, box.getMinX(), box.getMaxX())
+                + dy * outside(y + dy * t, box.getMinY(), box.getMaxY())
+                + dz * outside(z + dz * t, box.getMinZ(), box.getMaxZ());
+    }
+
+    /**
+     * @return How far a coordinate is past the nearer end of a range, negative below it, or 0.0 if it's within it.
+     */
+    private static double outside(double value, double min, double max) {
+        return value < min ? value - min : value > max ? value - max : 0.0;
+    }
+
+    /**
+     * Separating axis test between an axis-aligned box and an oriented one. The rotation is read into locals once,
+     * since this runs for every candidate.
+     *
+     * @param axes The oriented box's three unit axes, three components each.
+     * @param half The oriented box's half-size along each of its axes.
+     */
+    private static boolean overlapsOriented(BoundingBox box, double x, double y, double z,
+                                            double[] axes, double[] half) {
+        double a0 = box.getWidthX() / 2.0, a1 = box.getHeight() / 2.0, a2 = box.getWidthZ() / 2.0;
+        double t0 = x - box.getCenterX(), t1 = y - box.getCenterY(), t2 = z - box.getCenterZ();
+        double h0 = half[0], h1 = half[1], h2 = half[2];
+        // rij is world axis i dotted with the oriented box's axis j, which is just that axis' ith component;
+        // the epsilon keeps near-parallel axes from producing a useless cross product
+        double r00 = axes[0], r10 = axes[1], r20 = axes[2],
+                r01 = axes[3], r11 = axes[4], r21 = axes[5],
+                r02 = axes[6], r12 = axes[7], r22 = axes[8];
+        double e00 = Math.abs(r00) + MathUtil.EPSILON, e01 = Math.abs(r01) + MathUtil.EPSILON,
+                e02 = Math.abs(r02) + MathUtil.EPSILON, e10 = Math.abs(r10) + MathUtil.EPSILON,
+                e11 = Math.abs(r11) + MathUtil.EPSILON, e12 = Math.abs(r12) + MathUtil.EPSILON,
+                e20 = Math.abs(r20) + MathUtil.EPSILON, e21 = Math.abs(r21) + MathUtil.EPSILON,
+                e22 = Math.abs(r22) + MathUtil.EPSILON;
+
+        // the world axes
+        if (Math.abs(t0) > a0 + h0 * e00 + h1 * e01 + h2 * e02
+                || Math.abs(t1) > a1 + h0 * e10 + h1 * e11 + h2 * e12
+                || Math.abs(t2) > a2 + h0 * e20 + h1 * e21 + h2 * e22)
+            return false;
+        // the oriented box's axes
+        if (Math.abs(t0 * r00 + t1 * r10 + t2 * r20) > a0 * e00 + a1 * e10 + a2 * e20 + h0
+                || Math.abs(t0 * r01 + t1 * r11 + t2 * r21) > a0 * e01 + a1 * e11 + a2 * e21 + h1
+                || Math.abs(t0 * r02 + t1 * r12 + t2 * r22) > a0 * e02 + a1 * e12 + a2 * e22 + h2)
+            return false;
+        // each pairing of one axis from each box, crossed
+        return Math.abs(t2 * r10 - t1 * r20) <= a1 * e20 + a2 * e10 + h1 * e02 + h2 * e01
+                && Math.abs(t2 * r11 - t1 * r21) <= a1 * e21 + a2 * e11 + h2 * e00 + h0 * e02
+                && Math.abs(t2 * r12 - t1 * r22) <= a1 * e22 + a2 * e12 + h0 * e01 + h1 * e00
+                && Math.abs(t0 * r20 - t2 * r00) <= a2 * e00 + a0 * e20 + h1 * e12 + h2 * e11
+                && Math.abs(t0 * r21 - t2 * r01) <= a2 * e01 + a0 * e21 + h2 * e10 + h0 * e12
+                && Math.abs(t0 * r22 - t2 * r02) <= a2 * e02 + a0 * e22 + h0 * e11 + h1 * e10
+                && Math.abs(t1 * r00 - t0 * r10) <= a0 * e10 + a1 * e00 + h1 * e22 + h2 * e21
+                && Math.abs(t1 * r01 - t0 * r11) <= a0 * e11 + a1 * e01 + h2 * e20 + h0 * e22
+                && Math.abs(t1 * r02 - t0 * r12) <= a0 * e12 + a1 * e02 + h0 * e21 + h1 * e20;
+    }
+}
@@ -0,0 +1,141 @@
+package dev.blufantasyonline.embercore.physics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import dev.blufantasyonline.embercore.CoreSettings;
+import dev.blufantasyonline.embercore.EmberCore;
+import dev.blufantasyonline.embercore.reflection.annotations.OnEnable;
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Keeps simulation time. The simulation runs in fixed ticks of {@code 1 / }{@link EmberCore#serverTickrate} seconds,
+ * counted by {@link #currentTick()}, and everything timed by it (projectile movement and lifetimes,
+ * {@link dev.blufantasyonline.embercore.util.sequence.Sequence sequences}) is measured in those ticks.
+ * <br><br>
+ * Every server tick, the clock adds the real time since the last one to an accumulator and runs one simulation tick
+ * per tick's worth of time in it. On a healthy server that's one simulation tick per server tick. When the server
+ * lags, it's more, so projectiles keep their speed in real time instead of slowing down with the server. There's a
+ * cap, {@link CoreSettings.PhysicsSettings#maxCatchUpTicks}, on how many run in one server tick, so a long stall
+ * can't make the next server tick even longer. Time beyond that is dropped and the simulation falls behind.
+ */
+@OnEnable
+public final class PhysicsClock {
+    // how much of each new measurement goes into the averaged tick length, and how hard the accumulator is pulled
+    // back to half a tick each server tick
+    @JsonIgnore
+    private static final double SMOOTHING = 0.05;
+    @JsonIgnore
+    private static long currentTick = 0;
+    @JsonIgnore
+    private static long lastNanos = 0;
+    @JsonIgnore
+    private static double accumulatedNanos = 0.0;
+    @JsonIgnore
+    private static double averageTickNanos = 0.0;
+    @JsonIgnore
+    private static int lastSteps = 0;
+    @JsonIgnore
+    private static long droppedTicks = 0;
+    @JsonIgnore
+    private static boolean running = false;
+
+    @OnEnable
+    private void start() {
+        lastNanos = 0;
+        running = true;
+        new BukkitRunnable() {
+            public void run() {
+                advance(System.nanoTime());
+            }
+        }.runTaskTimer(EmberCore.getInstance(), 0, 1);
+    }
+
+    /**
+     * @return The number of simulation ticks that have run.
+     */
+    public static long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * @return Whether the clock is being advanced by the server.
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The length of one simulation tick, in milliseconds.
+     */
+    public static double tickMillis() {
+        return 1000.0 / EmberCore.serverTickrate;
+    }
+
+    /**
+     * Converts a duration in milliseconds to simulation ticks, rounding up.
+     */
+    public static long toTicks(long millis) {
+        return (long) Math.ceil(millis / tickMillis());
+    }
+
+    /**
+     * @return The server's actual tick rate, in ticks per second, averaged over roughly the last couple of seconds.
+     * {@link EmberCore#serverTickrate} until it's been measured.
+     */
+    public static double getServerTickrate() {
+        return averageTickNanos > 0.0 ? 1e9 / averageTickNanos : EmberCore.serverTickrate;
+    }
+
+    /**
+     * @return How many simulation ticks ran during the last server tick.
+     */
+    public static int getLastSteps() {
+        return lastSteps;
+    }
+
+    /**
+     * @return How many simulation ticks have been skipped because the server fell too far behind to catch up on
+     * them, since the server started.
+     */
+    public static long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    private static void advance(long now) {
+        double tickNanos = 1e9 / EmberCore.serverTickrate;
+        if (lastNanos == 0) {
+            // Start half a tick in, so that a server ticking on time lands in the middle of each simulation tick and
+            // small jitter either way never runs zero or two.
+            accumulatedNanos = tickNanos * 1.5;
+            averageTickNanos = tickNanos;
+        } else {
+            long elapsed = now - lastNanos;
+            accumulatedNanos += elapsed;
+            averageTickNanos += (elapsed - averageTickNanos) * SMOOTHING;
+        }
+        lastNanos = now;
+
+        int steps = (int) Math.min(Integer.MAX_VALUE, (long) (accumulatedNanos / tickNanos));
+        int maxSteps = Math.max(1, CoreSettings.physicsSettings.maxCatchUpTicks);
+        if (steps > maxSteps) {
+            droppedTicks += steps - maxSteps;
+            steps = maxSteps;
+            accumulatedNanos = tickNanos * (steps + 0.5);
+        }
+        accumulatedNanos -= steps * tickNanos;
+        // Jitter adds up, so ease what's left back toward half a tick. A server that's really behind or ahead moves
+        // it much faster than this pulls, so that still shows up as extra or skipped ticks.
+        accumulatedNanos += (tickNanos * 0.5 - accumulatedNanos) * SMOOTHING;
+        lastSteps = steps;
+        for (int i = 0; i < steps; i++)
+            step();
+    }
+
+    /**
+     * Runs one simulation tick. Also used by {@link ProjectileResimulation}, which runs the simulation without a
+     * server.
+     */
+    static void step() {
+        currentTick++;
+        ProjectileRegistry.tick();
+    }
+}
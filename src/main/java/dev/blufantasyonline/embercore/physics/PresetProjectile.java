@@ -0,0 +1,210 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.physics.spatial.StaticShape;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.BoundingBox;
+import org.bukkit.util.Vector;
+
+/**
+ * A projectile configured entirely by a {@link ProjectilePreset}. These are handed out by
+ * {@link ProjectileRegistry#fromPreset(String, Location)} and go back to their preset's {@link ProjectilePool}
+ * once they've died, so <b>don't hold on to one after its death</b>; it may already be flying again as another shot.
+ * <br><br>
+ * What the projectile does in flight and on impact comes from the preset's {@link ProjectileStage stages}, run from
+ * the preset's compiled {@link ProjectileProgram}.
+ */
+public final class PresetProjectile extends VectorProjectile {
+    // how long to wait before looking for a homing target again after finding none
+    private static final int HOMING_RETRY_TICKS = 5;
+    // shared by every homing projectile's target search, which only happens on the main thread
+    private static final QueryBuffer homingCandidates = new QueryBuffer();
+
+    private final ProjectilePool pool;
+    private ProjectilePreset preset;
+    private ProjectileProgram program;
+    private boolean pooled = false;
+    private int pierced = 0;
+    private LivingEntity homingTarget = null;
+    private long nextHomingSearch = 0;
+
+    PresetProjectile(ProjectilePool pool, Location origin) {
+        super(origin.clone(), false);
+        this.pool = pool;
+    }
+
+    public ProjectilePreset getPreset() {
+        return preset;
+    }
+
+    /**
+     * Fires this projectile from the given location as a fresh shot of the given preset.
+     */
+    void launch(ProjectilePreset newPreset, Location origin) {
+        preset = newPreset;
+        program = newPreset.program();
+        pooled = false;
+        pierced = 0;
+        homingTarget = null;
+        nextHomingSearch = 0;
+        relaunch(origin);
+    }
+
+    @Override
+    protected void init() {
+        setLifetime(preset.lifetime);
+        setRange(preset.range);
+        setSize(preset.size);
+        setUnloadedChunkPolicy(preset.unloadedChunkPolicy);
+        setLodDistances(preset.lodReducedDistance, preset.lodCoarseDistance);
+        if (program.gravity != 0)
+            setAcceleration(new Vector(0, -program.gravity, 0));
+        super.init();
+    }
+
+    @Override
+    public void onTick() {
+        int[] code = program.tick;
+        double[] args = program.args;
+        for (int pc = 0; pc < code.length; pc += 2) {
+            int a = code[pc + 1];
+            switch (code[pc]) {
+                case ProjectileProgram.DRAG:
+                    velocity.multiply(args[a]);
+                    break;
+                case ProjectileProgram.HOMING:
+                    home(args[a], args[a + 1]);
+                    break;
+                case ProjectileProgram.TRAIL:
+                    TrailRenderer.add(location, program.particles[(int) args[a]], (int) args[a + 1]);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public boolean onHitEntity(LivingEntity entity) {
+        impact(entity);
+        return ++pierced > program.pierce;
+    }
+
+    @Override
+    public boolean onHitBlock(Block block) {
+        impact(null);
+        return true;
+    }
+
+    @Override
+    public boolean onHitShape(StaticShape shape) {
+        impact(null);
+        return true;
+    }
+
+    /**
+     * Runs the program's hit instructions.
+     *
+     * @param entity The entity hit, or null if it was something else.
+     */
+    private void impact(LivingEntity entity) {
+        int[] code = program.hit;
+        double[] args = program.args;
+        for (int pc = 0; pc < code.length; pc += 2) {
+            int a = code[pc + 1];
+            switch (code[pc]) {
+                case ProjectileProgram.DAMAGE:
+                    if (entity == null)
+                        break;
+                    if (owner != null)
+                        entity.damage(args[a], owner);
+                    else
+                        entity.damage(args[a]);
+                    break;
+                case ProjectileProgram.KNOCKBACK:
+                    double speed = velocity.length();
+                    if (entity != null && speed > 0)
+                        entity.setVelocity(entity.getVelocity().add(velocity.clone().multiply(args[a] / speed)));
+                    break;
+                case ProjectileProgram.IGNITE:
+                    if (entity != null)
+                        entity.setFireTicks(Math.max(entity.getFireTicks(), (int) args[a]));
+                    break;
+                case ProjectileProgram.BURST:
+                    double spread = args[a + 2];
+                    location.getWorld().spawnParticle(program.particles[(int) args[a]],
+                            location.getX(), location.getY(), location.getZ(), (int) args[a + 1],
+                            spread, spread, spread, 0);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Turns the projectile toward its homing target, keeping its speed, and finds a new target if it needs one.
+     */
+    private void home(double range, double turnRate) {
+        World world = location.getWorld();
+        if (homingTarget != null && (!homingTarget.isValid() || homingTarget.getWorld() != world
+                || hitEntities.contains(homingTarget.getEntityId())
+                || center(homingTarget.getBoundingBox()).distanceSquared(location.toVector()) > range * range))
+            homingTarget = null;
+        if (homingTarget == null) {
+            long now = ProjectileRegistry.currentTick();
+            if (now < nextHomingSearch)
+                return;
+            homingTarget = nearestTarget(range);
+            if (homingTarget == null) {
+                nextHomingSearch = now + HOMING_RETRY_TICKS;
+                return;
+            }
+        }
+
+        double speed = velocity.length();
+        Vector toTarget = center(homingTarget.getBoundingBox()).subtract(location.toVector());
+        double distance = toTarget.length();
+        if (speed == 0 || distance == 0)
+            return;
+        // blend toward heading straight at the target, then restore the speed
+        toTarget.multiply(speed / distance).subtract(velocity).multiply(turnRate);
+        velocity.add(toTarget);
+        double turned = velocity.length();
+        if (turned > 0)
+            velocity.multiply(speed / turned);
+    }
+
+    private LivingEntity nearestTarget(double range) {
+        Physics.querySphere(location, range, homingCandidates);
+        LivingEntity nearest = null;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < homingCandidates.size(); i++) {
+            LivingEntity candidate = homingCandidates.get(i);
+            if (candidate.equals(owner) || hitEntities.contains(candidate.getEntityId()))
+                continue;
+            BoundingBox box = homingCandidates.getBoundingBox(i);
+            double dx = box.getCenterX() - location.getX(),
+                    dy = box.getCenterY() - location.getY(),
+                    dz = box.getCenterZ() - location.getZ();
+            double distance = dx * dx + dy * dy + dz * dz;
+            if (distance < nearestDistance) {
+                nearest = candidate;
+                nearestDistance = distance;
+            }
+        }
+        homingCandidates.clear();
+        return nearest;
+    }
+
+    private static Vector center(BoundingBox box) {
+        return new Vector(box.getCenterX(), box.getCenterY(), box.getCenterZ());
+    }
+
+    @Override
+    void onRemoved() {
+        // something unregistered it without destroying it, so it may still be in use
+        if (isActive() || pooled)
+            return;
+        pooled = true;
+        pool.release(this);
+    }
+}
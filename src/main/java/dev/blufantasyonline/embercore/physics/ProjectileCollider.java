@@ -0,0 +1,179 @@
+package dev.blufantasyonline.embercore.physics;
+
+import org.bukkit.util.BoundingBox;
+
+import java.util.Arrays;
+
+/**
+ * Finds projectiles that ran into each other during a tick, among those that have opted in with
+ * {@link VectorProjectile#setCollidesWithProjectiles(boolean)}.
+ * <br><br>
+ * Each projectile's path over the tick is boxed, and the boxes are kept sorted by their lowest X coordinate from one
+ * tick to the next. Projectiles don't move far relative to each other in one tick, so the order barely changes and an
+ * insertion sort puts it right in close to linear time. A single sweep along X then only pairs up projectiles whose
+ * boxes overlap on that axis, and each of those pairs gets an exact swept test.
+ */
+final class ProjectileCollider {
+    private VectorProjectile[] items = new VectorProjectile[16];
+    // per item, in the same order: the swept box over the tick, the hitbox center at the start and end of the tick,
+    // and the hitbox half-extents
+    private double[] minX = new double[16], maxX = new double[16];
+    private double[] minY = new double[16], maxY = new double[16];
+    private double[] minZ = new double[16], maxZ = new double[16];
+    private double[] startX = new double[16], startY = new double[16], startZ = new double[16];
+    private double[] endX = new double[16], endY = new double[16], endZ = new double[16];
+    private double[] halfX = new double[16], halfY = new double[16], halfZ = new double[16];
+    private int size = 0;
+
+    /**
+     * Adds a projectile to the set that's checked against each other. It stays until it dies or opts out.
+     */
+    void add(VectorProjectile projectile) {
+        if (size == items.length)
+            grow(size * 2);
+        items[size++] = projectile;
+    }
+
+    /**
+     * Checks every pair of participating projectiles for a collision over the tick that just ran, calling
+     * {@link VectorProjectile#onHitProjectile(VectorProjectile)} on both sides of each one.
+     */
+    void collide() {
+        compact();
+        for (int i = 0; i < size; i++)
+            measure(i);
+        sortByMinX();
+
+        for (int i = 0; i < size; i++) {
+            VectorProjectile a = items[i];
+            if (!a.isActive() || a.isDormant())
+                continue;
+            for (int j = i + 1; j < size && minX[j] <= maxX[i]; j++) {
+                VectorProjectile b = items[j];
+                if (!b.isActive() || b.isDormant())
+                    continue;
+                if (minY[j] > maxY[i] || maxY[j] < minY[i] || minZ[j] > maxZ[i] || maxZ[j] < minZ[i])
+                    continue;
+                if (a.currentLocation().getWorld() != b.currentLocation().getWorld() || !sweptHit(i, j))
+                    continue;
+                a.hitProjectile(b);
+                b.hitProjectile(a);
+                if (!a.isActive())
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Drops projectiles that have died or opted out since the last tick, keeping the rest in order.
+     */
+    private void compact() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            VectorProjectile projectile = items[i];
+            if (projectile.isActive() && projectile.collidesWithProjectiles())
+                items[kept++] = projectile;
+            else
+                projectile.leaveCollider();
+        }
+        Arrays.fill(items, kept, size, null);
+        size = kept;
+    }
+
+    private void measure(int i) {
+        VectorProjectile projectile = items[i];
+        BoundingBox box = projectile.currentHitbox();
+        double hx = box.getWidthX() / 2.0, hy = box.getHeight() / 2.0, hz = box.getWidthZ() / 2.0;
+        double ex = box.getCenterX(), ey = box.getCenterY(), ez = box.getCenterZ();
+        // the hitbox moves with the projectile's location, so its center started out offset by the same amount
+        double sx = ex - projectile.tickDisplacementX(),
+                sy = ey - projectile.tickDisplacementY(),
+                sz = ez - projectile.tickDisplacementZ();
+        halfX[i] = hx;
+        halfY[i] = hy;
+        halfZ[i] = hz;
+        startX[i] = sx;
+        startY[i] = sy;
+        startZ[i] = sz;
+        endX[i] = ex;
+        endY[i] = ey;
+        endZ[i] = ez;
+        minX[i] = Math.min(sx, ex) - hx;
+        maxX[i] = Math.max(sx, ex) + hx;
+        minY[i] = Math.min(sy, ey) - hy;
+        maxY[i] = Math.max(sy, ey) + hy;
+        minZ[i] = Math.min(sz, ez) - hz;
+        maxZ[i] = Math.max(sz, ez) + hz;
+    }
+
+    /**
+     * Exact test of whether two boxes moving in straight lines over the tick touched. Works in the second
+     * projectile's frame: the first one's center moves by the difference of their displacements, against the second
+     * one's starting box grown by the first one's half-extents.
+     */
+    private boolean sweptHit(int a, int b) {
+        double dx = (endX[a] - startX[a]) - (endX[b] - startX[b]),
+                dy = (endY[a] - startY[a]) - (endY[b] - startY[b]),
+                dz = (endZ[a] - startZ[a]) - (endZ[b] - startZ[b]);
+        double hx = halfX[a] + halfX[b], hy = halfY[a] + halfY[b], hz = halfZ[a] + halfZ[b];
+        return Physics.slab(startX[a], startY[a], startZ[a], 1.0 / dx, 1.0 / dy, 1.0 / dz,
+                startX[b] - hx, startY[b] - hy, startZ[b] - hz,
+                startX[b] + hx, startY[b] + hy, startZ[b] + hz, 1.0) != Physics.MISS;
+    }
+
+    private void sortByMinX() {
+        for (int i = 1; i < size; i++) {
+            int j = i;
+            while (j > 0 && minX[j - 1] > minX[j]) {
+                swap(j - 1, j);
+                j--;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        VectorProjectile item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        swap(minX, i, j);
+        swap(maxX, i, j);
+        swap(minY, i, j);
+        swap(maxY, i, j);
+        swap(minZ, i, j);
+        swap(maxZ, i, j);
+        swap(startX, i, j);
+        swap(startY, i, j);
+        swap(startZ, i, j);
+        swap(endX, i, j);
+        swap(endY, i, j);
+        swap(endZ, i, j);
+        swap(halfX, i, j);
+        swap(halfY, i, j);
+        swap(halfZ, i, j);
+    }
+
+    private static void swap(double[] array, int i, int j) {
+        double value = array[i];
+        array[i] = array[j];
+        array[j] = value;
+    }
+
+    private void grow(int capacity) {
+        items = Arrays.copyOf(items, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+        minZ = Arrays.copyOf(minZ, capacity);
+        maxZ = Arrays.copyOf(maxZ, capacity);
+        startX = Arrays.copyOf(startX, capacity);
+        startY = Arrays.copyOf(startY, capacity);
+        startZ = Arrays.copyOf(startZ, capacity);
+        endX = Arrays.copyOf(endX, capacity);
+        endY = Arrays.copyOf(endY, capacity);
+        endZ = Arrays.copyOf(endZ, capacity);
+        halfX = Arrays.copyOf(halfX, capacity);
+        halfY = Arrays.copyOf(halfY, capacity);
+        halfZ = Arrays.copyOf(halfZ, capacity);
+    }
+}
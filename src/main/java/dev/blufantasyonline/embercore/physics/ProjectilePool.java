@@ -0,0 +1,90 @@
+package dev.blufantasyonline.embercore.physics;
+
+import org.bukkit.Location;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps dead {@link PresetProjectile}s of one preset around so later shots can reuse them, along with their
+ * location, hitbox and hit sets, instead of allocating new ones.
+ */
+public final class ProjectilePool {
+    private final ArrayDeque<PresetProjectile> free = new ArrayDeque<>();
+    private int capacity;
+    private long acquisitions = 0;
+    private long allocations = 0;
+    private long discards = 0;
+
+    ProjectilePool(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Launches a projectile of the given preset from the given location, reusing a pooled one if there is one.
+     */
+    PresetProjectile acquire(ProjectilePreset preset, Location origin) {
+        acquisitions++;
+        PresetProjectile projectile = free.pollFirst();
+        if (projectile == null) {
+            allocations++;
+            projectile = new PresetProjectile(this, origin);
+        }
+        projectile.launch(preset, origin);
+        return projectile;
+    }
+
+    void release(PresetProjectile projectile) {
+        if (free.size() < capacity)
+            free.addFirst(projectile);
+        else
+            discards++;
+    }
+
+    /**
+     * Sets how many dead projectiles the pool holds on to. Any beyond the new capacity are dropped.
+     */
+    void setCapacity(int newCapacity) {
+        capacity = Math.max(0, newCapacity);
+        while (free.size() > capacity)
+            free.pollLast();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return How many dead projectiles are waiting to be reused.
+     */
+    public int size() {
+        return free.size();
+    }
+
+    /**
+     * @return How many projectiles have been asked for.
+     */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * @return How many projectiles had to be created because the pool was empty.
+     */
+    public long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * @return How many dead projectiles were dropped because the pool was full.
+     */
+    public long getDiscards() {
+        return discards;
+    }
+
+    /**
+     * @return The fraction of requests that were served by a pooled projectile, or 0 if there haven't been any.
+     */
+    public double getHitRate() {
+        return acquisitions == 0 ? 0.0 : (double) (acquisitions - allocations) / acquisitions;
+    }
+}
@@ -1,12 +1,47 @@
 package dev.blufantasyonline.embercore.physics;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.bukkit.Particle;
 import org.bukkit.util.Vector;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class ProjectilePreset {
     public String name = "Projectile";
     public Vector size = new Vector(VectorProjectile.DEFAULT_SIZE, VectorProjectile.DEFAULT_SIZE, VectorProjectile.DEFAULT_SIZE);
     public Particle particle = Particle.CRIT;
     public long lifetime = 0;
     public double range = 0.0;
+    /**
+     * How many dead projectiles of this preset to keep around for reuse.
+     */
+    public int poolCapacity = 64;
+    public UnloadedChunkPolicy unloadedChunkPolicy = UnloadedChunkPolicy.DESPAWN;
+    /**
+     * Distances from the nearest player at which to drop to reduced and coarse simulation. 0 disables a level.
+     */
+    public double lodReducedDistance = 0.0;
+    public double lodCoarseDistance = 0.0;
+    /**
+     * What projectiles of this preset do as they fly and when they hit something, in order. See
+     * {@link ProjectileStage} for the available stages.
+     */
+    public List<ProjectileStage> stages = new ArrayList<>();
+
+    @JsonIgnore
+    private ProjectileProgram program;
+    @JsonIgnore
+    private List<ProjectileStage> compiledStages;
+
+    /**
+     * @return The {@link #stages} compiled for running, recompiled if they've been replaced since.
+     */
+    ProjectileProgram program() {
+        if (program == null || compiledStages != stages) {
+            program = ProjectileProgram.compile(this, stages);
+            compiledStages = stages;
+        }
+        return program;
+    }
 }
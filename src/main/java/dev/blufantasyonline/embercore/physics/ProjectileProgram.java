@@ -0,0 +1,100 @@
+package dev.blufantasyonline.embercore.physics;
+
+import org.bukkit.Particle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ProjectilePreset}'s {@link ProjectileStage stages}, flattened into what {@link PresetProjectile} actually
+ * runs: one list of instructions for every tick and one for every hit. Each instruction is an opcode followed by the
+ * index of its first argument in {@link #args}, so running a program is a loop over a switch with nothing to look
+ * up. Stages that only ever set something up, such as gravity and piercing, become plain fields instead of
+ * instructions.
+ */
+final class ProjectileProgram {
+    // tick instructions
+    static final int DRAG = 1, HOMING = 2, TRAIL = 3;
+    // hit instructions
+    static final int DAMAGE = 1, KNOCKBACK = 2, IGNITE = 3, BURST = 4;
+
+    final int[] tick;
+    final int[] hit;
+    final double[] args;
+    /**
+     * Particles used by the program, which instructions refer to by index.
+     */
+    final Particle[] particles;
+    /**
+     * Blocks per tick added to the projectile's downward speed every tick.
+     */
+    final double gravity;
+    /**
+     * How many entities the projectile passes through before stopping.
+     */
+    final int pierce;
+
+    private ProjectileProgram(Builder builder) {
+        tick = builder.tick.stream().mapToInt(Integer::intValue).toArray();
+        hit = builder.hit.stream().mapToInt(Integer::intValue).toArray();
+        args = builder.args.stream().mapToDouble(Double::doubleValue).toArray();
+        particles = builder.particles.toArray(new Particle[0]);
+        gravity = builder.gravity;
+        pierce = builder.pierce;
+    }
+
+    static ProjectileProgram compile(ProjectilePreset preset, List<ProjectileStage> stages) {
+        Builder builder = new Builder();
+        if (stages != null)
+            for (ProjectileStage stage : stages)
+                if (stage != null)
+                    stage.compile(preset, builder);
+        return new ProjectileProgram(builder);
+    }
+
+    static final class Builder {
+        private final ArrayList<Integer> tick = new ArrayList<>();
+        private final ArrayList<Integer> hit = new ArrayList<>();
+        private final ArrayList<Double> args = new ArrayList<>();
+        private final ArrayList<Particle> particles = new ArrayList<>();
+        private double gravity = 0.0;
+        private int pierce = 0;
+
+        private Builder() {
+        }
+
+        void tick(int opcode, double... arguments) {
+            add(tick, opcode, arguments);
+        }
+
+        void hit(int opcode, double... arguments) {
+            add(hit, opcode, arguments);
+        }
+
+        void gravity(double strength) {
+            gravity += strength;
+        }
+
+        void pierce(int count) {
+            pierce += Math.max(0, count);
+        }
+
+        /**
+         * @return The index the particle can be referred to by in an instruction's arguments.
+         */
+        int particle(Particle particle) {
+            int index = particles.indexOf(particle);
+            if (index >= 0)
+                return index;
+            particles.add(particle);
+            return particles.size() - 1;
+        }
+
+        private void add(ArrayList<Integer> code, int opcode, double[] arguments) {
+            code.add(opcode);
+            code.add(args.size());
+            for (double argument : arguments)
+                args.add(argument);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.EmberCore;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.BoundingBox;
+import org.bukkit.util.Vector;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.UUID;
+
+/**
+ * Records what {@link ProjectileRegistry} does, tick by tick, to a compact binary file, for reproducing lag spikes
+ * and hit registration bugs after the fact. Read recordings back with {@link ProjectileReplay}.
+ * <br><br>
+ * Every projectile gets a spawn record holding everything it was launched with, the first time it's ticked. Each
+ * tick then ends with a frame holding how long the tick took and every live projectile's position, packed as floats.
+ * Hits (and whether they stopped the projectile) and deaths are recorded as they happen, so they come before the
+ * frame of the tick they happened in; a reader tells which tick that is from the frame before them, or from the
+ * header for those before the first frame.
+ * <br><br>
+ * The file is written through a memory-mapped window that moves along as it fills, so recording is a handful of
+ * stores per projectile per tick and the OS takes care of getting it to disk. Files only ever grow while recording,
+ * and are cut down to what was actually written once it stops.
+ * <br><br>
+ * Format, big-endian throughout: a header of {@link #MAGIC}, {@link #VERSION} and the first tick recorded (int,
+ * short, long), followed by records, each starting with a type byte:
+ * <pre>
+ * SPAWN  int id, long tick, short length + UTF-8 type, long world UUID (most, least significant bits),
+ *        double position x/y/z, velocity x/y/z, acceleration x/y/z, half-size x/y/z, range, byte collision mode
+ * HIT    int id, byte kind, long target, float x/y/z, byte stopped
+ * DEATH  int id
+ * FRAME  long tick, long nanoseconds, int count, count * (int id, float x/y/z)
+ * </pre>
+ * A hit's target is an entity ID for {@link #ENTITY}, a {@link dev.blufantasyonline.embercore.physics.spatial.CellKey
+ * packed} block for {@link #BLOCK}, a {@link dev.blufantasyonline.embercore.physics.spatial.StaticShape#getId() shape
+ * ID} for {@link #SHAPE} and the other projectile's recorded ID for {@link #PROJECTILE}.
+ */
+public final class ProjectileRecorder {
+    public static final int MAGIC = 0x454D4252;
+    public static final short VERSION = 2;
+    // record types
+    public static final byte SPAWN = 1, HIT = 2, DEATH = 3, FRAME = 4;
+    // hit kinds
+    public static final byte ENTITY = 1, BLOCK = 2, SHAPE = 3, PROJECTILE = 4;
+    // how much of the file is mapped at a time
+    private static final int WINDOW = 4 << 20;
+    private static final int FRAME_ENTRY = 16;
+
+    private static FileChannel channel;
+    private static MappedByteBuffer buffer;
+    // where in the file the current window starts
+    private static long windowStart;
+    private static final IdentityHashMap<VectorProjectile, Integer> ids = new IdentityHashMap<>();
+    private static int nextId = 0;
+    private static long tickStarted;
+
+    /**
+     * Starts recording to the given file, replacing whatever is there. Stops any recording already going.
+     *
+     * @return False if the file couldn't be opened.
+     */
+    public static boolean start(Path file) {
+        stop();
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            windowStart = 0;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW);
+        } catch (IOException ex) {
+            EmberCore.warn("Couldn't start recording projectiles to %s: %s", file, ex.getMessage());
+            close();
+            return false;
+        }
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        // hits and deaths don't carry their tick, so readers count from here until the first frame
+        buffer.putLong(ProjectileRegistry.currentTick() + 1);
+        return true;
+    }
+
+    /**
+     * Finishes the recording, if there is one, and closes its file.
+     */
+    public static void stop() {
+        if (channel == null)
+            return;
+        try {
+            buffer.force();
+            // earlier windows can't be forced any more, but their pages are the file's, so syncing the file covers them
+            channel.force(false);
+            channel.truncate(windowStart + buffer.position());
+        } catch (IOException ex) {
+            EmberCore.warn("Couldn't finish recording projectiles: %s", ex.getMessage());
+        }
+        close();
+    }
+
+    public static boolean isRecording() {
+        return channel != null;
+    }
+
+    /**
+     * Called by the registry at the start of a tick, before anything moves. Records a spawn for every projectile
+     * that hasn't been seen yet.
+     */
+    static void beginTick(long tick, Collection<VectorProjectile> projectiles) {
+        tickStarted = System.nanoTime();
+        for (VectorProjectile projectile : projectiles)
+            if (projectile.isActive() && !ids.containsKey(projectile))
+                spawn(tick, projectile);
+    }
+
+    /**
+     * Called by the registry once a tick is over. Records every live projectile's position.
+     */
+    static void endTick(long tick, Collection<VectorProjectile> projectiles) {
+        long nanos = System.nanoTime() - tickStarted;
+        int count = 0;
+        for (VectorProjectile projectile : projectiles)
+            if (projectile.isActive() && ids.containsKey(projectile))
+                count++;
+        if (!reserve(21))
+            return;
+        buffer.put(FRAME);
+        buffer.putLong(tick);
+        buffer.putLong(nanos);
+        buffer.putInt(count);
+        // positions are counted and written in the same order, and nothing can change in between
+        for (VectorProjectile projectile : projectiles) {
+            if (!projectile.isActive())
+                continue;
+            Integer id = ids.get(projectile);
+            if (id == null)
+                continue;
+            if (!reserve(FRAME_ENTRY))
+                return;
+            Location at = projectile.currentLocation();
+            buffer.putInt(id);
+            buffer.putFloat((float) at.getX());
+            buffer.putFloat((float) at.getY());
+            buffer.putFloat((float) at.getZ());
+        }
+    }
+
+    /**
+     * Records a projectile's hit, once its hook has said whether the projectile stops.
+     *
+     * @return Whether the projectile stops, for convenience.
+     */
+    static boolean hit(VectorProjectile projectile, byte kind, long target, boolean stopped) {
+        Integer id = ids.get(projectile);
+        if (id == null || !reserve(23))
+            return stopped;
+        Location at = projectile.currentLocation();
+        buffer.put(HIT);
+        buffer.putInt(id);
+        buffer.put(kind);
+        buffer.putLong(target);
+        buffer.putFloat((float) at.getX());
+        buffer.putFloat((float) at.getY());
+        buffer.putFloat((float) at.getZ());
+        buffer.put((byte) (stopped ? 1 : 0));
+        return stopped;
+    }
+
+    /**
+     * @return The ID the given projectile is recorded under, or -1 if it hasn't been recorded.
+     */
+    static int idOf(VectorProjectile projectile) {
+        Integer id = ids.get(projectile);
+        return id == null ? -1 : id;
+    }
+
+    static void death(VectorProjectile projectile) {
+        Integer id = ids.remove(projectile);
+        if (id == null || !reserve(5))
+            return;
+        buffer.put(DEATH);
+        buffer.putInt(id);
+    }
+
+    private static void spawn(long tick, VectorProjectile projectile) {
+        String type = projectile instanceof PresetProjectile
+                ? ((PresetProjectile) projectile).getPreset().name
+                : projectile.getClass().getName();
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        if (typeBytes.length > Short.MAX_VALUE)
+            typeBytes = projectile.getClass().getName().getBytes(StandardCharsets.UTF_8);
+        if (!reserve(1 + 4 + 8 + 2 + typeBytes.length + 16 + 13 * 8 + 1))
+            return;
+        int id = nextId++;
+        ids.put(projectile, id);
+        Location at = projectile.currentLocation();
+        BoundingBox hitbox = projectile.currentHitbox();
+        Vector velocity = projectile.getVelocity(), acceleration = projectile.getAcceleration();
+        World world = at.getWorld();
+        UUID worldId = world == null ? new UUID(0, 0) : world.getUID();
+        buffer.put(SPAWN);
+        buffer.putInt(id);
+        buffer.putLong(tick);
+        buffer.putShort((short) typeBytes.length);
+        buffer.put(typeBytes);
+        buffer.putLong(worldId.getMostSignificantBits());
+        buffer.putLong(worldId.getLeastSignificantBits());
+        buffer.putDouble(at.getX());
+        buffer.putDouble(at.getY());
+        buffer.putDouble(at.getZ());
+        buffer.putDouble(velocity.getX());
+        buffer.putDouble(velocity.getY());
+        buffer.putDouble(velocity.getZ());
+        buffer.putDouble(acceleration.getX());
+        buffer.putDouble(acceleration.getY());
+        buffer.putDouble(acceleration.getZ());
+        buffer.putDouble(hitbox.getWidthX() / 2.0);
+        buffer.putDouble(hitbox.getHeight() / 2.0);
+        buffer.putDouble(hitbox.getWidthZ() / 2.0);
+        buffer.putDouble(projectile.range);
+        buffer.put((byte) projectile.getCollisionMode().ordinal());
+    }
+
+    /**
+     * Makes sure there's room for the given number of bytes in the window, moving it along the file if not.
+     *
+     * @return False if recording has stopped, because it wasn't going or the file couldn't be grown.
+     */
+    private static boolean reserve(int bytes) {
+        if (channel == null)
+            return false;
+        if (buffer.remaining() >= bytes)
+            return true;
+        try {
+            // The old window is left for the OS to write back whenever it likes; forcing it here would block the
+            // tick on the disk. stop() makes sure it all gets there.
+            long start = windowStart + buffer.position();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(WINDOW, bytes));
+            windowStart = start;
+            return true;
+        } catch (IOException ex) {
+            EmberCore.warn("Stopped recording projectiles: %s", ex.getMessage());
+            stop();
+            return false;
+        }
+    }
+
+    private static void close() {
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+        buffer = null;
+        ids.clear();
+        nextId = 0;
+    }
+}
@@ -1,53 +1,214 @@
 package dev.blufantasyonline.embercore.physics;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import dev.blufantasyonline.embercore.CoreSettings;
+import dev.blufantasyonline.embercore.EmberCore;
 import dev.blufantasyonline.embercore.config.serialization.SerializationInfo;
+import dev.blufantasyonline.embercore.physics.spatial.BlockCache;
+import dev.blufantasyonline.embercore.physics.spatial.CellKey;
+import dev.blufantasyonline.embercore.physics.spatial.EntityGrid;
 import dev.blufantasyonline.embercore.reflection.annotations.OnEnable;
+import dev.blufantasyonline.embercore.util.collection.TimingWheel;
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 @OnEnable
 public final class ProjectileRegistry {
     private static int maxProjectiles = 1000;
+    /**
+     * Which projectiles to destroy once there are more than {@link #maxProjectiles}.
+     */
+    private static EvictionPolicy evictionPolicy = EvictionPolicy.OLDEST;
+    /**
+     * Whether to keep the state of continuous projectiles in a {@link ProjectileStore} and step them out of it,
+     * rather than out of each projectile's own objects. Worth turning on for large numbers of simple projectiles.
+     */
+    private static boolean useProjectileStore = false;
+    /**
+     * Whether to find the entities stored projectiles will hit on a worker pool rather than the main thread.
+     * Everything that touches the world or calls a projectile's hooks still runs on the main thread. Has no effect
+     * unless {@link #useProjectileStore} is on.
+     */
+    private static boolean parallelImpacts = false;
+    /**
+     * The fewest stored projectiles worth splitting work across threads for.
+     */
+    private static int parallelThreshold = 256;
 
     @SerializationInfo(filename = "projectile-presets.yml")
     private static HashMap<String, ProjectilePreset> projectilePresets = new HashMap<>();
 
+    @JsonIgnore
+    private static HashMap<String, ProjectilePool> pools = new HashMap<>();
+
     @JsonIgnore
     private static LinkedHashSet<VectorProjectile> projectiles = new LinkedHashSet<>();
 
-    public static VectorProjectile fromPreset(String presetName, Location origin) {
+    // Registrations and removals requested while the tick loop is iterating are deferred until the pass is done.
+    @JsonIgnore
+    private static ArrayList<VectorProjectile> pendingAdditions = new ArrayList<>();
+    @JsonIgnore
+    private static ArrayList<VectorProjectile> pendingRemovals = new ArrayList<>();
+    // Projectiles waiting to be moved into or out of the store, which can't change while it's being iterated.
+    @JsonIgnore
+    private static ArrayList<VectorProjectile> pendingAttachments = new ArrayList<>();
+    @JsonIgnore
+    private static ArrayList<VectorProjectile> pendingDetachments = new ArrayList<>();
+    @JsonIgnore
+    private static final ProjectileStore store = new ProjectileStore();
+    // One impact buffer per store slot, reused between ticks, for solving impacts in parallel.
+    @JsonIgnore
+    private static ImpactBuffer[] impactBuffers = new ImpactBuffer[0];
+    @JsonIgnore
+    private static EntityGrid[] impactGrids = new EntityGrid[0];
+    @JsonIgnore
+    private static boolean[] begun = new boolean[0];
+    // Dormant projectiles, by world and then by the key of the chunk they're waiting on, and the list each is in.
+    @JsonIgnore
+    private static HashMap<UUID, HashMap<Long, ArrayList<VectorProjectile>>> dormant = new HashMap<>();
+    @JsonIgnore
+    private static IdentityHashMap<VectorProjectile, ArrayList<VectorProjectile>> dormantLists = new IdentityHashMap<>();
+    // Player positions per world, read the first time they're needed each tick.
+    @JsonIgnore
+    private static HashMap<UUID, double[]> playerPositions = new HashMap<>();
+    @JsonIgnore
+    private static long playerPositionsTick = -1;
+    @JsonIgnore
+    private static final ProjectileCollider collider = new ProjectileCollider();
+    @JsonIgnore
+    private static boolean ticking = false;
+    // Lifetimes, in ticks. Expired projectiles are destroyed at the start of the tick they expire on.
+    @JsonIgnore
+    private static final TimingWheel<VectorProjectile> lifetimes = new TimingWheel<>(0);
+
+    /**
+     * Starts recording from startup if {@link CoreSettings.PhysicsSettings#projectileRecording} asks for it. The tick
+     * loop itself is run by {@link PhysicsClock}.
+     */
+    @OnEnable
+    private void startRecording() {
+        String recording = CoreSettings.physicsSettings.projectileRecording;
+        if (recording != null && !recording.isEmpty())
+            ProjectileRecorder.start(new File(EmberCore.getInstance().getDataFolder(), recording).toPath());
+    }
+
+    /**
+     * Launches a projectile of the named preset from the given location. Projectiles are drawn from the preset's
+     * pool where possible, and go back into it when they die.
+     *
+     * @return The projectile, or null if there's no such preset.
+     */
+    public static PresetProjectile fromPreset(String presetName, Location origin) {
         ProjectilePreset preset = projectilePresets.get(presetName);
-        if (preset != null)
-            return new VectorProjectile(origin) {
-                @Override
-                protected void init() {
-                    setLifetime(preset.lifetime);
-                    setRange(preset.range);
-                    setSize(preset.size);
-                    super.init();
-                }
-            };
-        return null;
+        if (preset == null)
+            return null;
+        ProjectilePool pool = pools.computeIfAbsent(presetName, name -> new ProjectilePool(preset.poolCapacity));
+        // presets can be reloaded, so pick up any change in capacity
+        if (pool.getCapacity() != preset.poolCapacity)
+            pool.setCapacity(preset.poolCapacity);
+        return pool.acquire(preset, origin);
+    }
+
+    /**
+     * @return The pool of projectiles for the named preset, for its metrics, or null if none have been fired yet.
+     */
+    public static ProjectilePool getPool(String presetName) {
+        return pools.get(presetName);
     }
 
     public static ProjectilePreset fromPresetName(String presetName) {
         return projectilePresets.get(presetName);
     }
 
+    /**
+     * Registers a projectile to be ticked. If this takes the registry over {@link #maxProjectiles}, projectiles are
+     * evicted according to the {@link #evictionPolicy} at the start of the next tick, not while one is running.
+     */
     public static void registerProjectile(VectorProjectile proj) {
-        projectiles.add(proj);
-        if (projectiles.size() >= maxProjectiles) {
-            VectorProjectile oldest = projectiles.iterator().next();
-            oldest.destroy();
-        }
+        if (ticking)
+            pendingAdditions.add(proj);
+        else
+            projectiles.add(proj);
+        // Attaching waits for the end of a tick so that whatever set the projectile up has finished with it.
+        attachProjectile(proj);
     }
 
     public static boolean removeProjectile(VectorProjectile proj) {
-        return projectiles.remove(proj);
+        if (!ticking) {
+            if (proj.isStored())
+                proj.detach();
+            if (!projectiles.remove(proj))
+                return false;
+            proj.onRemoved();
+            return true;
+        }
+        if (pendingAdditions.remove(proj)) {
+            proj.onRemoved();
+            return true;
+        }
+        if (!projectiles.contains(proj))
+            return false;
+        pendingRemovals.add(proj);
+        return true;
+    }
+
+    /**
+     * Queues a continuous projectile to be moved into the store at the end of the current or next tick.
+     * Does nothing if the store is disabled.
+     */
+    static void attachProjectile(VectorProjectile proj) {
+        if (useProjectileStore)
+            pendingAttachments.add(proj);
+    }
+
+    /**
+     * Adds a projectile to the projectile-projectile collision phase.
+     */
+    static void joinCollider(VectorProjectile proj) {
+        collider.add(proj);
+    }
+
+    /**
+     * Takes a projectile back out of the store, at the end of the current tick if one is running.
+     */
+    static void detachProjectile(VectorProjectile proj) {
+        if (ticking)
+            pendingDetachments.add(proj);
+        else if (proj.isStored())
+            proj.detach();
+    }
+
+    /**
+     * Schedules the given projectile to be destroyed the given number of ticks from now.
+     */
+    static TimingWheel<VectorProjectile>.Timer scheduleExpiry(VectorProjectile proj, long ticks) {
+        return lifetimes.schedule(proj, currentTick() + Math.max(1, ticks));
+    }
+
+    static void cancelExpiry(TimingWheel<VectorProjectile>.Timer expiry) {
+        lifetimes.cancel(expiry);
+    }
+
+    /**
+     * The number of times the projectile tick loop has run, which is {@link PhysicsClock#currentTick()}. Used to
+     * tell whether per-tick caches are stale.
+     */
+    public static long currentTick() {
+        return PhysicsClock.currentTick();
     }
 
     public static void destroyAll() {
@@ -55,5 +216,288 @@ public final class ProjectileRegistry {
         projectiles.toArray(arr);
         for (VectorProjectile v : arr)
             v.destroy();
+        for (VectorProjectile v : new ArrayList<>(dormantLists.keySet()))
+            v.destroy();
+    }
+
+    /**
+     * @return How many projectiles are dormant, waiting for a chunk to load.
+     */
+    public static int dormantCount() {
+        return dormantLists.size();
+    }
+
+    /**
+     * Stops ticking a projectile until the given chunk loads.
+     */
+    static void sleepProjectile(VectorProjectile proj, World world, int chunkX, int chunkZ) {
+        removeProjectile(proj);
+        ArrayList<VectorProjectile> waiting = dormant.computeIfAbsent(world.getUID(), uid -> new HashMap<>())
+                .computeIfAbsent(CellKey.chunk(chunkX, chunkZ), key -> new ArrayList<>());
+        waiting.add(proj);
+        dormantLists.put(proj, waiting);
+    }
+
+    /**
+     * Starts ticking a dormant projectile again, whether or not its chunk has loaded.
+     */
+    static void wakeProjectile(VectorProjectile proj) {
+        ArrayList<VectorProjectile> waiting = dormantLists.remove(proj);
+        if (waiting == null)
+            return;
+        waiting.remove(proj);
+        proj.wake();
+        registerProjectile(proj);
+    }
+
+    /**
+     * Wakes every projectile that was waiting on the given chunk.
+     */
+    public static void wakeChunk(World world, int chunkX, int chunkZ) {
+        HashMap<Long, ArrayList<VectorProjectile>> chunks = dormant.get(world.getUID());
+        if (chunks == null)
+            return;
+        ArrayList<VectorProjectile> waiting = chunks.remove(CellKey.chunk(chunkX, chunkZ));
+        if (waiting == null)
+            return;
+        if (chunks.isEmpty())
+            dormant.remove(world.getUID());
+        for (VectorProjectile proj : waiting) {
+            dormantLists.remove(proj);
+            proj.wake();
+            registerProjectile(proj);
+        }
+    }
+
+    /**
+     * Destroys every projectile, dormant or not, in a world that is being unloaded.
+     */
+    public static void unloadWorld(World world) {
+        for (VectorProjectile proj : projectiles)
+            if (world.equals(proj.currentLocation().getWorld()))
+                proj.destroy();
+        HashMap<Long, ArrayList<VectorProjectile>> chunks = dormant.remove(world.getUID());
+        if (chunks != null)
+            for (ArrayList<VectorProjectile> waiting : chunks.values())
+                for (VectorProjectile proj : waiting) {
+                    dormantLists.remove(proj);
+                    proj.wake();
+                    proj.destroy();
+                    registerProjectile(proj);
+                }
+        EntityGrid.remove(world);
+        BlockCache.remove(world);
+        LineOfSight.remove(world);
+        TrailRenderer.remove(world);
+    }
+
+    /**
+     * Steps every registered projectile once, then applies any registrations or removals made during the pass.
+     * Projectiles in the store are stepped after the rest, in the order they're packed in. Run by
+     * {@link PhysicsClock} once per simulation tick.
+     */
+    static void tick() {
+        long currentTick = currentTick();
+        lifetimes.advance(currentTick, VectorProjectile::destroy);
+        evictExcess();
+        boolean recording = ProjectileRecorder.isRecording();
+        if (recording)
+            ProjectileRecorder.beginTick(currentTick, projectiles);
+        ticking = true;
+        try {
+            for (VectorProjectile projectile : projectiles)
+                if (!projectile.isStored())
+                    tick(projectile);
+            if (parallelImpacts && store.size() >= parallelThreshold)
+                tickStoreInParallel();
+            else
+                for (int i = 0; i < store.size(); i++)
+                    tick(store.get(i));
+            // projectile-projectile hits are only looked for once everything has moved
+            collider.collide();
+        } finally {
+            ticking = false;
+        }
+
+        for (VectorProjectile projectile : pendingRemovals) {
+            if (projectile.isStored())
+                projectile.detach();
+            if (projectiles.remove(projectile))
+                projectile.onRemoved();
+        }
+        pendingRemovals.clear();
+        for (VectorProjectile projectile : pendingDetachments)
+            if (projectile.isStored())
+                projectile.detach();
+        pendingDetachments.clear();
+        projectiles.addAll(pendingAdditions);
+        pendingAdditions.clear();
+        for (VectorProjectile projectile : pendingAttachments)
+            if (useProjectileStore && !projectile.isStored() && projectile.isActive()
+                    && projectile.getCollisionMode() == CollisionMode.CONTINUOUS && projectiles.contains(projectile))
+                projectile.attach(store);
+        pendingAttachments.clear();
+        if (recording)
+            ProjectileRecorder.endTick(currentTick, projectiles);
+        TrailRenderer.flush();
+        BlockCache.clearAll();
+    }
+
+    /**
+     * Steps the stored projectiles in three passes. The first runs each projectile's {@link VectorProjectile#onTick()}
+     * and makes sure the entity grids it needs are built, on the main thread. The second solves every projectile's
+     * entity impacts across the common fork/join pool; only the store and the (now unchanging) grids are read. The
+     * last moves each projectile, walks the blocks it passes through and runs its hit hooks on the main thread.
+     */
+    private static void tickStoreInParallel() {
+        int size = store.size();
+        if (impactBuffers.length < size) {
+            int oldLength = impactBuffers.length;
+            impactBuffers = Arrays.copyOf(impactBuffers, Math.max(size, oldLength * 2));
+            for (int i = oldLength; i < impactBuffers.length; i++)
+                impactBuffers[i] = new ImpactBuffer();
+            impactGrids = new EntityGrid[impactBuffers.length];
+            begun = new boolean[impactBuffers.length];
+        }
+
+        for (int i = 0; i < size; i++) {
+            VectorProjectile projectile = store.get(i);
+            impactGrids[i] = null;
+            begun[i] = false;
+            try {
+                begun[i] = projectile.beginTick();
+                if (begun[i] && projectile.canSolveImpacts())
+                    impactGrids[i] = projectile.entityGrid();
+            } catch (RuntimeException ex) {
+                handleTickException(projectile, ex);
+            }
+        }
+
+        ForkJoinPool.commonPool().invoke(new SolveImpacts(0, size));
+
+        for (int i = 0; i < size; i++) {
+            VectorProjectile projectile = store.get(i);
+            if (!begun[i])
+                continue;
+            // projectiles whose impacts couldn't be solved ahead of time (onTick switched them to substepping,
+            // for instance) are finished off the normal way
+            ImpactBuffer impacts = impactGrids[i] != null ? impactBuffers[i] : null;
+            impactGrids[i] = null;
+            try {
+                projectile.finishTick(impacts);
+            } catch (RuntimeException ex) {
+                handleTickException(projectile, ex);
+            }
+        }
+    }
+
+    /**
+     * Destroys projectiles until no more than {@link #maxProjectiles} are active. Runs between passes, so nothing
+     * is destroyed partway through its own tick; destroyed projectiles are cleaned up as the pass reaches them.
+     */
+    private static void evictExcess() {
+        if (projectiles.size() <= maxProjectiles)
+            return;
+        // skip anything that's already been destroyed but hasn't been stepped (and removed) yet
+        ArrayList<VectorProjectile> active = new ArrayList<>(projectiles.size());
+        for (VectorProjectile projectile : projectiles)
+            if (projectile.isActive())
+                active.add(projectile);
+        int excess = active.size() - maxProjectiles;
+        if (excess <= 0)
+            return;
+
+        if (evictionPolicy == EvictionPolicy.OLDEST) {
+            for (int i = 0; i < excess; i++)
+                active.get(i).destroy();
+            return;
+        }
+
+        // Score everything once, then destroy the lowest scores. The list is in registration order and the sort
+        // is stable, so ties go to the oldest.
+        double[] scores = new double[active.size()];
+        Integer[] order = new Integer[active.size()];
+        for (int i = 0; i < active.size(); i++) {
+            VectorProjectile projectile = active.get(i);
+            order[i] = i;
+            if (evictionPolicy == EvictionPolicy.LOWEST_PRIORITY)
+                scores[i] = projectile.getPriority();
+            else {
+                Location at = projectile.currentLocation();
+                scores[i] = -nearestPlayerDistanceSquared(at.getWorld(), at.getX(), at.getY(), at.getZ());
+            }
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> scores[i]));
+        for (int i = 0; i < excess; i++)
+            active.get(order[i]).destroy();
+    }
+
+    /**
+     * @return The squared distance from the given point to the closest player in the given world, or infinity if
+     * there are none. Player positions are read once per tick.
+     */
+    static double nearestPlayerDistanceSquared(World world, double x, double y, double z) {
+        if (world == null)
+            return Double.POSITIVE_INFINITY;
+        if (playerPositionsTick != currentTick()) {
+            playerPositions.clear();
+            playerPositionsTick = currentTick();
+        }
+        double[] positions = playerPositions.computeIfAbsent(world.getUID(), uid -> {
+            List<Player> players = world.getPlayers();
+            double[] out = new double[players.size() * 3];
+            for (int i = 0; i < players.size(); i++) {
+                Location at = players.get(i).getLocation();
+                out[i * 3] = at.getX();
+                out[i * 3 + 1] = at.getY();
+                out[i * 3 + 2] = at.getZ();
+            }
+            return out;
+        });
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < positions.length; i += 3) {
+            double dx = positions[i] - x, dy = positions[i + 1] - y, dz = positions[i + 2] - z;
+            nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+        }
+        return nearest;
+    }
+
+    private static void tick(VectorProjectile projectile) {
+        try {
+            projectile.tick();
+        } catch (RuntimeException ex) {
+            handleTickException(projectile, ex);
+        }
+    }
+
+    private static void handleTickException(VectorProjectile projectile, RuntimeException ex) {
+        // one misbehaving projectile shouldn't stop the rest from ticking
+        EmberCore.warn("Projectile of type %s threw an exception while ticking and will be removed: %s",
+                projectile.getClass().getName(), ex.getMessage());
+        ex.printStackTrace();
+        projectile.destroy();
+    }
+
+    private static final class SolveImpacts extends RecursiveAction {
+        // small enough to balance well, big enough that splitting doesn't cost more than the work
+        private static final int BATCH = 64;
+        private final int from, to;
+
+        private SolveImpacts(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SolveImpacts(from, middle), new SolveImpacts(middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++)
+                if (impactGrids[i] != null)
+                    store.get(i).solveImpacts(impactBuffers[i], impactGrids[i]);
+        }
     }
 }
@@ -0,0 +1,444 @@
+package dev.blufantasyonline.embercore.physics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+/**
+ * Reads back recordings made by {@link ProjectileRecorder}. Doesn't touch the server, so it can be run on its own
+ * against a copied recording:
+ * <pre>
+ * java -cp EmberCore.jar dev.blufantasyonline.embercore.physics.ProjectileReplay summary recording.bin [ticks]
+ * java -cp EmberCore.jar dev.blufantasyonline.embercore.physics.ProjectileReplay compare before.bin after.bin
+ * java -cp EmberCore.jar:spigot-api.jar dev.blufantasyonline.embercore.physics.ProjectileReplay resimulate
+ *     recording.bin [tolerance]
+ * </pre>
+ * {@code summary} prints what was recorded and the slowest ticks, with how many projectiles were in flight and how
+ * many hits landed in each. {@code compare} walks two recordings of the same scenario side by side and reports the
+ * first tick at which they stop agreeing on spawns, hits, deaths or positions, ignoring how long ticks took.
+ * {@code resimulate} runs the recorded projectiles through this version's physics again, in stand-in worlds built
+ * from the recording, and reports the first tick at which they stop following it; see
+ * {@link ProjectileResimulation}. It needs the Bukkit API on the class path, but not a server.
+ * <br><br>
+ * To do anything else with a recording, {@link #play(Path, Listener) play} it into a {@link Listener}.
+ */
+public final class ProjectileReplay {
+    /**
+     * Receives a recording's records in the order they were written. Within a tick, that's spawns, then hits and
+     * deaths as they happened, then the tick's frame.
+     */
+    public interface Listener {
+        default void onSpawn(Spawn spawn) {
+        }
+
+        default void onHit(Hit hit) {
+        }
+
+        default void onDeath(int id, long tick) {
+        }
+
+        default void onFrame(Frame frame) {
+        }
+    }
+
+    /**
+     * A projectile as it was when it was first ticked.
+     */
+    public static final class Spawn {
+        public final int id;
+        public final long tick;
+        /**
+         * The preset's name for preset projectiles, or the projectile's class name.
+         */
+        public final String type;
+        public final UUID world;
+        public final double x, y, z;
+        public final double velocityX, velocityY, velocityZ;
+        public final double accelerationX, accelerationY, accelerationZ;
+        public final double halfX, halfY, halfZ;
+        public final double range;
+        public final CollisionMode collisionMode;
+
+        private Spawn(DataInputStream in) throws IOException {
+            id = in.readInt();
+            tick = in.readLong();
+            byte[] typeBytes = new byte[in.readShort()];
+            in.readFully(typeBytes);
+            type = new String(typeBytes, StandardCharsets.UTF_8);
+            world = new UUID(in.readLong(), in.readLong());
+            x = in.readDouble();
+            y = in.readDouble();
+            z = in.readDouble();
+            velocityX = in.readDouble();
+            velocityY = in.readDouble();
+            velocityZ = in.readDouble();
+            accelerationX = in.readDouble();
+            accelerationY = in.readDouble();
+            accelerationZ = in.readDouble();
+            halfX = in.readDouble();
+            halfY = in.readDouble();
+            halfZ = in.readDouble();
+            range = in.readDouble();
+            int mode = in.readByte();
+            CollisionMode[] modes = CollisionMode.values();
+            collisionMode = mode >= 0 && mode < modes.length ? modes[mode] : null;
+        }
+
+        private boolean matches(Spawn other) {
+            return id == other.id && tick == other.tick && type.equals(other.type) && world.equals(other.world)
+                    && x == other.x && y == other.y && z == other.z
+                    && velocityX == other.velocityX && velocityY == other.velocityY && velocityZ == other.velocityZ
+                    && accelerationX == other.accelerationX && accelerationY == other.accelerationY
+                    && accelerationZ == other.accelerationZ
+                    && halfX == other.halfX && halfY == other.halfY && halfZ == other.halfZ
+                    && range == other.range && collisionMode == other.collisionMode;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("spawn #%d (%s) at %.3f, %.3f, %.3f moving %.3f, %.3f, %.3f",
+                    id, type, x, y, z, velocityX, velocityY, velocityZ);
+        }
+    }
+
+    /**
+     * Something a projectile ran into, and whether that stopped it.
+     */
+    public static final class Hit {
+        public final int id;
+        public final long tick;
+        /**
+         * One of {@link ProjectileRecorder#ENTITY}, {@link ProjectileRecorder#BLOCK},
+         * {@link ProjectileRecorder#SHAPE} and {@link ProjectileRecorder#PROJECTILE}.
+         */
+        public final byte kind;
+        public final long target;
+        public final float x, y, z;
+        public final boolean stopped;
+
+        private Hit(DataInputStream in, long tick) throws IOException {
+            this.tick = tick;
+            id = in.readInt();
+            kind = in.readByte();
+            target = in.readLong();
+            x = in.readFloat();
+            y = in.readFloat();
+            z = in.readFloat();
+            stopped = in.readByte() != 0;
+        }
+
+        private boolean matches(Hit other) {
+            return id == other.id && kind == other.kind && target == other.target
+                    && x == other.x && y == other.y && z == other.z && stopped == other.stopped;
+        }
+
+        @Override
+        public String toString() {
+            String what;
+            switch (kind) {
+                case ProjectileRecorder.ENTITY:
+                    what = "entity " + target;
+                    break;
+                case ProjectileRecorder.BLOCK:
+                    what = "block " + target;
+                    break;
+                case ProjectileRecorder.SHAPE:
+                    what = "shape " + target;
+                    break;
+                default:
+                    what = "projectile #" + target;
+            }
+            return String.format("#%d hit %s at %.3f, %.3f, %.3f%s", id, what, x, y, z, stopped ? " and stopped" : "");
+        }
+    }
+
+    /**
+     * The end of a tick. Frames are reused from one tick to the next, so copy anything that's needed later.
+     */
+    public static final class Frame {
+        private long tick;
+        private long nanos;
+        private int count;
+        private int[] ids = new int[64];
+        private float[] positions = new float[64 * 3];
+
+        public long getTick() {
+            return tick;
+        }
+
+        /**
+         * @return How long the registry took over this tick, in nanoseconds, recording included.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return How many projectiles were in flight at the end of the tick.
+         */
+        public int size() {
+            return count;
+        }
+
+        public int getId(int i) {
+            return ids[i];
+        }
+
+        public float getX(int i) {
+            return positions[i * 3];
+        }
+
+        public float getY(int i) {
+            return positions[i * 3 + 1];
+        }
+
+        public float getZ(int i) {
+            return positions[i * 3 + 2];
+        }
+
+        private void read(DataInputStream in) throws IOException {
+            tick = in.readLong();
+            nanos = in.readLong();
+            count = in.readInt();
+            if (ids.length < count) {
+                ids = new int[Math.max(count, ids.length * 2)];
+                positions = new float[ids.length * 3];
+            }
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readInt();
+                positions[i * 3] = in.readFloat();
+                positions[i * 3 + 1] = in.readFloat();
+                positions[i * 3 + 2] = in.readFloat();
+            }
+        }
+
+        private boolean matches(Frame other) {
+            if (tick != other.tick || count != other.count)
+                return false;
+            for (int i = 0; i < count; i++)
+                if (ids[i] != other.ids[i])
+                    return false;
+            for (int i = 0; i < count * 3; i++)
+                if (positions[i] != other.positions[i])
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * Reads a recording into the given listener, one record at a time. A recording cut short, by the server
+     * stopping without finishing it for instance, is read up to where it ends.
+     */
+    public static void play(Path file, Listener listener) throws IOException {
+        try (Reader reader = new Reader(file)) {
+            while (true) {
+                byte type = reader.next();
+                if (type == ProjectileRecorder.SPAWN)
+                    listener.onSpawn(reader.spawn);
+                else if (type == ProjectileRecorder.HIT)
+                    listener.onHit(reader.hit);
+                else if (type == ProjectileRecorder.DEATH)
+                    listener.onDeath(reader.deathId, reader.tick());
+                else if (type == ProjectileRecorder.FRAME)
+                    listener.onFrame(reader.frame);
+                else
+                    break;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("summary"))
+            summarize(Paths.get(args[1]), args.length >= 3 ? Integer.parseInt(args[2]) : 10);
+        else if (args.length >= 3 && args[0].equals("compare"))
+            compare(Paths.get(args[1]), Paths.get(args[2]));
+        else if (args.length >= 2 && args[0].equals("resimulate"))
+            ProjectileResimulation.run(Paths.get(args[1]), args.length >= 3 ? Double.parseDouble(args[2]) : 0.001);
+        else {
+            System.out.println("Usage: ProjectileReplay summary <recording> [slowest ticks to list]");
+            System.out.println("       ProjectileReplay compare <recording> <recording>");
+            System.out.println("       ProjectileReplay resimulate <recording> [tolerance in blocks]");
+        }
+    }
+
+    private static void summarize(Path file, int slowest) throws IOException {
+        HashSet<String> types = new HashSet<>();
+        int[] spawns = {0};
+        int[] hitsByKind = new int[5];
+        int[] stops = {0};
+        // per tick: tick, nanoseconds, projectiles, hits
+        ArrayList<long[]> ticks = new ArrayList<>();
+        int[] peak = {0};
+        int[] hitsThisTick = {0};
+        play(file, new Listener() {
+            @Override
+            public void onSpawn(Spawn spawn) {
+                spawns[0]++;
+                types.add(spawn.type);
+            }
+
+            @Override
+            public void onHit(Hit hit) {
+                if (hit.kind >= 0 && hit.kind < hitsByKind.length)
+                    hitsByKind[hit.kind]++;
+                if (hit.stopped)
+                    stops[0]++;
+                hitsThisTick[0]++;
+            }
+
+            @Override
+            public void onFrame(Frame frame) {
+                ticks.add(new long[]{frame.getTick(), frame.getNanos(), frame.size(), hitsThisTick[0]});
+                peak[0] = Math.max(peak[0], frame.size());
+                hitsThisTick[0] = 0;
+            }
+        });
+
+        System.out.printf("%d ticks, %d projectiles of %d types, at most %d in flight at once%n",
+                ticks.size(), spawns[0], types.size(), peak[0]);
+        System.out.printf("%d entity hits, %d block hits, %d shape hits, %d projectile hits; %d stopped a projectile%n",
+                hitsByKind[ProjectileRecorder.ENTITY], hitsByKind[ProjectileRecorder.BLOCK],
+                hitsByKind[ProjectileRecorder.SHAPE], hitsByKind[ProjectileRecorder.PROJECTILE], stops[0]);
+        if (ticks.isEmpty())
+            return;
+        long total = 0;
+        for (long[] tick : ticks)
+            total += tick[1];
+        System.out.printf("%.3f ms per tick on average%n", total / 1e6 / ticks.size());
+
+        long[][] sorted = ticks.toArray(new long[0][]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(b[1], a[1]));
+        System.out.println("Slowest ticks:");
+        for (int i = 0; i < Math.min(slowest, sorted.length); i++)
+            System.out.printf("  tick %d: %.3f ms, %d projectiles, %d hits%n",
+                    sorted[i][0], sorted[i][1] / 1e6, sorted[i][2], sorted[i][3]);
+    }
+
+    private static void compare(Path first, Path second) throws IOException {
+        try (Reader a = new Reader(first); Reader b = new Reader(second)) {
+            long records = 0;
+            while (true) {
+                byte typeA = a.next(), typeB = b.next();
+                if (typeA == 0 && typeB == 0) {
+                    System.out.printf("The recordings agree: %d records over %d ticks.%n", records, a.tick());
+                    return;
+                }
+                String difference = null;
+                if (typeA != typeB)
+                    difference = String.format("one has %s where the other has %s", describe(a, typeA),
+                            describe(b, typeB));
+                else if (typeA == ProjectileRecorder.SPAWN && !a.spawn.matches(b.spawn)
+                        || typeA == ProjectileRecorder.HIT && !a.hit.matches(b.hit)
+                        || typeA == ProjectileRecorder.DEATH && a.deathId != b.deathId
+                        || typeA == ProjectileRecorder.FRAME && !a.frame.matches(b.frame))
+                    difference = String.format("%s against %s", describe(a, typeA), describe(b, typeB));
+                if (difference != null) {
+                    System.out.printf("The recordings first differ during tick %d: %s.%n", a.tick(), difference);
+                    return;
+                }
+                records++;
+            }
+        }
+    }
+
+    private static String describe(Reader reader, byte type) {
+        switch (type) {
+            case ProjectileRecorder.SPAWN:
+                return reader.spawn.toString();
+            case ProjectileRecorder.HIT:
+                return reader.hit.toString();
+            case ProjectileRecorder.DEATH:
+                return "the death of #" + reader.deathId;
+            case ProjectileRecorder.FRAME:
+                return "the end of the tick with " + reader.frame.size() + " projectiles";
+            default:
+                return "the end of the recording";
+        }
+    }
+
+    /**
+     * Steps through a recording one record at a time, keeping the last of each kind.
+     */
+    private static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private final Frame frame = new Frame();
+        private Spawn spawn;
+        private Hit hit;
+        private int deathId;
+        // the tick of the last frame read, or the one before recording started
+        private long lastFrameTick, recordTick;
+        private boolean done = false;
+
+        private Reader(Path file) throws IOException {
+            InputStream stream = Files.newInputStream(file);
+            in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            int magic = in.readInt();
+            short version = in.readShort();
+            if (magic != ProjectileRecorder.MAGIC || version < 1 || version > ProjectileRecorder.VERSION) {
+                in.close();
+                throw new IOException(file + " isn't a projectile recording this version can read");
+            }
+            // the first version didn't say when it started, so assume the start of the run, as it always did
+            lastFrameTick = (version == 1 ? 1 : in.readLong()) - 1;
+        }
+
+        /**
+         * The tick the last record was made in.
+         */
+        private long tick() {
+            return recordTick;
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return Its type, or 0 at the end of the recording.
+         */
+        private byte next() throws IOException {
+            if (done)
+                return 0;
+            try {
+                // the unwritten tail of an unfinished recording is zeroes
+                byte type = in.readByte();
+                recordTick = lastFrameTick + 1;
+                switch (type) {
+                    case ProjectileRecorder.SPAWN:
+                        spawn = new Spawn(in);
+                        break;
+                    case ProjectileRecorder.HIT:
+                        hit = new Hit(in, tick());
+                        break;
+                    case ProjectileRecorder.DEATH:
+                        deathId = in.readInt();
+                        break;
+                    case ProjectileRecorder.FRAME:
+                        frame.read(in);
+                        lastFrameTick = recordTick = frame.getTick();
+                        break;
+                    default:
+                        done = true;
+                        return 0;
+                }
+                return type;
+            } catch (EOFException ex) {
+                done = true;
+                return 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
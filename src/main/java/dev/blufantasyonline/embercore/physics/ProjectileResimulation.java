@@ -0,0 +1,276 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.physics.spatial.CellKey;
+import dev.blufantasyonline.embercore.util.collection.LongHashSet;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.Vector;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Runs a recording's projectiles through the physics code again, in {@link ReplayWorld stand-in worlds}, and reports
+ * the first tick at which they stop doing what was recorded. Started from {@link ProjectileReplay}'s
+ * {@code resimulate} command.
+ * <br><br>
+ * Each recorded spawn is launched again as a plain {@link VectorProjectile}, with the position, velocity,
+ * acceleration, size, range and collision mode it was recorded with, and the simulation is stepped once for every
+ * recorded frame, with the registry's default settings. The recording doesn't hold the world, so that is rebuilt
+ * from what it does hold: every block a projectile hit becomes a solid full block, and everything else is air. A
+ * block hit stops the projectile if the recording says the same hit did, or if the recording doesn't have it.
+ * Entities, static shapes and other projectiles aren't rebuilt; hits on them, and deaths with no hit behind them
+ * (lifetimes and plugin code), are taken from the recording and applied at the end of their tick.
+ * <br><br>
+ * Each tick, the block hits are compared in order, and every projectile's position in the frame to within a
+ * tolerance, after rounding the re-simulated position to a float as the recorder did. Projectiles whose type steers them from its hooks, homing presets for instance, can't be reproduced
+ * this way and will drift from their recorded paths.
+ * <br><br>
+ * This steps the plugin's one projectile registry, so it can't be used on a running server.
+ */
+final class ProjectileResimulation implements ProjectileReplay.Listener {
+    private final HashMap<UUID, LongHashSet> solidBlocks;
+    private final HashMap<UUID, World> worlds = new HashMap<>();
+    private final double tolerance;
+    // projectiles by recorded ID, until they've died
+    private final TreeMap<Integer, Replayed> projectiles = new TreeMap<>();
+    // what the recording says happened during the tick being read, and what the re-simulation did in it
+    private final ArrayList<ProjectileReplay.Hit> recordedHits = new ArrayList<>();
+    private final ArrayList<Integer> recordedDeaths = new ArrayList<>();
+    private final ArrayList<SimulatedHit> simulatedHits = new ArrayList<>();
+    private int spawned = 0, ticks = 0, applied = 0;
+    private String difference;
+    private long differenceTick;
+
+    private ProjectileResimulation(HashMap<UUID, LongHashSet> solidBlocks, double tolerance) {
+        this.solidBlocks = solidBlocks;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Re-simulates the given recording and prints how it went.
+     *
+     * @param tolerance How far, in blocks, a re-simulated projectile can be from where it was recorded on any axis
+     *                  before that counts as a difference, once both are rounded to the floats frames hold.
+     */
+    static void run(Path file, double tolerance) throws IOException {
+        if (PhysicsClock.isRunning()) {
+            System.out.println("Projectiles can't be re-simulated on a running server.");
+            return;
+        }
+        // read the whole recording once first, to know every block that needs to be in the worlds
+        HashMap<Integer, UUID> worldOf = new HashMap<>();
+        HashMap<UUID, LongHashSet> solidBlocks = new HashMap<>();
+        ProjectileReplay.play(file, new ProjectileReplay.Listener() {
+            @Override
+            public void onSpawn(ProjectileReplay.Spawn spawn) {
+                worldOf.put(spawn.id, spawn.world);
+            }
+
+            @Override
+            public void onHit(ProjectileReplay.Hit hit) {
+                UUID world = worldOf.get(hit.id);
+                if (hit.kind == ProjectileRecorder.BLOCK && world != null)
+                    solidBlocks.computeIfAbsent(world, id -> new LongHashSet()).add(hit.target);
+            }
+        });
+
+        ProjectileResimulation resimulation = new ProjectileResimulation(solidBlocks, tolerance);
+        ProjectileReplay.play(file, resimulation);
+        if (resimulation.difference != null)
+            System.out.printf("The re-simulation first differs from the recording during tick %d: %s.%n",
+                    resimulation.differenceTick, resimulation.difference);
+        else
+            System.out.printf("The re-simulation agrees with the recording: %d projectiles over %d ticks.%n",
+                    resimulation.spawned, resimulation.ticks);
+        if (resimulation.applied > 0)
+            System.out.printf("%d hits on entities, shapes and other projectiles were taken from the recording.%n",
+                    resimulation.applied);
+    }
+
+    @Override
+    public void onSpawn(ProjectileReplay.Spawn spawn) {
+        if (difference != null)
+            return;
+        World world = worlds.computeIfAbsent(spawn.world,
+                id -> ReplayWorld.create(id, solidBlocks.getOrDefault(id, new LongHashSet())));
+        projectiles.put(spawn.id, new Replayed(this, spawn, world));
+        spawned++;
+    }
+
+    @Override
+    public void onHit(ProjectileReplay.Hit hit) {
+        if (difference == null)
+            recordedHits.add(hit);
+    }
+
+    @Override
+    public void onDeath(int id, long tick) {
+        if (difference == null)
+            recordedDeaths.add(id);
+    }
+
+    @Override
+    public void onFrame(ProjectileReplay.Frame frame) {
+        if (difference != null)
+            return;
+        differenceTick = frame.getTick();
+        PhysicsClock.step();
+        ticks++;
+
+        compareHits();
+        // what the stand-in worlds can't produce happens at the end of the tick instead
+        for (ProjectileReplay.Hit hit : recordedHits)
+            if (hit.kind != ProjectileRecorder.BLOCK) {
+                applied++;
+                if (hit.stopped)
+                    destroy(hit.id);
+            }
+        for (int id : recordedDeaths)
+            destroy(id);
+        if (difference == null)
+            compareFrame(frame);
+
+        for (Iterator<Replayed> it = projectiles.values().iterator(); it.hasNext(); )
+            if (!it.next().isActive())
+                it.remove();
+        recordedHits.clear();
+        recordedDeaths.clear();
+        simulatedHits.clear();
+    }
+
+    /**
+     * Called when a re-simulated projectile hits a block.
+     *
+     * @return Whether it stops.
+     */
+    private boolean blockHit(Replayed projectile, long target) {
+        boolean stopped = true;
+        for (ProjectileReplay.Hit hit : recordedHits)
+            if (hit.id == projectile.id && hit.kind == ProjectileRecorder.BLOCK && hit.target == target) {
+                stopped = hit.stopped;
+                break;
+            }
+        simulatedHits.add(new SimulatedHit(projectile.id, target, stopped));
+        return stopped;
+    }
+
+    private void compareHits() {
+        ArrayList<ProjectileReplay.Hit> recorded = new ArrayList<>();
+        HashSet<Integer> stoppedElsewhere = new HashSet<>();
+        for (ProjectileReplay.Hit hit : recordedHits)
+            if (hit.kind == ProjectileRecorder.BLOCK)
+                recorded.add(hit);
+            else if (hit.stopped)
+                stoppedElsewhere.add(hit.id);
+        // Projectiles stopped by something that isn't in the stand-in worlds went on to the end of the tick, and
+        // whatever they hit after that point never happened.
+        ArrayList<SimulatedHit> simulated = new ArrayList<>();
+        for (SimulatedHit hit : simulatedHits)
+            if (!stoppedElsewhere.contains(hit.id) || recorded.stream().anyMatch(hit::matches))
+                simulated.add(hit);
+
+        for (int i = 0; i < Math.max(recorded.size(), simulated.size()); i++) {
+            if (i >= recorded.size())
+                difference = simulated.get(i) + " in the re-simulation but not in the recording";
+            else if (i >= simulated.size())
+                difference = recorded.get(i) + " in the recording but not in the re-simulation";
+            else if (!simulated.get(i).matches(recorded.get(i)))
+                difference = String.format("the recording has %s where the re-simulation has %s",
+                        recorded.get(i), simulated.get(i));
+            if (difference != null)
+                return;
+        }
+    }
+
+    private void compareFrame(ProjectileReplay.Frame frame) {
+        for (int i = 0; i < frame.size(); i++) {
+            Replayed projectile = projectiles.get(frame.getId(i));
+            if (projectile == null || !projectile.isActive()) {
+                difference = String.format("#%d is in flight in the recording but not in the re-simulation",
+                        frame.getId(i));
+                return;
+            }
+            projectile.seen = ticks;
+            Location at = projectile.currentLocation();
+            // Frames hold positions as floats, which are only good to 0.002 blocks or so past 16384 blocks from the
+            // origin, so the simulated position is rounded the same way before it's compared.
+            double x = (float) at.getX(), y = (float) at.getY(), z = (float) at.getZ();
+            if (Math.abs(x - frame.getX(i)) > tolerance || Math.abs(y - frame.getY(i)) > tolerance
+                    || Math.abs(z - frame.getZ(i)) > tolerance) {
+                difference = String.format("#%d is at %.3f, %.3f, %.3f in the recording but %.3f, %.3f, %.3f in "
+                                + "the re-simulation", frame.getId(i), frame.getX(i), frame.getY(i), frame.getZ(i),
+                        at.getX(), at.getY(), at.getZ());
+                return;
+            }
+        }
+        for (Replayed projectile : projectiles.values())
+            if (projectile.isActive() && projectile.seen != ticks) {
+                difference = String.format("#%d is in flight in the re-simulation but not in the recording",
+                        projectile.id);
+                return;
+            }
+    }
+
+    private void destroy(int id) {
+        Replayed projectile = projectiles.get(id);
+        if (projectile != null && projectile.isActive())
+            projectile.destroy();
+    }
+
+    /**
+     * A recorded projectile, launched again with what it was recorded with.
+     */
+    private static final class Replayed extends VectorProjectile {
+        private final ProjectileResimulation resimulation;
+        private final int id;
+        // the last tick it was found in a frame
+        private int seen = -1;
+
+        private Replayed(ProjectileResimulation resimulation, ProjectileReplay.Spawn spawn, World world) {
+            super(new Location(world, spawn.x, spawn.y, spawn.z));
+            this.resimulation = resimulation;
+            id = spawn.id;
+            setSize(spawn.halfX * 2.0, spawn.halfY * 2.0, spawn.halfZ * 2.0);
+            setVelocity(new Vector(spawn.velocityX, spawn.velocityY, spawn.velocityZ));
+            setAcceleration(new Vector(spawn.accelerationX, spawn.accelerationY, spawn.accelerationZ));
+            setRange(spawn.range);
+            if (spawn.collisionMode != null)
+                setCollisionMode(spawn.collisionMode);
+        }
+
+        @Override
+        public boolean onHitBlock(Block block) {
+            return resimulation.blockHit(this, CellKey.pack(block.getX(), block.getY(), block.getZ()));
+        }
+    }
+
+    private static final class SimulatedHit {
+        private final int id;
+        private final long target;
+        private final boolean stopped;
+
+        private SimulatedHit(int id, long target, boolean stopped) {
+            this.id = id;
+            this.target = target;
+            this.stopped = stopped;
+        }
+
+        private boolean matches(ProjectileReplay.Hit hit) {
+            return id == hit.id && hit.kind == ProjectileRecorder.BLOCK && target == hit.target
+                    && stopped == hit.stopped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d hit block %d%s", id, target, stopped ? " and stopped" : "");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package dev.blufantasyonline.embercore.physics;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import org.bukkit.Particle;
+
+/**
+ * One piece of a {@link ProjectilePreset}'s behaviour, declared in {@code projectile-presets.yml} under the preset's
+ * {@code stages} with a {@code type} naming which stage it is:
+ * <pre>
+ * fireball:
+ *   stages:
+ *     - type: gravity
+ *       strength: 0.03
+ *     - type: trail
+ *       particle: FLAME
+ *     - type: damage
+ *       amount: 6.0
+ * </pre>
+ * A preset's stages are compiled once into a flat {@link ProjectileProgram} that its projectiles run each tick and
+ * on each hit, in the order the stages are listed.
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type")
+@JsonSubTypes({
+        @JsonSubTypes.Type(value = ProjectileStage.Gravity.class, name = "gravity"),
+        @JsonSubTypes.Type(value = ProjectileStage.Drag.class, name = "drag"),
+        @JsonSubTypes.Type(value = ProjectileStage.Homing.class, name = "homing"),
+        @JsonSubTypes.Type(value = ProjectileStage.Trail.class, name = "trail"),
+        @JsonSubTypes.Type(value = ProjectileStage.Pierce.class, name = "pierce"),
+        @JsonSubTypes.Type(value = ProjectileStage.Damage.class, name = "damage"),
+        @JsonSubTypes.Type(value = ProjectileStage.Knockback.class, name = "knockback"),
+        @JsonSubTypes.Type(value = ProjectileStage.Ignite.class, name = "ignite"),
+        @JsonSubTypes.Type(value = ProjectileStage.Burst.class, name = "burst")
+})
+public abstract class ProjectileStage {
+    abstract void compile(ProjectilePreset preset, ProjectileProgram.Builder program);
+
+    /**
+     * Pulls the projectile downward.
+     */
+    public static final class Gravity extends ProjectileStage {
+        /**
+         * Blocks per tick added to the projectile's downward speed every tick.
+         */
+        public double strength = 0.05;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.gravity(strength);
+        }
+    }
+
+    /**
+     * Slows the projectile down.
+     */
+    public static final class Drag extends ProjectileStage {
+        /**
+         * The fraction of its speed the projectile keeps each tick.
+         */
+        public double factor = 0.99;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.tick(ProjectileProgram.DRAG, factor);
+        }
+    }
+
+    /**
+     * Steers the projectile toward the nearest living entity other than its owner.
+     */
+    public static final class Homing extends ProjectileStage {
+        /**
+         * How far away a target can be.
+         */
+        public double range = 16.0;
+        /**
+         * How sharply the projectile turns, from 0 (not at all) to 1 (straight at the target every tick).
+         */
+        public double turnRate = 0.2;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.tick(ProjectileProgram.HOMING, range, turnRate);
+        }
+    }
+
+    /**
+     * Leaves particles behind the projectile every tick. Particles that need extra data, such as colored dust,
+     * aren't supported.
+     */
+    public static final class Trail extends ProjectileStage {
+        /**
+         * The particle to spawn, or null to use the preset's {@link ProjectilePreset#particle particle}.
+         */
+        public Particle particle = null;
+        public int count = 1;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.tick(ProjectileProgram.TRAIL, program.particle(particle == null ? preset.particle : particle),
+                    count);
+        }
+    }
+
+    /**
+     * Lets the projectile pass through entities instead of stopping at the first one. It still stops at blocks.
+     */
+    public static final class Pierce extends ProjectileStage {
+        /**
+         * How many entities the projectile passes through before the one it stops at.
+         */
+        public int count = 1;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.pierce(count);
+        }
+    }
+
+    /**
+     * Damages entities the projectile hits, on behalf of its owner if it has one.
+     */
+    public static final class Damage extends ProjectileStage {
+        public double amount = 4.0;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.hit(ProjectileProgram.DAMAGE, amount);
+        }
+    }
+
+    /**
+     * Pushes entities the projectile hits along the direction it was traveling.
+     */
+    public static final class Knockback extends ProjectileStage {
+        /**
+         * The speed, in blocks per tick, added to the entity.
+         */
+        public double strength = 0.5;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.hit(ProjectileProgram.KNOCKBACK, strength);
+        }
+    }
+
+    /**
+     * Sets entities the projectile hits on fire.
+     */
+    public static final class Ignite extends ProjectileStage {
+        public int ticks = 60;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.hit(ProjectileProgram.IGNITE, ticks);
+        }
+    }
+
+    /**
+     * Spawns a burst of particles wherever the projectile hits something, entity or block.
+     */
+    public static final class Burst extends ProjectileStage {
+        /**
+         * The particle to spawn, or null to use the preset's {@link ProjectilePreset#particle particle}.
+         */
+        public Particle particle = null;
+        public int count = 10;
+        /**
+         * How far the particles spread out from the point of impact.
+         */
+        public double spread = 0.25;
+
+        @Override
+        void compile(ProjectilePreset preset, ProjectileProgram.Builder program) {
+            program.hit(ProjectileProgram.BURST, program.particle(particle == null ? preset.particle : particle),
+                    count, spread);
+        }
+    }
+}
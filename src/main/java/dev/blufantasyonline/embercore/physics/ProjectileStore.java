@@ -0,0 +1,135 @@
+package dev.blufantasyonline.embercore.physics;
+
+import java.util.Arrays;
+
+/**
+ * Data-oriented storage for projectile state. Positions, velocities, accelerations, hitbox half-extents and
+ * distance traveled are kept in parallel primitive arrays, packed densely so that stepping every projectile walks
+ * memory in order rather than chasing a {@link org.bukkit.Location}, {@link org.bukkit.util.BoundingBox} and two
+ * {@link org.bukkit.util.Vector}s per projectile.
+ * <br><br>
+ * Projectiles refer to their slot through a handle that stays the same for as long as they're stored, even though
+ * removals move other projectiles around to keep the arrays dense.
+ */
+public final class ProjectileStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    double[] posX, posY, posZ;
+    double[] velX, velY, velZ;
+    double[] accX, accY, accZ;
+    double[] halfX, halfY, halfZ;
+    double[] traveled;
+    private VectorProjectile[] projectiles;
+
+    private int size = 0;
+    private int[] handleToIndex;
+    private int[] indexToHandle;
+    private int[] freeHandles;
+    private int freeCount = 0;
+    private int nextHandle = 0;
+
+    public ProjectileStore() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The projectile stored at the given dense index.
+     */
+    public VectorProjectile get(int index) {
+        return projectiles[index];
+    }
+
+    /**
+     * @return The dense index currently used by the given handle.
+     */
+    public int indexOf(int handle) {
+        return handleToIndex[handle];
+    }
+
+    /**
+     * Reserves a slot for the given projectile. The slot's contents are zeroed.
+     *
+     * @return The handle for the new slot.
+     */
+    int add(VectorProjectile projectile) {
+        if (size == projectiles.length)
+            allocate(size * 2);
+        int handle = freeCount > 0 ? freeHandles[--freeCount] : nextHandle++;
+        if (handle >= handleToIndex.length)
+            handleToIndex = Arrays.copyOf(handleToIndex, handleToIndex.length * 2);
+
+        int index = size++;
+        handleToIndex[handle] = index;
+        indexToHandle[index] = handle;
+        projectiles[index] = projectile;
+        posX[index] = posY[index] = posZ[index] = 0.0;
+        velX[index] = velY[index] = velZ[index] = 0.0;
+        accX[index] = accY[index] = accZ[index] = 0.0;
+        halfX[index] = halfY[index] = halfZ[index] = 0.0;
+        traveled[index] = 0.0;
+        return handle;
+    }
+
+    /**
+     * Frees the slot belonging to the given handle, moving the last projectile into it.
+     * Must not be called while something is iterating over the store.
+     */
+    void remove(int handle) {
+        int index = handleToIndex[handle];
+        int last = --size;
+        if (index != last) {
+            posX[index] = posX[last];
+            posY[index] = posY[last];
+            posZ[index] = posZ[last];
+            velX[index] = velX[last];
+            velY[index] = velY[last];
+            velZ[index] = velZ[last];
+            accX[index] = accX[last];
+            accY[index] = accY[last];
+            accZ[index] = accZ[last];
+            halfX[index] = halfX[last];
+            halfY[index] = halfY[last];
+            halfZ[index] = halfZ[last];
+            traveled[index] = traveled[last];
+            projectiles[index] = projectiles[last];
+            int movedHandle = indexToHandle[last];
+            indexToHandle[index] = movedHandle;
+            handleToIndex[movedHandle] = index;
+        }
+        projectiles[last] = null;
+
+        if (freeCount == freeHandles.length)
+            freeHandles = Arrays.copyOf(freeHandles, freeHandles.length * 2);
+        freeHandles[freeCount++] = handle;
+    }
+
+    private void allocate(int capacity) {
+        posX = grow(posX, capacity);
+        posY = grow(posY, capacity);
+        posZ = grow(posZ, capacity);
+        velX = grow(velX, capacity);
+        velY = grow(velY, capacity);
+        velZ = grow(velZ, capacity);
+        accX = grow(accX, capacity);
+        accY = grow(accY, capacity);
+        accZ = grow(accZ, capacity);
+        halfX = grow(halfX, capacity);
+        halfY = grow(halfY, capacity);
+        halfZ = grow(halfZ, capacity);
+        traveled = grow(traveled, capacity);
+        projectiles = projectiles == null ? new VectorProjectile[capacity] : Arrays.copyOf(projectiles, capacity);
+        indexToHandle = indexToHandle == null ? new int[capacity] : Arrays.copyOf(indexToHandle, capacity);
+        if (handleToIndex == null)
+            handleToIndex = new int[capacity];
+        if (freeHandles == null)
+            freeHandles = new int[capacity];
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+    }
+}
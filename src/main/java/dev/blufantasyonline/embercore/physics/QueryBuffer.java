@@ -0,0 +1,72 @@
+package dev.blufantasyonline.embercore.physics;
+
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Holds the results of an area query from {@link Physics}, such as {@link Physics#querySphere}. Keep one around
+ * and pass it to every query; each query clears it first and reuses its storage, so repeated queries don't
+ * allocate once it has grown to fit.
+ * <br><br>
+ * The buffer is only valid until the next query made with it, and can't be shared between threads.
+ */
+public final class QueryBuffer implements Iterable<LivingEntity> {
+    // broadphase scratch, filled from the entity grid before the exact shape test
+    final ArrayList<LivingEntity> candidates = new ArrayList<>();
+    final ArrayList<BoundingBox> candidateBoxes = new ArrayList<>();
+    final BoundingBox area = new BoundingBox();
+    // Physics.queryBox's oriented box: three axes of three components, and the half-size along each
+    final double[] axes = new double[9], halfExtents = new double[3];
+    private final ArrayList<LivingEntity> entities = new ArrayList<>();
+    private final ArrayList<BoundingBox> boxes = new ArrayList<>();
+
+    /**
+     * @return How many entities the last query found.
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    public boolean isEmpty() {
+        return entities.isEmpty();
+    }
+
+    public LivingEntity get(int index) {
+        return entities.get(index);
+    }
+
+    /**
+     * @return The hitbox of the entity at the given index, as it was when the query ran. Don't modify it.
+     */
+    public BoundingBox getBoundingBox(int index) {
+        return boxes.get(index);
+    }
+
+    /**
+     * @return The entities the last query found, backed by this buffer.
+     */
+    public List<LivingEntity> entities() {
+        return entities;
+    }
+
+    @Override
+    public Iterator<LivingEntity> iterator() {
+        return entities.iterator();
+    }
+
+    public void clear() {
+        entities.clear();
+        boxes.clear();
+        candidates.clear();
+        candidateBoxes.clear();
+    }
+
+    void add(LivingEntity entity, BoundingBox box) {
+        entities.add(entity);
+        boxes.add(box);
+    }
+}
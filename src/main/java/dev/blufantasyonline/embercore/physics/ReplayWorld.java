@@ -0,0 +1,146 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.physics.spatial.CellKey;
+import dev.blufantasyonline.embercore.util.collection.LongHashSet;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.BoundingBox;
+import org.bukkit.util.VoxelShape;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A stand-in for a server world, for {@link ProjectileResimulation} to run projectiles through without a server.
+ * {@link World} and {@link Block} are interfaces, so both are implemented with {@link Proxy proxies} answering only
+ * what the projectile code asks: every chunk is loaded, the given blocks are solid full cubes and everything else is
+ * air, and there are no entities or players. Anything else gets an empty or zero answer.
+ */
+final class ReplayWorld {
+    private static final List<BoundingBox> FULL_BLOCK = List.of(new BoundingBox(0, 0, 0, 1, 1, 1));
+
+    private final UUID id;
+    private final LongHashSet solid;
+    private final World world;
+
+    private ReplayWorld(UUID id, LongHashSet solid) {
+        this.id = id;
+        this.solid = solid;
+        world = (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class},
+                (proxy, method, args) -> world(proxy, method, args));
+    }
+
+    /**
+     * @param solid The blocks that are solid, by {@link CellKey#pack(int, int, int) packed coordinates}.
+     */
+    static World create(UUID id, LongHashSet solid) {
+        return new ReplayWorld(id, solid).world;
+    }
+
+    private Object world(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getUID":
+                return id;
+            case "getName":
+            case "toString":
+                return "replay-" + id;
+            case "isChunkLoaded":
+                return true;
+            case "getBlockAt":
+                if (args.length == 1) {
+                    Location at = (Location) args[0];
+                    return block(at.getBlockX(), at.getBlockY(), at.getBlockZ());
+                }
+                return block((int) args[0], (int) args[1], (int) args[2]);
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return id.hashCode();
+            default:
+                return empty(method.getReturnType());
+        }
+    }
+
+    private Block block(int x, int y, int z) {
+        boolean full = solid.contains(CellKey.pack(x, y, z));
+        Material type = full ? Material.STONE : Material.AIR;
+        List<BoundingBox> boxes = full ? FULL_BLOCK : Collections.emptyList();
+        VoxelShape shape = (VoxelShape) Proxy.newProxyInstance(VoxelShape.class.getClassLoader(),
+                new Class<?>[]{VoxelShape.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getBoundingBoxes"))
+                        return boxes;
+                    return method.getName().equals("equals") ? proxy == args[0] : empty(method.getReturnType());
+                });
+        return (Block) Proxy.newProxyInstance(Block.class.getClassLoader(), new Class<?>[]{Block.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getType":
+                            return type;
+                        case "getCollisionShape":
+                            return shape;
+                        case "getBoundingBox":
+                            return full ? new BoundingBox(x, y, z, x + 1, y + 1, z + 1)
+                                    : new BoundingBox(x, y, z, x, y, z);
+                        case "getX":
+                            return x;
+                        case "getY":
+                            return y;
+                        case "getZ":
+                            return z;
+                        case "getWorld":
+                            return world;
+                        case "getLocation":
+                            return new Location(world, x, y, z);
+                        case "isEmpty":
+                        case "isPassable":
+                            return !full;
+                        case "equals":
+                            if (!(args[0] instanceof Block))
+                                return false;
+                            Block other = (Block) args[0];
+                            return other.getWorld() == world
+                                    && other.getX() == x && other.getY() == y && other.getZ() == z;
+                        case "hashCode":
+                            return Long.hashCode(CellKey.pack(x, y, z));
+                        case "toString":
+                            return String.format("%s at %d, %d, %d", type, x, y, z);
+                        default:
+                            return empty(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * The answer to anything the stand-ins don't know about: nothing, in whatever form the method returns.
+     */
+    private static Object empty(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == double.class)
+            return 0.0;
+        if (type == float.class)
+            return 0.0f;
+        if (type == short.class)
+            return (short) 0;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == char.class)
+            return (char) 0;
+        if (type == List.class || type == Collection.class)
+            return Collections.emptyList();
+        if (type == Set.class)
+            return Collections.emptySet();
+        return null;
+    }
+}
@@ -0,0 +1,23 @@
+package dev.blufantasyonline.embercore.physics;
+
+/**
+ * How much care {@link ProjectileRegistry} takes stepping a projectile, chosen by how close the nearest player is.
+ * See {@link VectorProjectile#setLodDistances(double, double)}.
+ */
+public enum SimulationLevel {
+    /**
+     * The projectile is stepped normally.
+     */
+    FULL,
+    /**
+     * Substepping projectiles use half as many substeps. Continuous projectiles only search for entities every
+     * other tick, covering two ticks' path at once, so an entity hit can register up to a tick early and moving
+     * entities can be missed. Blocks and static shapes are still checked every tick.
+     */
+    REDUCED,
+    /**
+     * The projectile moves its whole velocity each tick and only checks the block it lands in. Entities and
+     * static shapes are ignored and {@link VectorProjectile#interpolatedTick()} isn't called.
+     */
+    COARSE
+}
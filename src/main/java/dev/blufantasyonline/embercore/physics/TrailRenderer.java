@@ -0,0 +1,232 @@
+package dev.blufantasyonline.embercore.physics;
+
+import dev.blufantasyonline.embercore.CoreSettings;
+import dev.blufantasyonline.embercore.math.geometry.VectorUtil;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Draws projectile trails. Rather than spawning particles for every player in the world as soon as they're made,
+ * projectiles {@link #add add} their trail points here during the tick, and at the end of the tick
+ * {@link ProjectileRegistry} has every player sent the points they can actually see, in one pass per player.
+ * <br><br>
+ * Players are only sent points within {@link CoreSettings.PhysicsSettings#trailViewDistance} of their eyes and
+ * roughly in front of them ({@link CoreSettings.PhysicsSettings#trailViewAngle}); points right next to a player are
+ * always sent, since they may be in the corner of their eye. If more particles than
+ * {@link CoreSettings.PhysicsSettings#trailParticleBudget} are added in one tick, every trail is thinned out evenly
+ * to fit.
+ * <br><br>
+ * Like the rest of the projectile machinery, this is only meant to be used from the main thread.
+ */
+public final class TrailRenderer {
+    private static final HashMap<UUID, Batch> batches = new HashMap<>();
+    // points this close to a player are sent whichever way they're facing
+    private static final double ALWAYS_VISIBLE_DISTANCE = 4.0;
+    private static int lastSent = 0, lastThinned = 0;
+
+    /**
+     * Queues particles to be drawn at the given location at the end of the tick.
+     */
+    public static void add(Location location, Particle particle, int count) {
+        add(location.getWorld(), location.getX(), location.getY(), location.getZ(), particle, count, null);
+    }
+
+    /**
+     * Queues particles to be drawn at the given position at the end of the tick.
+     *
+     * @param data Extra data the particle needs, such as {@link Particle.DustOptions} for colored dust, or null if
+     *             it doesn't need any.
+     */
+    public static void add(World world, double x, double y, double z, Particle particle, int count, Object data) {
+        if (world == null || count <= 0)
+            return;
+        batches.computeIfAbsent(world.getUID(), uid -> new Batch(world)).add(x, y, z, particle, count, data);
+    }
+
+    /**
+     * Sends every player the trail points they can see, then forgets them all. Called by
+     * {@link ProjectileRegistry} at the end of every tick.
+     */
+    public static void flush() {
+        int total = 0;
+        for (Batch batch : batches.values())
+            total += batch.particles;
+        lastSent = 0;
+        lastThinned = 0;
+        if (total == 0)
+            return;
+
+        int budget = CoreSettings.physicsSettings.trailParticleBudget;
+        // Over budget, keep the same fraction of every trail. Carrying the remainder from point to point spreads the
+        // gaps evenly instead of dropping whole trails.
+        double keep = budget > 0 && total > budget ? (double) budget / total : 1.0;
+        double credit = 0.0;
+        for (Batch batch : batches.values()) {
+            if (batch.size == 0)
+                continue;
+            if (keep < 1.0)
+                credit = batch.thin(keep, credit);
+            batch.measure();
+            for (Player player : batch.world.getPlayers())
+                lastSent += batch.render(player);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Drops the queued points for the given world.
+     */
+    public static void remove(World world) {
+        batches.remove(world.getUID());
+    }
+
+    /**
+     * @return How many particles were sent to players, all told, at the end of the last tick.
+     */
+    public static int getLastSent() {
+        return lastSent;
+    }
+
+    /**
+     * @return How many particles were dropped to stay within the budget at the end of the last tick.
+     */
+    public static int getLastThinned() {
+        return lastThinned;
+    }
+
+    /**
+     * The points queued in one world this tick.
+     */
+    private static final class Batch {
+        private final World world;
+        private double[] x = new double[64], y = new double[64], z = new double[64];
+        private Particle[] types = new Particle[64];
+        private int[] counts = new int[64];
+        private Object[] data = new Object[64];
+        private int size = 0;
+        private int particles = 0;
+        private double minX, minY, minZ, maxX, maxY, maxZ;
+
+        private Batch(World world) {
+            this.world = world;
+        }
+
+        private void add(double px, double py, double pz, Particle particle, int count, Object extra) {
+            if (size == x.length)
+                grow(size * 2);
+            x[size] = px;
+            y[size] = py;
+            z[size] = pz;
+            types[size] = particle;
+            counts[size] = count;
+            data[size] = extra;
+            size++;
+            particles += count;
+        }
+
+        /**
+         * Keeps roughly the given fraction of the points, packed to the front.
+         *
+         * @return The credit to carry over to the next world.
+         */
+        private double thin(double keep, double credit) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                credit += keep;
+                if (credit < 1.0) {
+                    lastThinned += counts[i];
+                    continue;
+                }
+                credit -= 1.0;
+                x[kept] = x[i];
+                y[kept] = y[i];
+                z[kept] = z[i];
+                types[kept] = types[i];
+                counts[kept] = counts[i];
+                data[kept] = data[i];
+                kept++;
+            }
+            Arrays.fill(types, kept, size, null);
+            Arrays.fill(data, kept, size, null);
+            size = kept;
+            return credit;
+        }
+
+        private void measure() {
+            minX = minY = minZ = Double.POSITIVE_INFINITY;
+            maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                minX = Math.min(minX, x[i]);
+                minY = Math.min(minY, y[i]);
+                minZ = Math.min(minZ, z[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+                maxZ = Math.max(maxZ, z[i]);
+            }
+        }
+
+        /**
+         * Sends the player every point close enough and in front of them.
+         *
+         * @return How many particles were sent.
+         */
+        private int render(Player player) {
+            double viewDistance = CoreSettings.physicsSettings.trailViewDistance;
+            double viewDistanceSquared = viewDistance * viewDistance;
+            Location eye = player.getEyeLocation();
+            double eyeX = eye.getX(), eyeY = eye.getY(), eyeZ = eye.getZ();
+            // skip players nowhere near any of this tick's points
+            double outX = Math.max(0.0, Math.max(minX - eyeX, eyeX - maxX)),
+                    outY = Math.max(0.0, Math.max(minY - eyeY, eyeY - maxY)),
+                    outZ = Math.max(0.0, Math.max(minZ - eyeZ, eyeZ - maxZ));
+            if (outX * outX + outY * outY + outZ * outZ > viewDistanceSquared)
+                return 0;
+
+            double angle = CoreSettings.physicsSettings.trailViewAngle;
+            double cosHalfAngle = Math.cos(Math.toRadians(angle / 2.0));
+            boolean cull = angle < 360.0;
+            Vector facing = eye.getDirection();
+            double facingX = facing.getX(), facingY = facing.getY(), facingZ = facing.getZ();
+
+            int sent = 0;
+            for (int i = 0; i < size; i++) {
+                double dx = x[i] - eyeX, dy = y[i] - eyeY, dz = z[i] - eyeZ;
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+                if (distanceSquared > viewDistanceSquared)
+                    continue;
+                if (cull && distanceSquared > ALWAYS_VISIBLE_DISTANCE * ALWAYS_VISIBLE_DISTANCE
+                        && !VectorUtil.withinCone(dx, dy, dz, facingX, facingY, facingZ, cosHalfAngle))
+                    continue;
+                if (data[i] == null)
+                    player.spawnParticle(types[i], x[i], y[i], z[i], counts[i], 0, 0, 0, 0);
+                else
+                    player.spawnParticle(types[i], x[i], y[i], z[i], counts[i], 0, 0, 0, 0, data[i]);
+                sent += counts[i];
+            }
+            return sent;
+        }
+
+        private void clear() {
+            Arrays.fill(types, 0, size, null);
+            Arrays.fill(data, 0, size, null);
+            size = 0;
+            particles = 0;
+        }
+
+        private void grow(int capacity) {
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            z = Arrays.copyOf(z, capacity);
+            types = Arrays.copyOf(types, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            data = Arrays.copyOf(data, capacity);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package dev.blufantasyonline.embercore.physics;
+
+/**
+ * What a {@link VectorProjectile} does when its path runs into a chunk that isn't loaded. Projectiles never load
+ * chunks themselves.
+ */
+public enum UnloadedChunkPolicy {
+    /**
+     * The projectile dies at the edge of the loaded area.
+     */
+    DESPAWN,
+    /**
+     * The projectile stops at the edge of the loaded area and stops being ticked until the chunk it was heading into
+     * loads, at which point it carries on. Its lifetime keeps running in the meantime.
+     */
+    DORMANT
+}
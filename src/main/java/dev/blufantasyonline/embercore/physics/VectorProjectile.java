@@ -1,22 +1,55 @@
 package dev.blufantasyonline.embercore.physics;
 
-import dev.blufantasyonline.embercore.EmberCore;
 import dev.blufantasyonline.embercore.math.geometry.Vectors;
+import dev.blufantasyonline.embercore.physics.raycast.GridTraversal;
+import dev.blufantasyonline.embercore.physics.spatial.BlockCache;
+import dev.blufantasyonline.embercore.physics.spatial.CellKey;
+import dev.blufantasyonline.embercore.physics.spatial.EntityGrid;
+import dev.blufantasyonline.embercore.physics.spatial.StaticGeometryIndex;
+import dev.blufantasyonline.embercore.physics.spatial.StaticShape;
+import dev.blufantasyonline.embercore.util.collection.IntHashSet;
+import dev.blufantasyonline.embercore.util.collection.LongHashSet;
+import dev.blufantasyonline.embercore.util.collection.TimingWheel;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.LivingEntity;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 public class VectorProjectile {
     public static double DEFAULT_SIZE = 0.5;
+    // Scratch space for entity broadphase queries. Projectiles are only ever stepped one at a time on the
+    // main thread, so these can be shared.
+    private static final ImpactBuffer scratch = new ImpactBuffer();
+    private static final GridTraversal traversal = new GridTraversal();
+    // the last chunk the block walk found loaded, so it's only asked about once per chunk
+    private static int loadedChunkX, loadedChunkZ;
+    private static boolean loadedChunkKnown;
+    // whether the block walk found two blocks in its current cell, and should look at it again before moving on
+    private static boolean revisitCell;
+    private static final Vector reducedStep = new Vector();
+    // static shapes near this tick's path, and for continuous steps, when each one is hit in time order
+    private static final ArrayList<StaticShape> shapeCandidates = new ArrayList<>();
+    private static double[] shapeTimes = new double[16];
+    // how often, in ticks, each projectile re-checks its distance to players
+    private static final int LOD_INTERVAL = 10;
+    // Which of the per-tick hooks each projectile type overrides, so the ones it doesn't can be skipped entirely.
+    private static final int ON_TICK = 1, INTERPOLATED_TICK = 2, SHOULD_HIT_BLOCK = 4;
+    private static final HashMap<Class<?>, Integer> hookOverrides = new HashMap<>();
     private boolean active;
+    private boolean dead = false;
+    private boolean dormant = false;
+    private final int hooks;
     protected LivingEntity owner;
+    /*
+     * When the projectile is kept in a ProjectileStore, the location, hitbox, velocity and acceleration below are
+     * only a view of the store. They're brought up to date before any hook runs and written back once it returns,
+     * so hooks can use them as normal. Anywhere else, use the getters.
+     */
     protected Location location;
     protected BoundingBox hitbox;
     protected Vector velocity = Vectors.zero();
@@ -28,22 +61,120 @@ public class VectorProjectile {
      * every 10/5 = 2 meters.
      */
     protected int interpolationScale = 1;
-    protected long expireTime = 0;
+    /**
+     * Used to pick which projectiles to destroy first when there are too many. See {@link EvictionPolicy}.
+     */
+    protected int priority = 0;
+    protected UnloadedChunkPolicy unloadedChunkPolicy = UnloadedChunkPolicy.DESPAWN;
+    /**
+     * Distances from the nearest player beyond which the projectile is stepped at {@link SimulationLevel#REDUCED}
+     * and {@link SimulationLevel#COARSE} levels of detail. 0 disables that level.
+     */
+    protected double lodReducedDistance = 0.0, lodCoarseDistance = 0.0;
+    private SimulationLevel simulationLevel = SimulationLevel.FULL;
+    // at REDUCED, whether last tick's entity search already covered this tick
+    private boolean lookedAhead = false;
+    private boolean collidesWithProjectiles = false;
+    private boolean inCollider = false;
+    // where the projectile was when its last tick started, for projectile collisions
+    private double tickStartX, tickStartY, tickStartZ;
     protected double range = 0.0;
-    protected Set<Block> hitBlocks = new HashSet<>();
-    protected Set<UUID> hitEntities = new HashSet<>();
+    /**
+     * Blocks this projectile has already hit, by {@link CellKey#pack(int, int, int) packed coordinates}.
+     */
+    protected LongHashSet hitBlocks = new LongHashSet();
+    /**
+     * Entities this projectile has already hit, by {@link org.bukkit.entity.Entity#getEntityId() entity ID}.
+     */
+    protected IntHashSet hitEntities = new IntHashSet();
+    /**
+     * Static shapes this projectile has already hit, by {@link StaticShape#getId() ID}.
+     */
+    protected IntHashSet hitShapes = new IntHashSet();
     private boolean recalculateInterpolationScale = false;
+    protected CollisionMode collisionMode;
+    // Per-projectile tick state. This used to live in each projectile's own BukkitRunnable.
+    private double distanceTraveled;
+    private Vector interpolatedVelocity;
+    private Block impactBlock;
+    private ProjectileStore store;
+    private int storeHandle = -1;
+    private boolean detaching = false;
+    // set when the store has moved on from what the view objects say
+    private boolean viewStale = false;
+    private TimingWheel<VectorProjectile>.Timer expiry;
 
     public VectorProjectile(Location location) {
+        this(location, true);
+    }
+
+    /**
+     * @param launch Whether to register the projectile and run {@link #init()} straight away. Pooled projectiles
+     *               are launched later, through {@link #relaunch(Location)}.
+     */
+    VectorProjectile(Location location, boolean launch) {
         this.location = location;
-        active = true;
         hitbox = BoundingBox.of(location, DEFAULT_SIZE, DEFAULT_SIZE, DEFAULT_SIZE);
+        hooks = hookOverrides(getClass());
+        // Only projectiles that actually use the interpolated tick hook need to pay for substepping.
+        collisionMode = (hooks & INTERPOLATED_TICK) != 0 ? CollisionMode.SUBSTEP : CollisionMode.CONTINUOUS;
+        if (launch) {
+            active = true;
+            ProjectileRegistry.registerProjectile(this);
+            init();
+        }
+    }
+
+    /**
+     * Puts a projectile that has died and been unregistered back into the state a new one starts in, at the given
+     * location, then registers it and runs {@link #init()} again. The location is copied rather than kept.
+     */
+    final void relaunch(Location origin) {
+        location.setWorld(origin.getWorld());
+        location.setX(origin.getX());
+        location.setY(origin.getY());
+        location.setZ(origin.getZ());
+        location.setYaw(origin.getYaw());
+        location.setPitch(origin.getPitch());
+        // same as the constructor, which treats DEFAULT_SIZE as a half-extent
+        hitbox.resize(origin.getX() - DEFAULT_SIZE, origin.getY() - DEFAULT_SIZE, origin.getZ() - DEFAULT_SIZE,
+                origin.getX() + DEFAULT_SIZE, origin.getY() + DEFAULT_SIZE, origin.getZ() + DEFAULT_SIZE);
+        // the old vectors may have been handed in by whoever set them, so they can't be reset in place
+        velocity = Vectors.zero();
+        acceleration = Vectors.zero();
+        owner = null;
+        interpolationScale = 1;
+        recalculateInterpolationScale = false;
+        interpolatedVelocity = null;
+        range = 0.0;
+        priority = 0;
+        unloadedChunkPolicy = UnloadedChunkPolicy.DESPAWN;
+        lodReducedDistance = 0.0;
+        lodCoarseDistance = 0.0;
+        simulationLevel = SimulationLevel.FULL;
+        lookedAhead = false;
+        collidesWithProjectiles = false;
+        hitBlocks.clear();
+        hitEntities.clear();
+        hitShapes.clear();
+        distanceTraveled = 0.0;
+        impactBlock = null;
+        collisionMode = (hooks & INTERPOLATED_TICK) != 0 ? CollisionMode.SUBSTEP : CollisionMode.CONTINUOUS;
+        dead = false;
+        active = true;
         ProjectileRegistry.registerProjectile(this);
         init();
     }
 
     public final void destroy() {
         active = false;
+        // dormant projectiles aren't being ticked, so bring them back to be cleaned up
+        if (dormant)
+            ProjectileRegistry.wakeProjectile(this);
+    }
+
+    public final boolean isActive() {
+        return active;
     }
 
     public final LivingEntity getOwner() {
@@ -59,14 +190,88 @@ public class VectorProjectile {
     }
 
     /**
-     * Sets the current lifetime of the projectile in milliseconds.
+     * Sets the current lifetime of the projectile in milliseconds, counting from now. Lifetimes are rounded up to
+     * whole {@link PhysicsClock simulation ticks}, so a lagging server doesn't cut them short.
      * Use a value of 0 to set an infinite lifetime. This is not recommended.
      */
     public final void setLifetime(long lifetime) {
-        if (lifetime == 0)
-            expireTime = 0;
-        else
-            expireTime = System.currentTimeMillis() + lifetime;
+        setLifetimeTicks(lifetime > 0 ? PhysicsClock.toTicks(lifetime) : 0);
+    }
+
+    /**
+     * Sets the current lifetime of the projectile in {@link PhysicsClock simulation ticks}, counting from now.
+     * Use a value of 0 to set an infinite lifetime. This is not recommended.
+     */
+    public final void setLifetimeTicks(long ticks) {
+        ProjectileRegistry.cancelExpiry(expiry);
+        expiry = null;
+        if (ticks > 0 && !dead)
+            expiry = ProjectileRegistry.scheduleExpiry(this, ticks);
+    }
+
+    /**
+     * @return Whether the projectile is waiting for a chunk to load. See {@link UnloadedChunkPolicy#DORMANT}.
+     */
+    public final boolean isDormant() {
+        return dormant;
+    }
+
+    public final UnloadedChunkPolicy getUnloadedChunkPolicy() {
+        return unloadedChunkPolicy;
+    }
+
+    /**
+     * Sets what the projectile does when it reaches an unloaded chunk. Defaults to
+     * {@link UnloadedChunkPolicy#DESPAWN}.
+     */
+    public final void setUnloadedChunkPolicy(UnloadedChunkPolicy policy) {
+        unloadedChunkPolicy = policy;
+    }
+
+    /**
+     * @return The level of detail the projectile is currently being stepped at.
+     */
+    public final SimulationLevel getSimulationLevel() {
+        return simulationLevel;
+    }
+
+    /**
+     * Sets how far from the nearest player the projectile has to be before it's stepped with less care. Distances
+     * are re-checked every half second or so. Use 0 to never drop to that level.
+     *
+     * @param reduced Distance beyond which {@link SimulationLevel#REDUCED} is used.
+     * @param coarse  Distance beyond which {@link SimulationLevel#COARSE} is used.
+     */
+    public final void setLodDistances(double reduced, double coarse) {
+        lodReducedDistance = Math.max(0.0, reduced);
+        lodCoarseDistance = Math.max(0.0, coarse);
+        if (lodReducedDistance == 0.0 && lodCoarseDistance == 0.0)
+            simulationLevel = SimulationLevel.FULL;
+    }
+
+    public final boolean collidesWithProjectiles() {
+        return collidesWithProjectiles;
+    }
+
+    /**
+     * Sets whether this projectile can run into other projectiles that have this turned on, in which case
+     * {@link #onHitProjectile(VectorProjectile)} is called on both of them. Off by default.
+     */
+    public final void setCollidesWithProjectiles(boolean collides) {
+        collidesWithProjectiles = collides;
+        if (collides && !inCollider) {
+            inCollider = true;
+            recordTickStart();
+            ProjectileRegistry.joinCollider(this);
+        }
+    }
+
+    public final int getPriority() {
+        return priority;
+    }
+
+    public final void setPriority(int newPriority) {
+        priority = newPriority;
     }
 
     /**
@@ -81,6 +286,7 @@ public class VectorProjectile {
      * Sets the size of the projectile's hitbox.
      */
     public final void setSize(double width, double height, double length) {
+        syncView();
         double x = location.getX(),
                 y = location.getY(),
                 z = location.getZ(),
@@ -90,6 +296,7 @@ public class VectorProjectile {
         hitbox.resize(x - wR, y - hR, z - lR,
                 x + wR, y + hR, z + lR);
         recalculateInterpolationScale = true;
+        syncStore();
     }
 
     public final void setSize(Vector newSize) {
@@ -116,14 +323,70 @@ public class VectorProjectile {
      * their width in a single tick.
      */
     public final int autoInterpolationScale() {
+        syncView();
         double length = velocity.length();
         double smallest = Math.min(hitbox.getWidthX(), Math.min(hitbox.getWidthZ(), hitbox.getHeight()));
         return (int) Math.floor(length / smallest);
     }
 
+    public final CollisionMode getCollisionMode() {
+        return collisionMode;
+    }
+
+    /**
+     * Sets how this projectile detects collisions. By default, projectiles that override
+     * {@link #interpolatedTick()} use {@link CollisionMode#SUBSTEP} and all others use
+     * {@link CollisionMode#CONTINUOUS}.
+     */
+    public final void setCollisionMode(CollisionMode mode) {
+        if (mode == collisionMode)
+            return;
+        collisionMode = mode;
+        recalculateInterpolationScale = true;
+        // only continuous projectiles are stepped straight out of the store
+        if (mode == CollisionMode.SUBSTEP && store != null && !detaching) {
+            syncView();
+            detaching = true;
+            ProjectileRegistry.detachProjectile(this);
+        } else if (mode == CollisionMode.CONTINUOUS && !dead)
+            ProjectileRegistry.attachProjectile(this);
+    }
+
+    /**
+     * @return A copy of the projectile's current location.
+     */
+    public final Location getLocation() {
+        syncView();
+        return location.clone();
+    }
+
+    /**
+     * @return A copy of the projectile's current velocity, in blocks per tick.
+     */
+    public final Vector getVelocity() {
+        syncView();
+        return velocity.clone();
+    }
+
     public final void setVelocity(Vector newVelocity) {
+        syncView();
         velocity = newVelocity;
         recalculateInterpolationScale = true;
+        syncStore();
+    }
+
+    /**
+     * @return A copy of the projectile's acceleration, which is added to its velocity every tick.
+     */
+    public final Vector getAcceleration() {
+        syncView();
+        return acceleration.clone();
+    }
+
+    public final void setAcceleration(Vector newAcceleration) {
+        syncView();
+        acceleration = newAcceleration;
+        syncStore();
     }
 
     /**
@@ -135,6 +398,7 @@ public class VectorProjectile {
     /**
      * Runs each update and each interpolated update (i.e. the "extra ticks"
      * that occur when {@link #interpolationScale} > 1).
+     * Only called in {@link CollisionMode#SUBSTEP}, which overriding this selects by default.
      */
     public void interpolatedTick() {
     }
@@ -175,62 +439,802 @@ public class VectorProjectile {
     }
 
     /**
-     * Determines whether or not to hit a block.
+     * The code to run if {@link #shouldHitShape(StaticShape)} returns true.
+     * By default, does nothing.
+     *
+     * @return True if the projectile should be destroyed after this code is run,
+     * false otherwise.
+     */
+    public boolean onHitShape(StaticShape shape) {
+        return true;
+    }
+
+    /**
+     * Determines whether or not to hit a piece of custom geometry from the world's {@link StaticGeometryIndex}.
+     */
+    public boolean shouldHitShape(StaticShape shape) {
+        return true;
+    }
+
+    /**
+     * Called when this projectile runs into another one, if both have
+     * {@link #setCollidesWithProjectiles(boolean) projectile collisions} turned on. Called on both projectiles.
+     * By default, does nothing.
+     *
+     * @return True if this projectile should be destroyed, false otherwise.
+     */
+    public boolean onHitProjectile(VectorProjectile other) {
+        return false;
+    }
+
+    /**
+     * Determines whether or not to hit a block. Projectiles that don't override this have the answer looked up in
+     * the tick's {@link BlockCache} instead.
      */
     public boolean shouldHitBlock(Block block) {
         return block.getType().isSolid();
     }
 
+    /**
+     * Called once when the projectile is created, after it has been registered. Override this to configure
+     * the projectile; ticking itself is handled by {@link ProjectileRegistry}.
+     */
     protected void init() {
-        new BukkitRunnable() {
-            private double distSquared;
-            private Vector interpolatedVelocity;
-
-            public void run() {
-                if (!active || (expireTime != 0 && System.currentTimeMillis() >= expireTime))
-                    cancel();
-                // This will be flagged if the hitbox size or velocity change.
-                if (recalculateInterpolationScale || interpolatedVelocity == null) {
-                    setInterpolationScale(autoInterpolationScale());
-                    interpolatedVelocity = velocity.clone().divide(new Vector(interpolationScale,
-                            interpolationScale, interpolationScale));
+    }
+
+    /**
+     * Steps this projectile forward by one server tick. Called by {@link ProjectileRegistry}'s tick loop.
+     */
+    final void tick() {
+        if (beginTick())
+            finishTick(null);
+    }
+
+    /**
+     * The first half of a tick: expiry checks and {@link #onTick()}.
+     *
+     * @return False if the projectile died.
+     */
+    final boolean beginTick() {
+        // lifetimes are handled by the registry's timing wheel, which destroys projectiles when they expire
+        if (!active) {
+            kill();
+            return false;
+        }
+        if (collidesWithProjectiles)
+            recordTickStart();
+        if ((lodReducedDistance > 0.0 || lodCoarseDistance > 0.0)
+                && (ProjectileRegistry.currentTick() + System.identityHashCode(this)) % LOD_INTERVAL == 0)
+            updateSimulationLevel();
+        // This will be flagged if the hitbox size or velocity change.
+        if (collisionMode == CollisionMode.SUBSTEP
+                && (recalculateInterpolationScale || interpolatedVelocity == null)) {
+            setInterpolationScale(autoInterpolationScale());
+            interpolatedVelocity = velocity.clone().multiply(1.0 / interpolationScale);
+        }
+
+        // standard tick
+        if ((hooks & ON_TICK) != 0) {
+            syncView();
+            onTick();
+            syncStore();
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@link #solveImpacts} can be used for this tick, which is only true of continuous projectiles that
+     * are stepped out of the store.
+     */
+    final boolean canSolveImpacts() {
+        return active && backed() && collisionMode == CollisionMode.CONTINUOUS
+                && simulationLevel != SimulationLevel.COARSE;
+    }
+
+    /**
+     * Finds the entities this projectile will pass through this tick, reading only the store and the given grid.
+     * Safe to call off the main thread, provided nothing writes to either in the meantime.
+     */
+    final void solveImpacts(ImpactBuffer buffer, EntityGrid grid) {
+        int i = store.indexOf(storeHandle);
+        findImpacts(buffer, grid, store.posX[i], store.posY[i], store.posZ[i],
+                store.velX[i], store.velY[i], store.velZ[i], store.accX[i], store.accY[i], store.accZ[i],
+                store.halfX[i], store.halfY[i], store.halfZ[i]);
+    }
+
+    /**
+     * Fills the buffer with the entities this projectile passes through this tick. At
+     * {@link SimulationLevel#REDUCED}, the grid is only searched every other tick, along the path of that tick and
+     * the next, and hits on the next tick's part are brought forward to the end of this one. The tick after that
+     * doesn't look for entities at all.
+     */
+    private void findImpacts(ImpactBuffer buffer, EntityGrid grid, double x, double y, double z,
+                             double dx, double dy, double dz, double ax, double ay, double az,
+                             double halfX, double halfY, double halfZ) {
+        if (simulationLevel != SimulationLevel.REDUCED) {
+            lookedAhead = false;
+            buffer.solve(grid, x, y, z, dx, dy, dz, halfX, halfY, halfZ);
+        } else if (lookedAhead) {
+            lookedAhead = false;
+            buffer.clear();
+        } else {
+            lookedAhead = true;
+            // next tick's velocity has the acceleration added; this tick's part is close enough to the first half
+            buffer.solve(grid, x, y, z, dx * 2.0 + ax, dy * 2.0 + ay, dz * 2.0 + az, halfX, halfY, halfZ);
+            buffer.scaleTimes(2.0);
+        }
+    }
+
+    final EntityGrid entityGrid() {
+        return EntityGrid.of(location.getWorld());
+    }
+
+    /**
+     * The second half of a tick: movement, collision and acceleration.
+     *
+     * @param impacts Entity impacts already found by {@link #solveImpacts}, or null to find them now.
+     */
+    final void finishTick(ImpactBuffer impacts) {
+        boolean survived;
+        if (impacts != null) {
+            // something may have destroyed this projectile since its impacts were solved
+            if (!active) {
+                kill();
+                return;
+            }
+            survived = stepContinuous(impacts);
+        } else if (simulationLevel == SimulationLevel.COARSE)
+            survived = stepCoarse();
+        else
+            survived = collisionMode == CollisionMode.CONTINUOUS ? stepContinuous(null) : stepInterpolated();
+        if (!survived)
+            return;
+        if (backed()) {
+            int i = store.indexOf(storeHandle);
+            store.velX[i] += store.accX[i];
+            store.velY[i] += store.accY[i];
+            store.velZ[i] += store.accZ[i];
+            viewStale = true;
+        } else if (!acceleration.equals(Vectors.zero()))
+            setVelocity(velocity.add(acceleration));
+    }
+
+    /**
+     * Moves the projectile in {@link #interpolationScale} pieces, checking for overlaps after each one.
+     *
+     * @return False if the projectile died.
+     */
+    private boolean stepInterpolated() {
+        // Only entities near the path this projectile sweeps out over the whole tick can possibly be hit.
+        ArrayList<LivingEntity> candidates = scratch.candidates;
+        ArrayList<BoundingBox> candidateBoxes = scratch.candidateBoxes;
+        candidates.clear();
+        candidateBoxes.clear();
+        BoundingBox sweep = scratch.sweep.copy(hitbox);
+        sweep.expandDirectional(interpolatedVelocity.getX() * interpolationScale,
+                interpolatedVelocity.getY() * interpolationScale,
+                interpolatedVelocity.getZ() * interpolationScale);
+        EntityGrid.of(location.getWorld()).query(sweep, candidates, candidateBoxes);
+        shapeCandidates.clear();
+        StaticGeometryIndex shapes = StaticGeometryIndex.get(location.getWorld());
+        if (shapes != null)
+            shapes.query(sweep, shapeCandidates);
+
+        // at reduced detail, cover the same distance in half as many (longer) substeps
+        int substeps = interpolationScale;
+        Vector step = interpolatedVelocity;
+        if (simulationLevel == SimulationLevel.REDUCED && interpolationScale > 1) {
+            substeps = (interpolationScale + 1) / 2;
+            step = reducedStep.copy(interpolatedVelocity).multiply((double) interpolationScale / substeps);
+        }
+
+        World world = location.getWorld();
+        double stepLength = step.length();
+        loadedChunkKnown = false;
+        BlockCache blockCache = BlockCache.of(world);
+        for (int i = 0; i < substeps; i++) {
+            // never look at a block in an unloaded chunk; that would load it
+            int blockX = location.getBlockX(), blockY = location.getBlockY(), blockZ = location.getBlockZ();
+            if (!chunkLoaded(world, blockX >> 4, blockZ >> 4)) {
+                reachUnloadedChunk(world, blockX >> 4, blockZ >> 4);
+                return false;
+            }
+            // if it connects with a block it perceives as solid,
+            // travels its maximum range, or has been destroyed externally, kill it
+            int slot = blockCache.lookup(blockX, blockY, blockZ);
+            Block block = blockCache.block(slot);
+            if ((wantsBlock(blockCache, slot) && recorded(ProjectileRecorder.BLOCK,
+                    CellKey.pack(blockX, blockY, blockZ), onHitBlock(block)))
+                    || (range != 0 && distanceTraveled >= range)) {
+                kill();
+                return false;
+            }
+
+            // interpolated tick
+            interpolatedTick();
+            for (int j = 0; j < candidates.size(); j++) {
+                if (!hitbox.overlaps(candidateBoxes.get(j)))
+                    continue;
+                LivingEntity entity = candidates.get(j);
+                if (shouldHitEntity(entity)
+                        && recorded(ProjectileRecorder.ENTITY, entity.getEntityId(), onHitEntity(entity))) {
+                    kill();
+                    return false;
                 }
+            }
+            for (int j = 0; j < shapeCandidates.size(); j++) {
+                StaticShape shape = shapeCandidates.get(j);
+                if (!overlaps(hitbox, shape))
+                    continue;
+                if (shouldHitShape(shape) && recorded(ProjectileRecorder.SHAPE, shape.getId(), onHitShape(shape))) {
+                    kill();
+                    return false;
+                }
+            }
 
-                // standard tick
-                onTick();
-                for (int i = 0; i < interpolationScale; i++) {
-                    // if it connects with a block it perceives as solid,
-                    // reaches its maximum lifetime, travels its maximum range,
-                    // or has been destroyed externally, cancel the thread
-                    Block block = location.getBlock();
-                    if ((shouldHitBlock(block) && onHitBlock(block))
-                            || (range != 0 && distSquared >= Math.pow(range, 2)))
-                        cancel();
-
-                    // interpolated tick
-                    interpolatedTick();
-                    for (LivingEntity entity : location.getWorld().getLivingEntities()) {
-                        if (!hitbox.overlaps(entity.getBoundingBox()))
-                            continue;
-                        if (shouldHitEntity(entity) && onHitEntity(entity))
-                            cancel();
-                    }
+            location.add(step);
+            distanceTraveled += stepLength;
+            hitbox.shift(step);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the projectile its whole velocity at once, only checking the block it ends up in. Used at
+     * {@link SimulationLevel#COARSE}, when no player is around to see the difference.
+     *
+     * @return False if the projectile died.
+     */
+    private boolean stepCoarse() {
+        syncView();
+        if (range != 0 && distanceTraveled >= range) {
+            kill();
+            return false;
+        }
+        World world = location.getWorld();
+        double x = location.getX() + velocity.getX(),
+                y = location.getY() + velocity.getY(),
+                z = location.getZ() + velocity.getZ();
+        int blockX = (int) Math.floor(x), blockY = (int) Math.floor(y), blockZ = (int) Math.floor(z);
+        loadedChunkKnown = false;
+        if (!chunkLoaded(world, blockX >> 4, blockZ >> 4)) {
+            reachUnloadedChunk(world, blockX >> 4, blockZ >> 4);
+            return false;
+        }
 
-                    Location prev = location.clone();
-                    location.add(interpolatedVelocity);
-                    distSquared += prev.distanceSquared(location);
-                    hitbox.shift(interpolatedVelocity);
+        location.add(velocity);
+        hitbox.shift(velocity);
+        distanceTraveled += velocity.length();
+        syncStore();
+
+        BlockCache blockCache = BlockCache.of(world);
+        int slot = blockCache.lookup(blockX, blockY, blockZ);
+        Block block = blockCache.block(slot);
+        long key = CellKey.pack(blockX, blockY, blockZ);
+        if (wantsBlock(blockCache, slot) && hitBlocks.add(key)) {
+            boolean hit = recorded(ProjectileRecorder.BLOCK, key, onHitBlock(block));
+            syncStore();
+            if (hit) {
+                kill();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updateSimulationLevel() {
+        Location at = currentLocation();
+        double distanceSquared = ProjectileRegistry.nearestPlayerDistanceSquared(at.getWorld(),
+                at.getX(), at.getY(), at.getZ());
+        SimulationLevel level = SimulationLevel.FULL;
+        if (lodCoarseDistance > 0.0 && distanceSquared > lodCoarseDistance * lodCoarseDistance)
+            level = SimulationLevel.COARSE;
+        else if (lodReducedDistance > 0.0 && distanceSquared > lodReducedDistance * lodReducedDistance)
+            level = SimulationLevel.REDUCED;
+        simulationLevel = level;
+    }
+
+    /**
+     * Sweeps the hitbox along the full velocity in one go, then visits every entity hit, static shape hit, block
+     * hit and the point at which the projectile runs out of range in the order they happen. Entities and shapes are
+     * tested by treating the projectile's center as a ray against their boxes grown by the projectile's half-size;
+     * blocks are tested against the projectile's center, as in {@link CollisionMode#SUBSTEP}.
+     * <br><br>
+     * Entities, shapes and blocks that the projectile passes through (their hooks returned false) are recorded in
+     * {@link #hitEntities}, {@link #hitShapes} and {@link #hitBlocks} and not hit again.
+     * <br><br>
+     * Projectiles kept in a {@link ProjectileStore} are read from and written to the store directly, and the view
+     * objects are only touched when a hook needs them.
+     *
+     * @param impacts Entity impacts already found for this tick, or null to find them now.
+     * @return False if the projectile died.
+     */
+    private boolean stepContinuous(ImpactBuffer impacts) {
+        World world = location.getWorld();
+        double startX, startY, startZ, dx, dy, dz, ax, ay, az, halfX, halfY, halfZ, traveled;
+        int index = backed() ? store.indexOf(storeHandle) : -1;
+        if (index >= 0) {
+            startX = store.posX[index];
+            startY = store.posY[index];
+            startZ = store.posZ[index];
+            dx = store.velX[index];
+            dy = store.velY[index];
+            dz = store.velZ[index];
+            ax = store.accX[index];
+            ay = store.accY[index];
+            az = store.accZ[index];
+            halfX = store.halfX[index];
+            halfY = store.halfY[index];
+            halfZ = store.halfZ[index];
+            traveled = store.traveled[index];
+        } else {
+            startX = location.getX();
+            startY = location.getY();
+            startZ = location.getZ();
+            dx = velocity.getX();
+            dy = velocity.getY();
+            dz = velocity.getZ();
+            ax = acceleration.getX();
+            ay = acceleration.getY();
+            az = acceleration.getZ();
+            halfX = hitbox.getWidthX() / 2.0;
+            halfY = hitbox.getHeight() / 2.0;
+            halfZ = hitbox.getWidthZ() / 2.0;
+            traveled = distanceTraveled;
+        }
+        double inverseX = 1.0 / dx, inverseY = 1.0 / dy, inverseZ = 1.0 / dz;
+        double speed = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        if (impacts == null) {
+            impacts = scratch;
+            findImpacts(impacts, EntityGrid.of(world), startX, startY, startZ, dx, dy, dz, ax, ay, az,
+                    halfX, halfY, halfZ);
+        }
+        int entityHits = impacts.size();
+        int shapeHits = solveShapeImpacts(world, startX, startY, startZ, dx, dy, dz, inverseX, inverseY, inverseZ,
+                halfX, halfY, halfZ);
+
+        double rangeT = Physics.MISS;
+        if (range != 0 && speed > 0)
+            rangeT = Math.max(0.0, (range - traveled) / speed);
+
+        traversal.reset(startX, startY, startZ, dx, dy, dz, 1.0, 1.0);
+        revisitCell = false;
+        loadedChunkKnown = false;
+        double blockT = nextBlockImpact(world, startX, startY, startZ, inverseX, inverseY, inverseZ);
+        int e = 0, s = 0;
+        while (true) {
+            // entities already passed through are skipped here rather than while solving, which may be off-thread
+            while (e < entityHits && hitEntities.contains(impacts.entity(e).getEntityId()))
+                e++;
+            double entityT = e < entityHits ? impacts.time(e) : Physics.MISS;
+            double shapeT = s < shapeHits ? shapeTimes[s] : Physics.MISS;
+            double t = Math.min(Math.min(entityT, shapeT), Math.min(blockT, rangeT));
+            if (t > 1.0)
+                break;
+
+            moveTo(startX + dx * t, startY + dy * t, startZ + dz * t);
+            if (t == rangeT) {
+                kill();
+                return false;
+            } else if (t == blockT) {
+                Block block = impactBlock;
+                if (block == null) {
+                    reachUnloadedChunk(world, traversal.x() >> 4, traversal.z() >> 4);
+                    return false;
+                }
+                long key = CellKey.pack(block.getX(), block.getY(), block.getZ());
+                hitBlocks.add(key);
+                syncView();
+                boolean hit = recorded(ProjectileRecorder.BLOCK, key, onHitBlock(block));
+                syncStore();
+                if (hit) {
+                    kill();
+                    return false;
+                }
+                blockT = nextBlockImpact(world, startX, startY, startZ, inverseX, inverseY, inverseZ);
+            } else if (t == shapeT) {
+                StaticShape shape = shapeCandidates.get(s++);
+                syncView();
+                if (shouldHitShape(shape)) {
+                    hitShapes.add(shape.getId());
+                    boolean hit = recorded(ProjectileRecorder.SHAPE, shape.getId(), onHitShape(shape));
+                    syncStore();
+                    if (hit) {
+                        kill();
+                        return false;
+                    }
                 }
-                if (!acceleration.equals(Vectors.zero()))
-                    setVelocity(velocity.add(acceleration));
+            } else {
+                LivingEntity entity = impacts.entity(e++);
+                syncView();
+                if (shouldHitEntity(entity)) {
+                    hitEntities.add(entity.getEntityId());
+                    boolean hit = recorded(ProjectileRecorder.ENTITY, entity.getEntityId(), onHitEntity(entity));
+                    syncStore();
+                    if (hit) {
+                        kill();
+                        return false;
+                    }
+                }
+            }
+        }
+
+        moveTo(startX + dx, startY + dy, startZ + dz);
+        if (index >= 0)
+            store.traveled[index] += speed;
+        else
+            distanceTraveled += speed;
+        return true;
+    }
+
+    /**
+     * Finds the static shapes this projectile's hitbox runs into over a continuous step, the same way as for
+     * entities, leaving them in {@link #shapeCandidates} ordered by their times of impact in {@link #shapeTimes}.
+     * Shapes it has already hit are left out.
+     *
+     * @return How many shapes are hit.
+     */
+    private int solveShapeImpacts(World world, double startX, double startY, double startZ,
+                                  double dx, double dy, double dz,
+                                  double inverseX, double inverseY, double inverseZ,
+                                  double halfX, double halfY, double halfZ) {
+        shapeCandidates.clear();
+        StaticGeometryIndex index = StaticGeometryIndex.get(world);
+        if (index == null || index.isEmpty())
+            return 0;
+        index.query(Math.min(startX, startX + dx) - halfX, Math.min(startY, startY + dy) - halfY,
+                Math.min(startZ, startZ + dz) - halfZ, Math.max(startX, startX + dx) + halfX,
+                Math.max(startY, startY + dy) + halfY, Math.max(startZ, startZ + dz) + halfZ, shapeCandidates);
+        if (shapeTimes.length < shapeCandidates.size())
+            shapeTimes = new double[Math.max(shapeCandidates.size(), shapeTimes.length * 2)];
+
+        int hits = 0;
+        for (int i = 0; i < shapeCandidates.size(); i++) {
+            StaticShape shape = shapeCandidates.get(i);
+            if (hitShapes.contains(shape.getId()))
+                continue;
+            double t = Physics.slab(startX, startY, startZ, inverseX, inverseY, inverseZ,
+                    shape.getMinX() - halfX, shape.getMinY() - halfY, shape.getMinZ() - halfZ,
+                    shape.getMaxX() + halfX, shape.getMaxY() + halfY, shape.getMaxZ() + halfZ, 1.0);
+            if (t == Physics.MISS)
+                continue;
+            // insertion sort; only a handful of shapes are ever near one projectile's path
+            int j = hits++;
+            while (j > 0 && shapeTimes[j - 1] > t) {
+                shapeTimes[j] = shapeTimes[j - 1];
+                shapeCandidates.set(j, shapeCandidates.get(j - 1));
+                j--;
             }
+            shapeTimes[j] = t;
+            shapeCandidates.set(j, shape);
+        }
+        return hits;
+    }
 
-            public void cancel() {
-                active = false;
-                onDeath();
-                ProjectileRegistry.removeProjectile(VectorProjectile.this);
-                super.cancel();
+    private static boolean overlaps(BoundingBox box, StaticShape shape) {
+        return box.getMinX() < shape.getMaxX() && box.getMaxX() > shape.getMinX()
+                && box.getMinY() < shape.getMaxY() && box.getMaxY() > shape.getMinY()
+                && box.getMinZ() < shape.getMaxZ() && box.getMaxZ() > shape.getMinZ();
+    }
+
+    /**
+     * Continues walking the blocks along the current continuous step until one is found that this projectile
+     * should hit, and stores it in {@link #impactBlock}. If the walk reaches an unloaded chunk first, it stops there
+     * and {@link #impactBlock} is set to null, with the traversal left on the first cell of that chunk.
+     * <br><br>
+     * Each cell is checked for its own block and for the one below it, whose collision shape can reach up into it
+     * (fences and walls are 1.5 blocks tall). If both are hit, the nearer is returned and the cell is checked again
+     * on the next call, when that one has been added to {@link #hitBlocks}.
+     *
+     * @return The time of impact with that block, or {@link Physics#MISS} if there isn't one this tick.
+     */
+    private double nextBlockImpact(World world, double startX, double startY, double startZ,
+                                   double inverseX, double inverseY, double inverseZ) {
+        BlockCache blockCache = BlockCache.of(world);
+        while (revisitCell || traversal.next()) {
+            revisitCell = false;
+            int x = traversal.x(), y = traversal.y(), z = traversal.z();
+            if (!chunkLoaded(world, x >> 4, z >> 4)) {
+                impactBlock = null;
+                return traversal.enter();
             }
-        }.runTaskTimer(EmberCore.getInstance(), 0, 1);
+            double t = blockImpact(blockCache, x, y, z, false, startX, startY, startZ, inverseX, inverseY, inverseZ);
+            Block block = impactBlock;
+            double belowT = blockImpact(blockCache, x, y - 1, z, true,
+                    startX, startY, startZ, inverseX, inverseY, inverseZ);
+            if (t == Physics.MISS && belowT == Physics.MISS)
+                continue;
+            revisitCell = t != Physics.MISS && belowT != Physics.MISS;
+            if (t <= belowT) {
+                impactBlock = block;
+                return t;
+            }
+            return belowT;
+        }
+        return Physics.MISS;
+    }
+
+    /**
+     * Checks one block against the ray while the traversal is in its current cell, storing the block in
+     * {@link #impactBlock} if it's hit.
+     *
+     * @param below Whether the block is the one below the current cell, which only counts if its collision shape
+     *              reaches up into the cell.
+     * @return The time of impact, or {@link Physics#MISS}.
+     */
+    private double blockImpact(BlockCache blockCache, int x, int y, int z, boolean below,
+                               double startX, double startY, double startZ,
+                               double inverseX, double inverseY, double inverseZ) {
+        int slot = blockCache.lookup(x, y, z);
+        if (below && !(blockCache.hasShape(slot) && blockCache.bounds()[slot * 6 + 4] > y + 1))
+            return Physics.MISS;
+        if (!wantsBlock(blockCache, slot) || hitBlocks.contains(CellKey.pack(x, y, z)))
+            return Physics.MISS;
+        // the hook may have looked up blocks of its own and grown the cache, which moves entries around
+        slot = blockCache.lookup(x, y, z);
+        Block block = blockCache.block(slot);
+        // Blocks with no collision shape (water, for instance) that this projectile still wants to hit are
+        // treated as full blocks.
+        if (!blockCache.hasShape(slot)) {
+            impactBlock = block;
+            return traversal.enter();
+        }
+        double[] b = blockCache.bounds();
+        int o = slot * 6;
+        double t = Physics.slab(startX, startY, startZ, inverseX, inverseY, inverseZ,
+                b[o], b[o + 1], b[o + 2], b[o + 3], b[o + 4], b[o + 5], 1.0);
+        // A shape taller than its block is only hit from a cell the ray enters it in. Further along, it's left for
+        // the cell above, so that blocks in between still come first.
+        if (t == Physics.MISS || b[o + 4] > y + 1 && t > traversal.exit())
+            return Physics.MISS;
+        impactBlock = block;
+        return Math.max(t, traversal.enter());
+    }
+
+    /**
+     * Asks {@link #shouldHitBlock(Block)} about a cached block, answering from the cache instead when this
+     * projectile's type uses the default solidity check. The hook can use the cache too, so the slot may not be
+     * valid afterwards; look the block up again to read anything else about it.
+     */
+    private boolean wantsBlock(BlockCache blockCache, int slot) {
+        if ((hooks & SHOULD_HIT_BLOCK) == 0)
+            return blockCache.isSolid(slot);
+        syncView();
+        return shouldHitBlock(blockCache.block(slot));
+    }
+
+    private static boolean chunkLoaded(World world, int chunkX, int chunkZ) {
+        if (loadedChunkKnown && chunkX == loadedChunkX && chunkZ == loadedChunkZ)
+            return true;
+        if (!world.isChunkLoaded(chunkX, chunkZ))
+            return false;
+        loadedChunkX = chunkX;
+        loadedChunkZ = chunkZ;
+        loadedChunkKnown = true;
+        return true;
+    }
+
+    /**
+     * Applies the {@link #unloadedChunkPolicy} once the projectile has been stopped at the edge of the given chunk.
+     */
+    private void reachUnloadedChunk(World world, int chunkX, int chunkZ) {
+        if (unloadedChunkPolicy == UnloadedChunkPolicy.DORMANT) {
+            syncView();
+            dormant = true;
+            ProjectileRegistry.sleepProjectile(this, world, chunkX, chunkZ);
+        } else
+            kill();
+    }
+
+    /**
+     * Called by the registry when the chunk a dormant projectile was waiting on loads, just before it's
+     * registered again.
+     */
+    final void wake() {
+        dormant = false;
+    }
+
+    /**
+     * Places the projectile, and its hitbox, at the given position.
+     */
+    private void moveTo(double x, double y, double z) {
+        if (backed()) {
+            int i = store.indexOf(storeHandle);
+            store.posX[i] = x;
+            store.posY[i] = y;
+            store.posZ[i] = z;
+            viewStale = true;
+            return;
+        }
+        hitbox.shift(x - location.getX(), y - location.getY(), z - location.getZ());
+        location.setX(x);
+        location.setY(y);
+        location.setZ(z);
+    }
+
+    /**
+     * Runs {@link #onDeath()} and unregisters the projectile. Guarded so that death is only processed once.
+     */
+    final void kill() {
+        if (dead)
+            return;
+        dead = true;
+        active = false;
+        ProjectileRegistry.cancelExpiry(expiry);
+        expiry = null;
+        ProjectileRegistry.removeProjectile(this);
+        syncView();
+        onDeath();
+        if (ProjectileRecorder.isRecording())
+            ProjectileRecorder.death(this);
+    }
+
+    /**
+     * Passes a hit hook's answer through, recording the hit on the way if the registry is being recorded.
+     */
+    private boolean recorded(byte kind, long target, boolean stopped) {
+        return ProjectileRecorder.isRecording() ? ProjectileRecorder.hit(this, kind, target, stopped) : stopped;
+    }
+
+    /**
+     * Called by the registry once the projectile has been unregistered and taken out of the store, after which
+     * nothing else will touch it.
+     */
+    void onRemoved() {
+    }
+
+    /**
+     * Runs {@link #onHitProjectile(VectorProjectile)} for the projectile collision phase, killing this projectile if
+     * it asks to be.
+     */
+    final void hitProjectile(VectorProjectile other) {
+        if (!active)
+            return;
+        syncView();
+        boolean hit = recorded(ProjectileRecorder.PROJECTILE, ProjectileRecorder.idOf(other), onHitProjectile(other));
+        syncStore();
+        if (hit)
+            kill();
+    }
+
+    /**
+     * Called by the collision phase once it has dropped this projectile.
+     */
+    final void leaveCollider() {
+        inCollider = false;
+    }
+
+    private void recordTickStart() {
+        if (backed()) {
+            int i = store.indexOf(storeHandle);
+            tickStartX = store.posX[i];
+            tickStartY = store.posY[i];
+            tickStartZ = store.posZ[i];
+        } else {
+            tickStartX = location.getX();
+            tickStartY = location.getY();
+            tickStartZ = location.getZ();
+        }
+    }
+
+    /**
+     * How far the projectile has moved along each axis since its last tick started.
+     */
+    final double tickDisplacementX() {
+        return currentLocation().getX() - tickStartX;
+    }
+
+    final double tickDisplacementY() {
+        return currentLocation().getY() - tickStartY;
+    }
+
+    final double tickDisplacementZ() {
+        return currentLocation().getZ() - tickStartZ;
+    }
+
+    /**
+     * The projectile's hitbox, without copying it. Only for the registry's own bookkeeping.
+     */
+    final BoundingBox currentHitbox() {
+        syncView();
+        return hitbox;
+    }
+
+    /**
+     * The projectile's location, without copying it. Only for the registry's own bookkeeping.
+     */
+    final Location currentLocation() {
+        syncView();
+        return location;
+    }
+
+    /**
+     * @return Whether this projectile has a slot in a {@link ProjectileStore}, even if it's on its way out of it.
+     */
+    final boolean isStored() {
+        return store != null;
+    }
+
+    /**
+     * Moves this projectile's state into a slot in the given store, which becomes the authoritative copy.
+     */
+    final void attach(ProjectileStore newStore) {
+        store = newStore;
+        storeHandle = store.add(this);
+        detaching = false;
+        syncStore();
+    }
+
+    /**
+     * Copies this projectile's state back out of its store and frees its slot.
+     */
+    final void detach() {
+        syncView();
+        store.remove(storeHandle);
+        store = null;
+        storeHandle = -1;
+        detaching = false;
+    }
+
+    private boolean backed() {
+        return store != null && !detaching;
+    }
+
+    /**
+     * Brings the view objects up to date with the store.
+     */
+    private void syncView() {
+        if (store == null || !viewStale)
+            return;
+        viewStale = false;
+        int i = store.indexOf(storeHandle);
+        double x = store.posX[i], y = store.posY[i], z = store.posZ[i];
+        location.setX(x);
+        location.setY(y);
+        location.setZ(z);
+        hitbox.resize(x - store.halfX[i], y - store.halfY[i], z - store.halfZ[i],
+                x + store.halfX[i], y + store.halfY[i], z + store.halfZ[i]);
+        velocity.setX(store.velX[i]).setY(store.velY[i]).setZ(store.velZ[i]);
+        acceleration.setX(store.accX[i]).setY(store.accY[i]).setZ(store.accZ[i]);
+        distanceTraveled = store.traveled[i];
+    }
+
+    /**
+     * Writes the view objects back into the store, after something may have changed them.
+     */
+    private void syncStore() {
+        if (!backed())
+            return;
+        viewStale = false;
+        int i = store.indexOf(storeHandle);
+        store.posX[i] = location.getX();
+        store.posY[i] = location.getY();
+        store.posZ[i] = location.getZ();
+        store.velX[i] = velocity.getX();
+        store.velY[i] = velocity.getY();
+        store.velZ[i] = velocity.getZ();
+        store.accX[i] = acceleration.getX();
+        store.accY[i] = acceleration.getY();
+        store.accZ[i] = acceleration.getZ();
+        store.halfX[i] = hitbox.getWidthX() / 2.0;
+        store.halfY[i] = hitbox.getHeight() / 2.0;
+        store.halfZ[i] = hitbox.getWidthZ() / 2.0;
+        store.traveled[i] = distanceTraveled;
+    }
+
+    private static int hookOverrides(Class<?> type) {
+        return hookOverrides.computeIfAbsent(type, t ->
+                (overrides(t, "onTick") ? ON_TICK : 0)
+                        | (overrides(t, "interpolatedTick") ? INTERPOLATED_TICK : 0)
+                        | (overrides(t, "shouldHitBlock", Block.class) ? SHOULD_HIT_BLOCK : 0));
+    }
+
+    private static boolean overrides(Class<?> type, String method, Class<?>... parameters) {
+        try {
+            return type.getMethod(method, parameters).getDeclaringClass() != VectorProjectile.class;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
     }
 }
@@ -0,0 +1,98 @@
+package dev.blufantasyonline.embercore.physics;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The lane-wise half of {@code VectorizedSlab}, written against the JDK's incubating Vector API.
+ * <br><br>
+ * This is the only class that uses an incubating module, so the build compiles it on its own, before everything else
+ * and with {@code --add-modules jdk.incubator.vector}, and leaves it out of the main compilation. For that it can't
+ * depend on the rest of the plugin; misses are {@code Double.POSITIVE_INFINITY}, the same as {@code Physics.MISS}.
+ */
+final class VectorSlabKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorSlabKernel() {
+    }
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Tests the boxes in whole lanes, leaving the last {@code count % lanes()} for the caller.
+     *
+     * @return How many of the tested boxes were hit.
+     */
+    static int slab(double originX, double originY, double originZ,
+                    double inverseX, double inverseY, double inverseZ,
+                    double[] minX, double[] minY, double[] minZ,
+                    double[] maxX, double[] maxY, double[] maxZ,
+                    int count, double maxT, double[] out) {
+        DoubleVector ox = DoubleVector.broadcast(SPECIES, originX),
+                oy = DoubleVector.broadcast(SPECIES, originY),
+                oz = DoubleVector.broadcast(SPECIES, originZ);
+        DoubleVector ix = DoubleVector.broadcast(SPECIES, inverseX),
+                iy = DoubleVector.broadcast(SPECIES, inverseY),
+                iz = DoubleVector.broadcast(SPECIES, inverseZ);
+        DoubleVector zero = DoubleVector.zero(SPECIES),
+                limit = DoubleVector.broadcast(SPECIES, maxT),
+                miss = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY),
+                negativeInfinity = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY),
+                positiveInfinity = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+
+        // Axes the ray doesn't move along are the same for every box, so they're handled once up front, as in
+        // the scalar kernel: lanes whose box that axis's origin lies outside of miss, and the axis is otherwise
+        // left out of the slab times.
+        boolean stillX = Double.isInfinite(inverseX), stillY = Double.isInfinite(inverseY),
+                stillZ = Double.isInfinite(inverseZ);
+        VectorMask<Double> none = SPECIES.maskAll(false);
+
+        int hits = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(count); i < bound; i += SPECIES.length()) {
+            DoubleVector near = negativeInfinity, far = positiveInfinity;
+            VectorMask<Double> outside = none;
+
+            DoubleVector min = DoubleVector.fromArray(SPECIES, minX, i),
+                    max = DoubleVector.fromArray(SPECIES, maxX, i);
+            if (stillX)
+                outside = outside.or(ox.compare(VectorOperators.LT, min)).or(ox.compare(VectorOperators.GT, max));
+            else {
+                DoubleVector t1 = min.sub(ox).mul(ix), t2 = max.sub(ox).mul(ix);
+                near = near.max(t1.min(t2));
+                far = far.min(t1.max(t2));
+            }
+
+            min = DoubleVector.fromArray(SPECIES, minY, i);
+            max = DoubleVector.fromArray(SPECIES, maxY, i);
+            if (stillY)
+                outside = outside.or(oy.compare(VectorOperators.LT, min)).or(oy.compare(VectorOperators.GT, max));
+            else {
+                DoubleVector t1 = min.sub(oy).mul(iy), t2 = max.sub(oy).mul(iy);
+                near = near.max(t1.min(t2));
+                far = far.min(t1.max(t2));
+            }
+
+            min = DoubleVector.fromArray(SPECIES, minZ, i);
+            max = DoubleVector.fromArray(SPECIES, maxZ, i);
+            if (stillZ)
+                outside = outside.or(oz.compare(VectorOperators.LT, min)).or(oz.compare(VectorOperators.GT, max));
+            else {
+                DoubleVector t1 = min.sub(oz).mul(iz), t2 = max.sub(oz).mul(iz);
+                near = near.max(t1.min(t2));
+                far = far.min(t1.max(t2));
+            }
+
+            near = near.blend(zero, near.compare(VectorOperators.LT, zero));
+            VectorMask<Double> missed = outside.or(near.compare(VectorOperators.GT, far))
+                    .or(near.compare(VectorOperators.GT, limit));
+            near.blend(miss, missed).intoArray(out, i);
+            hits += SPECIES.length() - missed.trueCount();
+        }
+        return hits;
+    }
+}
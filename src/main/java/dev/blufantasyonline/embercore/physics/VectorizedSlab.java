@@ -0,0 +1,43 @@
+package dev.blufantasyonline.embercore.physics;
+
+/**
+ * The batched slab test from {@link Physics}, run several boxes at a time with the JDK's incubating Vector API.
+ * <br><br>
+ * Its methods only work if the server was started with {@code --add-modules jdk.incubator.vector}; Physics checks for
+ * the module before calling them and falls back to the scalar kernel without it. Everything that touches the Vector
+ * API lives in {@link VectorSlabKernel}, so that this class itself can still be loaded (the plugin's class scanner
+ * loads every class in the jar) on servers without the module.
+ */
+final class VectorizedSlab {
+    private VectorizedSlab() {
+    }
+
+    /**
+     * @return How many boxes are tested at once.
+     */
+    static int lanes() {
+        return VectorSlabKernel.lanes();
+    }
+
+    /**
+     * Same contract as
+     * {@link Physics#slab(double, double, double, double, double, double, double[], double[], double[], double[], double[], double[], int, double, double[])}.
+     */
+    static int slab(double originX, double originY, double originZ,
+                    double inverseX, double inverseY, double inverseZ,
+                    double[] minX, double[] minY, double[] minZ,
+                    double[] maxX, double[] maxY, double[] maxZ,
+                    int count, double maxT, double[] out) {
+        int hits = VectorSlabKernel.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                minX, minY, minZ, maxX, maxY, maxZ, count, maxT, out);
+        // the kernel leaves whatever doesn't fill a whole lane
+        for (int i = count - count % lanes(); i < count; i++) {
+            double t = Physics.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                    minX[i], minY[i], minZ[i], maxX[i], maxY[i], maxZ[i], maxT);
+            out[i] = t;
+            if (t != Physics.MISS)
+                hits++;
+        }
+        return hits;
+    }
+}
@@ -1,26 +1,483 @@
 package dev.blufantasyonline.embercore.physics.raycast;
 
+import dev.blufantasyonline.embercore.physics.Physics;
 import org.bukkit.util.BoundingBox;
 import org.bukkit.util.Vector;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
 
-public final class BoundingVolume {
-    private Set<BoundingVolume> children = new HashSet<>();
-    private Set<BoundingBox> contents = new HashSet<>();
-    private Vector min, max;
+/**
+ * A bounding volume hierarchy over a fixed set of items, each with an axis-aligned box. Ray, box and sphere queries
+ * only visit the branches of the tree whose bounds they touch, rather than testing every item.
+ * <br><br>
+ * The tree is stored flat: node bounds six to a node in one array, children and leaf ranges in others, so queries
+ * walk primitive arrays with a small explicit stack. Items can move after the tree is built; give them new bounds
+ * with {@link #setBounds(int, BoundingBox)} and then call {@link #refit()}. Refitting keeps the tree's shape, so if
+ * items move far from where they started, building a new tree will give faster queries.
+ * <pre>{@code
+ * BoundingVolume<Dummy> dummies = BoundingVolume.build(arena.getDummies(), Dummy::getHitbox, SplitMethod.SAH);
+ * for (Intersection<Ray, Dummy> hit : dummies.raycast(ray))
+ *     hit.second.damage(...);
+ * }</pre>
+ */
+public final class BoundingVolume<T> {
+    /**
+     * How a node's items are divided between its children while building.
+     */
+    public enum SplitMethod {
+        /**
+         * Picks the split that minimizes the surface area heuristic, the expected cost of a ray passing through the
+         * node. Slower to build, faster to query.
+         */
+        SAH,
+        /**
+         * Splits at the median item along the node's longest axis. Quick to build.
+         */
+        MEDIAN
+    }
+
+    private static final int LEAF_SIZE = 4;
+    private static final int SAH_BINS = 12;
+
+    private final Object[] items;
+    // per item: bounds, six to an item
+    private final double[] itemBounds;
+    // item indices, reordered while building so that each leaf's items are contiguous
+    private final int[] order;
+
+    // per node: bounds, six to a node; children for inner nodes; the range in order for leaves
+    private double[] nodeBounds;
+    private int[] left, right, first, count;
+    private int nodeCount = 0;
+
+    private BoundingVolume(Object[] items, double[] itemBounds, SplitMethod method) {
+        this.items = items;
+        this.itemBounds = itemBounds;
+        order = new int[items.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        int capacity = Math.max(1, 2 * items.length);
+        nodeBounds = new double[capacity * 6];
+        left = new int[capacity];
+        right = new int[capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+        build(0, items.length, method);
+    }
 
-    public BoundingVolume(Vector min, Vector max) {
-        this.min = min.clone();
-        this.max = max.clone();
+    /**
+     * Builds a hierarchy over the given boxes, which are their own items.
+     */
+    public static BoundingVolume<BoundingBox> build(Collection<BoundingBox> boxes, SplitMethod method) {
+        return build(boxes, box -> box, method);
     }
 
+    /**
+     * Builds a hierarchy over the given items. Their bounds are read once, now; see
+     * {@link #setBounds(int, BoundingBox)} for updating them later.
+     */
+    public static <T> BoundingVolume<T> build(Collection<T> items, Function<T, BoundingBox> bounds,
+                                              SplitMethod method) {
+        Object[] array = items.toArray();
+        double[] itemBounds = new double[array.length * 6];
+        for (int i = 0; i < array.length; i++) {
+            @SuppressWarnings("unchecked")
+            BoundingBox box = bounds.apply((T) array[i]);
+            write(itemBounds, i, box);
+        }
+        return new BoundingVolume<>(array, itemBounds, method);
+    }
+
+    /**
+     * @return How many items the hierarchy holds. Items are numbered in the order they were given to
+     * {@link #build}.
+     */
+    public int size() {
+        return items.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int item) {
+        return (T) items[item];
+    }
+
+    /**
+     * @return The lowest corner of the box around everything in the hierarchy.
+     */
     public Vector getMin() {
-        return min.clone();
+        return new Vector(nodeBounds[0], nodeBounds[1], nodeBounds[2]);
     }
 
+    /**
+     * @return The highest corner of the box around everything in the hierarchy.
+     */
     public Vector getMax() {
-        return max.clone();
+        return new Vector(nodeBounds[3], nodeBounds[4], nodeBounds[5]);
+    }
+
+    /**
+     * Gives an item new bounds. The tree won't take them into account until {@link #refit()} is called.
+     */
+    public void setBounds(int item, BoundingBox box) {
+        write(itemBounds, item, box);
+    }
+
+    /**
+     * Recomputes every node's bounds from the items' current bounds, bottom up.
+     */
+    public void refit() {
+        // children are always created after their parent, so walking backwards visits them first
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int o = node * 6;
+            if (count[node] > 0) {
+                empty(nodeBounds, node);
+                for (int i = first[node]; i < first[node] + count[node]; i++)
+                    include(nodeBounds, o, itemBounds, order[i] * 6);
+            } else {
+                empty(nodeBounds, node);
+                include(nodeBounds, o, nodeBounds, left[node] * 6);
+                include(nodeBounds, o, nodeBounds, right[node] * 6);
+            }
+        }
+    }
+
+    /**
+     * Finds every item whose box the ray passes through.
+     *
+     * @return The hits, nearest first.
+     */
+    public List<Intersection<Ray, T>> raycast(Ray ray) {
+        List<Intersection<Ray, T>> hits = new ArrayList<>();
+        if (items.length == 0)
+            return hits;
+        double x = ray.origin.getX(), y = ray.origin.getY(), z = ray.origin.getZ();
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (slab(nodeBounds, node * 6, x, y, z, ray, ray.length) == Physics.MISS)
+                continue;
+            if (count[node] > 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    int item = order[i];
+                    double t = slab(itemBounds, item * 6, x, y, z, ray, ray.length);
+                    if (t != Physics.MISS)
+                        hits.add(new Intersection<>(ray, get(item), ray, t));
+                }
+            } else {
+                if (top + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = left[node];
+                stack[top++] = right[node];
+            }
+        }
+        hits.sort((a, b) -> Double.compare(a.getDistance(), b.getDistance()));
+        return hits;
+    }
+
+    /**
+     * Finds the nearest item whose box the ray passes through. Quicker than {@link #raycast(Ray)} when only the
+     * first hit matters, since branches farther away than the best hit so far are skipped.
+     *
+     * @return The nearest hit, or null if there isn't one.
+     */
+    public Intersection<Ray, T> raycastFirst(Ray ray) {
+        if (items.length == 0)
+            return null;
+        double x = ray.origin.getX(), y = ray.origin.getY(), z = ray.origin.getZ();
+        double best = ray.length;
+        int bestItem = -1;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (slab(nodeBounds, node * 6, x, y, z, ray, best) == Physics.MISS)
+                continue;
+            if (count[node] > 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    int item = order[i];
+                    double t = slab(itemBounds, item * 6, x, y, z, ray, best);
+                    if (t != Physics.MISS && (bestItem < 0 || t < best)) {
+                        best = t;
+                        bestItem = item;
+                    }
+                }
+            } else {
+                if (top + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                // visit the nearer child first, so the farther one is more likely to be pruned
+                int near = left[node], far = right[node];
+                if (slab(nodeBounds, far * 6, x, y, z, ray, best) < slab(nodeBounds, near * 6, x, y, z, ray, best)) {
+                    near = right[node];
+                    far = left[node];
+                }
+                stack[top++] = far;
+                stack[top++] = near;
+            }
+        }
+        return bestItem < 0 ? null : new Intersection<>(ray, get(bestItem), ray, best);
+    }
+
+    /**
+     * Finds every item whose box overlaps the given area.
+     *
+     * @return The items found, nearest to the area's center first.
+     */
+    public List<T> query(BoundingBox area) {
+        double[] bounds = new double[6];
+        write(bounds, 0, area);
+        return collect(bounds, area.getCenterX(), area.getCenterY(), area.getCenterZ(), Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds every item whose box comes within the given radius of the given point.
+     *
+     * @return The items found, nearest first.
+     */
+    public List<T> query(Vector center, double radius) {
+        double x = center.getX(), y = center.getY(), z = center.getZ();
+        double[] bounds = {x - radius, y - radius, z - radius, x + radius, y + radius, z + radius};
+        return collect(bounds, x, y, z, radius * radius);
+    }
+
+    /**
+     * Collects the items overlapping the given bounds that are also within the given squared distance of the given
+     * point, sorted by that distance.
+     */
+    private List<T> collect(double[] area, double x, double y, double z, double maxDistanceSquared) {
+        ArrayList<T> found = new ArrayList<>();
+        if (items.length == 0)
+            return found;
+        int[] foundItems = new int[16];
+        double[] distances = new double[16];
+        int hits = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (!overlaps(nodeBounds, node * 6, area)
+                    || distanceSquared(nodeBounds, node * 6, x, y, z) > maxDistanceSquared)
+                continue;
+            if (count[node] > 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    int item = order[i];
+                    if (!overlaps(itemBounds, item * 6, area))
+                        continue;
+                    double d = distanceSquared(itemBounds, item * 6, x, y, z);
+                    if (d > maxDistanceSquared)
+                        continue;
+                    if (hits == foundItems.length) {
+                        foundItems = Arrays.copyOf(foundItems, hits * 2);
+                        distances = Arrays.copyOf(distances, hits * 2);
+                    }
+                    // insertion sort; queries rarely return many items
+                    int k = hits++;
+                    while (k > 0 && distances[k - 1] > d) {
+                        distances[k] = distances[k - 1];
+                        foundItems[k] = foundItems[k - 1];
+                        k--;
+                    }
+                    distances[k] = d;
+                    foundItems[k] = item;
+                }
+            } else {
+                if (top + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = left[node];
+                stack[top++] = right[node];
+            }
+        }
+        found.ensureCapacity(hits);
+        for (int i = 0; i < hits; i++)
+            found.add(get(foundItems[i]));
+        return found;
+    }
+
+    /**
+     * Builds the subtree over order[from, to).
+     *
+     * @return The index of the subtree's root node.
+     */
+    private int build(int from, int to, SplitMethod method) {
+        int node = nodeCount++;
+        empty(nodeBounds, node);
+        for (int i = from; i < to; i++)
+            include(nodeBounds, node * 6, itemBounds, order[i] * 6);
+
+        int n = to - from;
+        if (n <= LEAF_SIZE) {
+            first[node] = from;
+            count[node] = n;
+            return node;
+        }
+
+        // split along the axis where the items' centers are most spread out
+        double[] centroids = new double[6];
+        empty(centroids, 0);
+        for (int i = from; i < to; i++) {
+            int o = order[i] * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                double c = (itemBounds[o + axis] + itemBounds[o + axis + 3]) / 2.0;
+                centroids[axis] = Math.min(centroids[axis], c);
+                centroids[axis + 3] = Math.max(centroids[axis + 3], c);
+            }
+        }
+        int axis = 0;
+        for (int a = 1; a < 3; a++)
+            if (centroids[a + 3] - centroids[a] > centroids[axis + 3] - centroids[axis])
+                axis = a;
+        double low = centroids[axis], high = centroids[axis + 3];
+
+        int middle = -1;
+        if (method == SplitMethod.SAH && high > low)
+            middle = partitionSah(from, to, axis, low, high);
+        if (middle <= from || middle >= to)
+            middle = partitionMedian(from, to, axis);
+
+        first[node] = from;
+        count[node] = 0;
+        left[node] = build(from, middle, method);
+        right[node] = build(middle, to, method);
+        return node;
+    }
+
+    /**
+     * Bins the items by centroid along the axis and partitions them at the bin boundary with the lowest surface area
+     * heuristic cost.
+     *
+     * @return Where the second half starts, or -1 if no split beats keeping everything together.
+     */
+    private int partitionSah(int from, int to, int axis, double low, double high) {
+        int[] binCounts = new int[SAH_BINS];
+        double[] binBounds = new double[SAH_BINS * 6];
+        for (int b = 0; b < SAH_BINS; b++)
+            empty(binBounds, b);
+        double scale = SAH_BINS / (high - low);
+        for (int i = from; i < to; i++) {
+            int o = order[i] * 6;
+            int b = bin(itemBounds, o, axis, low, scale);
+            binCounts[b]++;
+            include(binBounds, b * 6, itemBounds, o);
+        }
+
+        // sweep from the right to get the area and count to the right of each boundary, then from the left
+        double[] rightArea = new double[SAH_BINS];
+        int[] rightCount = new int[SAH_BINS];
+        double[] running = new double[6];
+        empty(running, 0);
+        int runningCount = 0;
+        for (int b = SAH_BINS - 1; b > 0; b--) {
+            include(running, 0, binBounds, b * 6);
+            runningCount += binCounts[b];
+            rightArea[b] = area(running);
+            rightCount[b] = runningCount;
+        }
+
+        empty(running, 0);
+        runningCount = 0;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestBoundary = -1;
+        for (int b = 1; b < SAH_BINS; b++) {
+            include(running, 0, binBounds, (b - 1) * 6);
+            runningCount += binCounts[b - 1];
+            if (runningCount == 0 || rightCount[b] == 0)
+                continue;
+            double cost = area(running) * runningCount + rightArea[b] * rightCount[b];
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestBoundary = b;
+            }
+        }
+        if (bestBoundary < 0)
+            return -1;
+
+        int i = from, j = to - 1;
+        while (i <= j) {
+            if (bin(itemBounds, order[i] * 6, axis, low, scale) < bestBoundary)
+                i++;
+            else {
+                int swap = order[i];
+                order[i] = order[j];
+                order[j--] = swap;
+            }
+        }
+        return i;
+    }
+
+    private int partitionMedian(int from, int to, int axis) {
+        // sorting the range is simpler than a selection algorithm, and ranges shrink quickly
+        Integer[] range = new Integer[to - from];
+        for (int i = from; i < to; i++)
+            range[i - from] = order[i];
+        Arrays.sort(range, (a, b) -> Double.compare(
+                itemBounds[a * 6 + axis] + itemBounds[a * 6 + axis + 3],
+                itemBounds[b * 6 + axis] + itemBounds[b * 6 + axis + 3]));
+        for (int i = from; i < to; i++)
+            order[i] = range[i - from];
+        return (from + to) >>> 1;
+    }
+
+    private static int bin(double[] bounds, int o, int axis, double low, double scale) {
+        double centroid = (bounds[o + axis] + bounds[o + axis + 3]) / 2.0;
+        return Math.min(SAH_BINS - 1, (int) ((centroid - low) * scale));
+    }
+
+    private static double slab(double[] bounds, int o, double x, double y, double z, Ray ray, double maxT) {
+        return Physics.slab(x, y, z, ray.inverseX, ray.inverseY, ray.inverseZ,
+                bounds[o], bounds[o + 1], bounds[o + 2], bounds[o + 3], bounds[o + 4], bounds[o + 5], maxT);
+    }
+
+    private static boolean overlaps(double[] bounds, int o, double[] area) {
+        return bounds[o] <= area[3] && bounds[o + 3] >= area[0]
+                && bounds[o + 1] <= area[4] && bounds[o + 4] >= area[1]
+                && bounds[o + 2] <= area[5] && bounds[o + 5] >= area[2];
+    }
+
+    /**
+     * @return The squared distance from the point to the nearest point of the box; 0 if it's inside.
+     */
+    private static double distanceSquared(double[] bounds, int o, double x, double y, double z) {
+        double dx = Math.max(0.0, Math.max(bounds[o] - x, x - bounds[o + 3])),
+                dy = Math.max(0.0, Math.max(bounds[o + 1] - y, y - bounds[o + 4])),
+                dz = Math.max(0.0, Math.max(bounds[o + 2] - z, z - bounds[o + 5]));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double area(double[] bounds) {
+        double x = bounds[3] - bounds[0], y = bounds[4] - bounds[1], z = bounds[5] - bounds[2];
+        if (x < 0)
+            return 0.0;
+        return 2.0 * (x * y + y * z + z * x);
+    }
+
+    private static void write(double[] bounds, int index, BoundingBox box) {
+        int o = index * 6;
+        bounds[o] = box.getMinX();
+        bounds[o + 1] = box.getMinY();
+        bounds[o + 2] = box.getMinZ();
+        bounds[o + 3] = box.getMaxX();
+        bounds[o + 4] = box.getMaxY();
+        bounds[o + 5] = box.getMaxZ();
+    }
+
+    private static void empty(double[] bounds, int index) {
+        int o = index * 6;
+        bounds[o] = bounds[o + 1] = bounds[o + 2] = Double.POSITIVE_INFINITY;
+        bounds[o + 3] = bounds[o + 4] = bounds[o + 5] = Double.NEGATIVE_INFINITY;
+    }
+
+    private static void include(double[] bounds, int o, double[] other, int p) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[o + axis] = Math.min(bounds[o + axis], other[p + axis]);
+            bounds[o + axis + 3] = Math.max(bounds[o + axis + 3], other[p + axis + 3]);
+        }
     }
 }
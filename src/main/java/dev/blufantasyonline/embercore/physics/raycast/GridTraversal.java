@@ -0,0 +1,120 @@
+package dev.blufantasyonline.embercore.physics.raycast;
+
+/**
+ * Walks the cells of a uniform grid in the order a ray passes through them, visiting every cell the ray touches
+ * exactly once (Amanatides & Woo, "A Fast Voxel Traversal Algorithm for Ray Tracing").
+ * <br><br>
+ * Instances are reusable and allocation-free: call {@link #reset} and then {@link #next()} until it returns false.
+ * <pre>{@code
+ * GridTraversal traversal = new GridTraversal().reset(x, y, z, dx, dy, dz, length, 1.0);
+ * while (traversal.next())
+ *     world.getBlockAt(traversal.x(), traversal.y(), traversal.z());
+ * }</pre>
+ */
+public final class GridTraversal {
+    private double cellSize;
+    private int x, y, z;
+    private int stepX, stepY, stepZ;
+    // t at which the ray crosses the next cell boundary on each axis
+    private double tMaxX, tMaxY, tMaxZ;
+    // how much t advances when crossing a whole cell on each axis
+    private double tDeltaX, tDeltaY, tDeltaZ;
+    private double maxT;
+    private double enter, exit;
+    private boolean started;
+
+    /**
+     * Prepares to walk the given ray.
+     *
+     * @param maxT     How far along the ray to walk, in multiples of its direction.
+     * @param cellSize The side length of each grid cell. Use 1 for blocks or 16 for chunks.
+     */
+    public GridTraversal reset(double originX, double originY, double originZ,
+                               double directionX, double directionY, double directionZ,
+                               double maxT, double cellSize) {
+        this.cellSize = cellSize;
+        this.maxT = maxT;
+        started = false;
+        enter = 0.0;
+        exit = 0.0;
+
+        x = (int) Math.floor(originX / cellSize);
+        y = (int) Math.floor(originY / cellSize);
+        z = (int) Math.floor(originZ / cellSize);
+
+        stepX = (int) Math.signum(directionX);
+        stepY = (int) Math.signum(directionY);
+        stepZ = (int) Math.signum(directionZ);
+        tMaxX = boundary(originX, directionX, x, stepX);
+        tMaxY = boundary(originY, directionY, y, stepY);
+        tMaxZ = boundary(originZ, directionZ, z, stepZ);
+        tDeltaX = stepX == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(directionX);
+        tDeltaY = stepY == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(directionY);
+        tDeltaZ = stepZ == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(directionZ);
+        return this;
+    }
+
+    /**
+     * Moves on to the next cell the ray passes through.
+     *
+     * @return False once the ray has been walked to its end.
+     */
+    public boolean next() {
+        if (!started)
+            started = true;
+        else {
+            if (exit >= maxT)
+                return false;
+            enter = exit;
+            if (tMaxX < tMaxY && tMaxX < tMaxZ) {
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else if (tMaxY < tMaxZ) {
+                y += stepY;
+                tMaxY += tDeltaY;
+            } else {
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+        }
+        exit = Math.min(maxT, Math.min(tMaxX, Math.min(tMaxY, tMaxZ)));
+        return true;
+    }
+
+    public int x() {
+        return x;
+    }
+
+    public int y() {
+        return y;
+    }
+
+    public int z() {
+        return z;
+    }
+
+    /**
+     * @return The value of t at which the ray enters the current cell.
+     */
+    public double enter() {
+        return enter;
+    }
+
+    /**
+     * @return The value of t at which the ray leaves the current cell, capped at the end of the ray.
+     */
+    public double exit() {
+        return exit;
+    }
+
+    public double cellSize() {
+        return cellSize;
+    }
+
+    private double boundary(double origin, double direction, int cell, int step) {
+        if (step == 0)
+            return Double.POSITIVE_INFINITY;
+        double edge = (step > 0 ? cell + 1 : cell) * cellSize;
+        return (edge - origin) / direction;
+    }
+}
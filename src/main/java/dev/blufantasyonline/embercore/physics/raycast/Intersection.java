@@ -5,19 +5,50 @@ import org.bukkit.Location;
 public final class Intersection<T, U> {
     public final T first;
     public final U second;
-    private final Location point;
+    private Location point;
+    private final Ray ray;
+    private final double distance;
 
     public Intersection(T first, U second, Location point) {
         this.first = first;
         this.second = second;
         this.point = point;
+        this.ray = null;
+        this.distance = Double.NaN;
     }
 
+    /**
+     * Creates an intersection that only stores how far along the ray the hit is. The hit point itself is
+     * created the first time {@link #getHitPoint()} is called.
+     *
+     * @param distance The distance along the ray at which the hit occurs, or {@link Double#POSITIVE_INFINITY}
+     *                 if there is no hit.
+     */
+    public Intersection(T first, U second, Ray ray, double distance) {
+        this.first = first;
+        this.second = second;
+        this.ray = ray;
+        this.distance = distance;
+    }
+
+    /**
+     * @return The hit point, or null if there is no hit.
+     */
     public Location getHitPoint() {
-        return point.clone();
+        if (point == null && ray != null && hit())
+            point = ray.pointAt(distance);
+        return point == null ? null : point.clone();
+    }
+
+    /**
+     * @return The distance along the ray at which the hit occurs, or {@link Double#NaN} if this intersection
+     * was created from a hit point rather than a distance.
+     */
+    public double getDistance() {
+        return distance;
     }
 
     public boolean hit() {
-        return point != null;
+        return point != null || (ray != null && distance < Double.POSITIVE_INFINITY);
     }
 }
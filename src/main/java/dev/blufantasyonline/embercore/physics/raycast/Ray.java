@@ -7,12 +7,29 @@ public final class Ray {
     public final Location origin, end;
     public final Vector direction;
     public final double length;
+    /**
+     * Reciprocals of each component of {@link #direction}, cached for slab tests.
+     */
+    public final double inverseX, inverseY, inverseZ;
 
     public Ray(Location origin, Vector direction, double length) {
         this.origin = origin;
         this.direction = direction.normalize();
         this.length = Math.abs(length);
         this.end = origin.clone().add(this.direction.clone().multiply(length));
+        this.inverseX = 1.0 / this.direction.getX();
+        this.inverseY = 1.0 / this.direction.getY();
+        this.inverseZ = 1.0 / this.direction.getZ();
+    }
+
+    /**
+     * Creates the location the given distance along this ray.
+     */
+    public Location pointAt(double distance) {
+        return new Location(origin.getWorld(),
+                origin.getX() + direction.getX() * distance,
+                origin.getY() + direction.getY() * distance,
+                origin.getZ() + direction.getZ() * distance);
     }
 
     public static Ray normal(Location origin, Vector direction) {
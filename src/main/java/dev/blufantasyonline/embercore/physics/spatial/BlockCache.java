@@ -0,0 +1,232 @@
+package dev.blufantasyonline.embercore.physics.spatial;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.BoundingBox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Remembers, for the rest of the current projectile tick, every block that collision checks have looked at in a
+ * world: the block itself, whether it's solid, and the box around its collision shape. Projectiles flying through
+ * the same area ask about the same blocks over and over, and each of those questions otherwise goes through the
+ * server's block lookup and material tables.
+ * <br><br>
+ * Entries live in an open-addressed table keyed by {@link CellKey#pack(int, int, int) packed block coordinates}.
+ * Clearing just bumps a generation counter, so it costs nothing no matter how many blocks were cached.
+ * <br><br>
+ * The cache never loads chunks itself, but it will if asked about a block in one that isn't loaded; check first.
+ * Code that changes a block partway through a tick should call {@link #refresh(int, int, int)} so that later checks
+ * in the same tick see the change.
+ */
+public final class BlockCache {
+    private static final HashMap<UUID, BlockCache> caches = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final World world;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    // entries are only live if their stamp matches the current generation
+    private int[] stamps = new int[INITIAL_CAPACITY];
+    private Block[] blocks = new Block[INITIAL_CAPACITY];
+    private boolean[] solid = new boolean[INITIAL_CAPACITY];
+    private boolean[] shaped = new boolean[INITIAL_CAPACITY];
+    private double[] bounds = new double[INITIAL_CAPACITY * 6];
+    private int generation = 1;
+    private int size = 0;
+    private long hits = 0, misses = 0;
+
+    private BlockCache(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Retrieves the block cache for the given world.
+     */
+    public static BlockCache of(World world) {
+        return caches.computeIfAbsent(world.getUID(), uid -> new BlockCache(world));
+    }
+
+    /**
+     * Drops the cache for the given world.
+     */
+    public static void remove(World world) {
+        caches.remove(world.getUID());
+    }
+
+    /**
+     * Empties every world's cache. Called by the projectile tick loop when it finishes a tick.
+     */
+    public static void clearAll() {
+        for (BlockCache cache : caches.values())
+            cache.clear();
+    }
+
+    /**
+     * Finds the entry for the given block, reading the block into the cache if it isn't already there.
+     *
+     * @return The entry's slot, for use with the accessors until the cache is next cleared or looked up in.
+     */
+    public int lookup(int x, int y, int z) {
+        long key = CellKey.pack(x, y, z);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (stamps[slot] == generation) {
+            if (keys[slot] == key) {
+                hits++;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        misses++;
+        // keep the table at most half full so probes stay short
+        if (size + 1 > keys.length / 2) {
+            grow();
+            mask = keys.length - 1;
+            slot = hash(key) & mask;
+            while (stamps[slot] == generation)
+                slot = (slot + 1) & mask;
+        }
+        size++;
+        stamps[slot] = generation;
+        keys[slot] = key;
+        blocks[slot] = world.getBlockAt(x, y, z);
+        read(slot);
+        return slot;
+    }
+
+    /**
+     * Reads the given block again if it's cached, for when it has changed since it was first looked at.
+     */
+    public void refresh(int x, int y, int z) {
+        long key = CellKey.pack(x, y, z);
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; stamps[slot] == generation; slot = (slot + 1) & mask)
+            if (keys[slot] == key) {
+                read(slot);
+                return;
+            }
+    }
+
+    public Block block(int slot) {
+        return blocks[slot];
+    }
+
+    /**
+     * @return Whether the block's material is solid.
+     */
+    public boolean isSolid(int slot) {
+        return solid[slot];
+    }
+
+    /**
+     * @return Whether the block has a collision box at all. Air, water and the like don't.
+     */
+    public boolean hasShape(int slot) {
+        return shaped[slot];
+    }
+
+    /**
+     * The boxes around every cached block's collision shape, six to an entry in the order minX, minY, minZ, maxX,
+     * maxY, maxZ, starting at {@code slot * 6}. Some reach past their block; fences and walls are 1.5 blocks tall.
+     * The array is replaced when the cache grows, so don't hold on to it across lookups.
+     */
+    public double[] bounds() {
+        return bounds;
+    }
+
+    public void clear() {
+        size = 0;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * @return How many lookups found their block already cached, since the cache was created.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return How many lookups had to read their block from the world, since the cache was created.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private void read(int slot) {
+        Block block = blocks[slot];
+        solid[slot] = block.getType().isSolid();
+        // The collision shape, not the outline: fences and walls stand 1.5 blocks tall, and the outline is what the
+        // player's cursor sees. Its boxes are relative to the block, and are merged into one box around them all.
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY,
+                maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (BoundingBox box : block.getCollisionShape().getBoundingBoxes()) {
+            minX = Math.min(minX, box.getMinX());
+            minY = Math.min(minY, box.getMinY());
+            minZ = Math.min(minZ, box.getMinZ());
+            maxX = Math.max(maxX, box.getMaxX());
+            maxY = Math.max(maxY, box.getMaxY());
+            maxZ = Math.max(maxZ, box.getMaxZ());
+        }
+        shaped[slot] = minX < maxX && minY < maxY && minZ < maxZ;
+        int o = slot * 6;
+        if (!shaped[slot]) {
+            Arrays.fill(bounds, o, o + 6, 0.0);
+            return;
+        }
+        int x = block.getX(), y = block.getY(), z = block.getZ();
+        bounds[o] = x + minX;
+        bounds[o + 1] = y + minY;
+        bounds[o + 2] = z + minZ;
+        bounds[o + 3] = x + maxX;
+        bounds[o + 4] = y + maxY;
+        bounds[o + 5] = z + maxZ;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldStamps = stamps;
+        Block[] oldBlocks = blocks;
+        boolean[] oldSolid = solid, oldShaped = shaped;
+        double[] oldBounds = bounds;
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        stamps = new int[capacity];
+        blocks = new Block[capacity];
+        solid = new boolean[capacity];
+        shaped = new boolean[capacity];
+        bounds = new double[capacity * 6];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] != generation)
+                continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (stamps[slot] == generation)
+                slot = (slot + 1) & mask;
+            stamps[slot] = generation;
+            keys[slot] = oldKeys[i];
+            blocks[slot] = oldBlocks[i];
+            solid[slot] = oldSolid[i];
+            shaped[slot] = oldShaped[i];
+            System.arraycopy(oldBounds, i * 6, bounds, slot * 6, 6);
+        }
+    }
+
+    private static int hash(long key) {
+        // packed coordinates put x, z and y in separate bit ranges; mix them all into the low bits
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,49 @@
+package dev.blufantasyonline.embercore.physics.spatial;
+
+/**
+ * Packs integer grid coordinates into a single long so they can be used as hash keys without boxing
+ * three separate values. Uses the same layout as Minecraft's own block positions: 26 bits each for X and Z,
+ * 12 bits for Y.
+ */
+public final class CellKey {
+    private static final long XZ_MASK = (1L << 26) - 1;
+    private static final long Y_MASK = (1L << 12) - 1;
+
+    public static long pack(int x, int y, int z) {
+        return ((x & XZ_MASK) << 38) | ((z & XZ_MASK) << 12) | (y & Y_MASK);
+    }
+
+    public static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    public static int unpackY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    public static int unpackZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+    /**
+     * Packs a chunk's coordinates into a long.
+     */
+    public static long chunk(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    public static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    /**
+     * Returns the grid cell containing the given coordinate for cells of the given size.
+     */
+    public static int cell(double coordinate, double cellSize) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+}
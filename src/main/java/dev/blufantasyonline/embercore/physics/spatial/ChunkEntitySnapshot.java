@@ -0,0 +1,90 @@
+package dev.blufantasyonline.embercore.physics.spatial;
+
+import dev.blufantasyonline.embercore.physics.ProjectileRegistry;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Caches the living entities in a chunk, along with their hitboxes, the first time the chunk is asked for.
+ * Lets many raycasts in the same tick share one call to {@link org.bukkit.Chunk#getEntities()} per chunk.
+ */
+public final class ChunkEntitySnapshot {
+    private static ChunkEntitySnapshot current;
+
+    private final HashMap<UUID, HashMap<Long, Entry>> worlds = new HashMap<>();
+    private long tick;
+
+    /**
+     * Retrieves the snapshot shared by everything running during the current projectile tick. A new one is
+     * started every tick.
+     */
+    public static ChunkEntitySnapshot current() {
+        if (current == null || current.tick != ProjectileRegistry.currentTick()) {
+            current = new ChunkEntitySnapshot();
+            current.tick = ProjectileRegistry.currentTick();
+        }
+        return current;
+    }
+
+    /**
+     * Retrieves the living entities in the given chunk, snapshotting them if this is the first request for it.
+     *
+     * @return The snapshot of the chunk, or null if the chunk isn't loaded.
+     */
+    public Entry get(World world, long chunkKey) {
+        HashMap<Long, Entry> chunks = worlds.computeIfAbsent(world.getUID(), uid -> new HashMap<>());
+        Entry entry = chunks.get(chunkKey);
+        if (entry != null)
+            return entry;
+
+        int chunkX = CellKey.chunkX(chunkKey), chunkZ = CellKey.chunkZ(chunkKey);
+        if (!world.isChunkLoaded(chunkX, chunkZ))
+            return null;
+
+        ArrayList<LivingEntity> living = new ArrayList<>();
+        for (Entity e : world.getChunkAt(chunkX, chunkZ).getEntities())
+            if (e instanceof LivingEntity)
+                living.add((LivingEntity) e);
+
+        entry = new Entry(living.size());
+        for (int i = 0; i < living.size(); i++) {
+            LivingEntity entity = living.get(i);
+            BoundingBox box = entity.getBoundingBox();
+            entry.entities[i] = entity;
+            entry.minX[i] = box.getMinX();
+            entry.minY[i] = box.getMinY();
+            entry.minZ[i] = box.getMinZ();
+            entry.maxX[i] = box.getMaxX();
+            entry.maxY[i] = box.getMaxY();
+            entry.maxZ[i] = box.getMaxZ();
+        }
+        chunks.put(chunkKey, entry);
+        return entry;
+    }
+
+    /**
+     * The living entities in one chunk. Hitbox bounds are stored one array per coordinate, at the same index as
+     * their entity, so they can be handed straight to the batched
+     * {@link dev.blufantasyonline.embercore.physics.Physics#slab(double, double, double, double, double, double, double[], double[], double[], double[], double[], double[], int, double, double[]) slab test}.
+     */
+    public static final class Entry {
+        public final LivingEntity[] entities;
+        public final double[] minX, minY, minZ, maxX, maxY, maxZ;
+
+        private Entry(int size) {
+            entities = new LivingEntity[size];
+            minX = new double[size];
+            minY = new double[size];
+            minZ = new double[size];
+            maxX = new double[size];
+            maxY = new double[size];
+            maxZ = new double[size];
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package dev.blufantasyonline.embercore.physics.spatial;
+
+import dev.blufantasyonline.embercore.CoreSettings;
+import dev.blufantasyonline.embercore.physics.ProjectileRegistry;
+import org.bukkit.World;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A uniform spatial hash of the living entities in a world, used as a broadphase for collision queries.
+ * <br><br>
+ * Each entity is bucketed by the cell containing the center of its hitbox. Queries are padded by the largest
+ * hitbox half-extents seen during the last rebuild, so an entity straddling a cell border is still found.
+ * Entities larger than a cell (giants, the ender dragon) are kept in a separate list that every query checks.
+ * <br><br>
+ * Cells live in an open-addressed table keyed by {@link CellKey#pack(int, int, int) packed cell coordinates}, so
+ * looking one up doesn't box its key.
+ * <br><br>
+ * Grids are rebuilt lazily, at most once per projectile tick, the first time they're requested that tick.
+ */
+public final class EntityGrid {
+    private static final HashMap<UUID, EntityGrid> grids = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    // a null cell marks an empty slot, so any key can be stored
+    private Cell[] cells = new Cell[INITIAL_CAPACITY];
+    private int size = 0;
+    // the cells kept from one rebuild to the next, while the table is refilled
+    private final ArrayList<Cell> kept = new ArrayList<>();
+    private final Cell oversized = new Cell(0L);
+    private double cellSize;
+    private double padHorizontal, padVertical;
+    private long builtTick = -1;
+
+    private EntityGrid() {
+    }
+
+    /**
+     * Retrieves the entity grid for the given world, rebuilding it first if it hasn't been built this tick.
+     */
+    public static EntityGrid of(World world) {
+        EntityGrid grid = grids.computeIfAbsent(world.getUID(), uid -> new EntityGrid());
+        if (grid.builtTick != ProjectileRegistry.currentTick())
+            grid.rebuild(world);
+        return grid;
+    }
+
+    /**
+     * Drops the cached grid for the given world.
+     */
+    public static void remove(World world) {
+        grids.remove(world.getUID());
+    }
+
+    /**
+     * Finds every living entity whose hitbox overlaps the provided area. Matching entities and their hitboxes are
+     * appended to the two lists at the same index. The lists are not cleared first.
+     */
+    public void query(BoundingBox area, List<LivingEntity> entities, List<BoundingBox> boxes) {
+        oversized.collect(area, entities, boxes);
+        if (size == 0)
+            return;
+
+        int minX = CellKey.cell(area.getMinX() - padHorizontal, cellSize),
+                minY = CellKey.cell(area.getMinY() - padVertical, cellSize),
+                minZ = CellKey.cell(area.getMinZ() - padHorizontal, cellSize),
+                maxX = CellKey.cell(area.getMaxX() + padHorizontal, cellSize),
+                maxY = CellKey.cell(area.getMaxY() + padVertical, cellSize),
+                maxZ = CellKey.cell(area.getMaxZ() + padHorizontal, cellSize);
+
+        // A very long sweep can cover more cells than there are occupied ones; just walk the occupied ones instead.
+        long cellCount = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (cellCount > size) {
+            for (Cell cell : cells)
+                if (cell != null)
+                    cell.collect(area, entities, boxes);
+            return;
+        }
+
+        for (int x = minX; x <= maxX; x++)
+            for (int y = minY; y <= maxY; y++)
+                for (int z = minZ; z <= maxZ; z++) {
+                    Cell cell = get(CellKey.pack(x, y, z));
+                    if (cell != null)
+                        cell.collect(area, entities, boxes);
+                }
+    }
+
+    private void rebuild(World world) {
+        builtTick = ProjectileRegistry.currentTick();
+        double newCellSize = Math.max(1.0, CoreSettings.physicsSettings.entityGridCellSize);
+        if (newCellSize != cellSize) {
+            Arrays.fill(cells, null);
+            size = 0;
+            cellSize = newCellSize;
+        }
+
+        // Keep buckets that were in use last tick so they can be refilled without reallocating, but let
+        // the ones nobody stood in go.
+        for (Cell cell : cells)
+            if (cell != null && !cell.isEmpty()) {
+                cell.clear();
+                kept.add(cell);
+            }
+        Arrays.fill(cells, null);
+        size = 0;
+        for (Cell cell : kept)
+            insert(cell);
+        kept.clear();
+        oversized.clear();
+        padHorizontal = 0.0;
+        padVertical = 0.0;
+
+        for (LivingEntity entity : world.getLivingEntities()) {
+            BoundingBox box = entity.getBoundingBox();
+            double halfWidth = Math.max(box.getWidthX(), box.getWidthZ()) / 2.0;
+            double halfHeight = box.getHeight() / 2.0;
+            if (halfWidth > cellSize || halfHeight > cellSize) {
+                oversized.add(entity, box);
+                continue;
+            }
+            padHorizontal = Math.max(padHorizontal, halfWidth);
+            padVertical = Math.max(padVertical, halfHeight);
+            long key = CellKey.pack(CellKey.cell(box.getCenterX(), cellSize),
+                    CellKey.cell(box.getCenterY(), cellSize),
+                    CellKey.cell(box.getCenterZ(), cellSize));
+            Cell cell = get(key);
+            if (cell == null)
+                insert(cell = new Cell(key));
+            cell.add(entity, box);
+        }
+    }
+
+    private Cell get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; cells[slot] != null; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return cells[slot];
+        return null;
+    }
+
+    /**
+     * Adds a cell whose key isn't in the table yet.
+     */
+    private void insert(Cell cell) {
+        // keep the table at most half full so probes stay short
+        if (size + 1 > keys.length / 2)
+            grow();
+        int mask = keys.length - 1;
+        int slot = hash(cell.key) & mask;
+        while (cells[slot] != null)
+            slot = (slot + 1) & mask;
+        keys[slot] = cell.key;
+        cells[slot] = cell;
+        size++;
+    }
+
+    private void grow() {
+        Cell[] old = cells;
+        int capacity = old.length * 2;
+        keys = new long[capacity];
+        cells = new Cell[capacity];
+        int mask = capacity - 1;
+        for (Cell cell : old) {
+            if (cell == null)
+                continue;
+            int slot = hash(cell.key) & mask;
+            while (cells[slot] != null)
+                slot = (slot + 1) & mask;
+            keys[slot] = cell.key;
+            cells[slot] = cell;
+        }
+    }
+
+    private static int hash(long key) {
+        // packed coordinates put x, z and y in separate bit ranges; mix them all into the low bits
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static final class Cell {
+        private final long key;
+        private final ArrayList<LivingEntity> entities = new ArrayList<>();
+        private final ArrayList<BoundingBox> boxes = new ArrayList<>();
+
+        private Cell(long key) {
+            this.key = key;
+        }
+
+        private void add(LivingEntity entity, BoundingBox box) {
+            entities.add(entity);
+            boxes.add(box);
+        }
+
+        private void collect(BoundingBox area, List<LivingEntity> entitiesOut, List<BoundingBox> boxesOut) {
+            for (int i = 0; i < boxes.size(); i++) {
+                BoundingBox box = boxes.get(i);
+                if (area.overlaps(box)) {
+                    entitiesOut.add(entities.get(i));
+                    boxesOut.add(box);
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return entities.isEmpty();
+        }
+
+        private void clear() {
+            entities.clear();
+            boxes.clear();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package dev.blufantasyonline.embercore.physics.spatial;
+
+import dev.blufantasyonline.embercore.physics.Physics;
+import dev.blufantasyonline.embercore.physics.raycast.Geometry;
+import dev.blufantasyonline.embercore.physics.raycast.Intersection;
+import dev.blufantasyonline.embercore.physics.raycast.Ray;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Custom collision geometry that plugins have placed in a world, for projectiles and raycasts to run into alongside
+ * blocks and entities.
+ * <br><br>
+ * Shapes are filed under every chunk their bounds overlap. The first time a query reaches a loaded chunk, that
+ * chunk's shapes are sorted into a sparse octree, which is kept until the chunk unloads (see
+ * {@link #evict(int, int)}); the shapes themselves stay registered and the tree is rebuilt if the chunk comes back.
+ * Queries never look at chunks that aren't loaded, so only the parts of the world players are in cost any memory
+ * beyond the registration itself.
+ * <br><br>
+ * Like the rest of the projectile machinery, this is only meant to be used from the main thread.
+ */
+public final class StaticGeometryIndex {
+    private static final HashMap<UUID, StaticGeometryIndex> indexes = new HashMap<>();
+    private static final double CHUNK_SIZE = 16.0;
+    // nodes split once they hold this many shapes, down to 1/64 of a chunk across
+    private static final int SPLIT_THRESHOLD = 8;
+    private static final int MAX_DEPTH = 6;
+    // stamped onto shapes as queries reach them; shared by all worlds since shapes don't know which one they're in
+    private static int queryStamp = 0;
+
+    private final World world;
+    private final HashMap<Long, ArrayList<StaticShape>> registered = new HashMap<>();
+    private final HashMap<Long, Node> trees = new HashMap<>();
+    private final Set<Long> chunkScratch = new LinkedHashSet<>();
+    private int size = 0;
+
+    private StaticGeometryIndex(World world) {
+        this.world = world;
+    }
+
+    /**
+     * Retrieves the index for the given world, creating it if need be.
+     */
+    public static StaticGeometryIndex of(World world) {
+        return indexes.computeIfAbsent(world.getUID(), uid -> new StaticGeometryIndex(world));
+    }
+
+    /**
+     * @return The index for the given world, or null if nothing has ever been registered there.
+     */
+    public static StaticGeometryIndex get(World world) {
+        return indexes.get(world.getUID());
+    }
+
+    /**
+     * Drops the index for the given world, along with every shape registered in it.
+     */
+    public static void remove(World world) {
+        indexes.remove(world.getUID());
+    }
+
+    /**
+     * Registers a shape in this world. A shape should only be registered in one world at a time.
+     *
+     * @return The shape, for chaining.
+     */
+    public StaticShape add(StaticShape shape) {
+        int minX = CellKey.cell(shape.getMinX(), CHUNK_SIZE), maxX = CellKey.cell(shape.getMaxX(), CHUNK_SIZE),
+                minZ = CellKey.cell(shape.getMinZ(), CHUNK_SIZE), maxZ = CellKey.cell(shape.getMaxZ(), CHUNK_SIZE);
+        for (int x = minX; x <= maxX; x++)
+            for (int z = minZ; z <= maxZ; z++) {
+                long key = CellKey.chunk(x, z);
+                registered.computeIfAbsent(key, k -> new ArrayList<>()).add(shape);
+                Node tree = trees.get(key);
+                // trees only cover the shapes they were built from; anything outside gets a fresh tree next time
+                if (tree != null && !tree.insert(shape))
+                    trees.remove(key);
+            }
+        size++;
+        return shape;
+    }
+
+    /**
+     * Registers a plain box in this world.
+     */
+    public StaticShape add(BoundingBox bounds) {
+        return add(new StaticShape(bounds));
+    }
+
+    /**
+     * Unregisters a shape from this world.
+     *
+     * @return Whether the shape was registered here.
+     */
+    public boolean remove(StaticShape shape) {
+        int minX = CellKey.cell(shape.getMinX(), CHUNK_SIZE), maxX = CellKey.cell(shape.getMaxX(), CHUNK_SIZE),
+                minZ = CellKey.cell(shape.getMinZ(), CHUNK_SIZE), maxZ = CellKey.cell(shape.getMaxZ(), CHUNK_SIZE);
+        boolean removed = false;
+        for (int x = minX; x <= maxX; x++)
+            for (int z = minZ; z <= maxZ; z++) {
+                long key = CellKey.chunk(x, z);
+                ArrayList<StaticShape> shapes = registered.get(key);
+                if (shapes == null || !shapes.remove(shape))
+                    continue;
+                removed = true;
+                if (shapes.isEmpty())
+                    registered.remove(key);
+                Node tree = trees.get(key);
+                if (tree != null)
+                    tree.remove(shape);
+            }
+        if (removed)
+            size--;
+        return removed;
+    }
+
+    /**
+     * Unregisters every shape in this world.
+     */
+    public void clear() {
+        registered.clear();
+        trees.clear();
+        size = 0;
+    }
+
+    /**
+     * @return How many shapes are registered in this world.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return How many chunks currently have an octree built.
+     */
+    public int builtChunks() {
+        return trees.size();
+    }
+
+    /**
+     * Throws away the octree for the given chunk, if one has been built. Called when the chunk unloads.
+     */
+    public void evict(int chunkX, int chunkZ) {
+        trees.remove(CellKey.chunk(chunkX, chunkZ));
+    }
+
+    /**
+     * Finds every shape the ray passes through, ordered by distance. Shapes with a {@link Geometry} are tested
+     * against it; the rest are tested against their bounds.
+     */
+    public List<Intersection<Ray, StaticShape>> raycast(Ray ray) {
+        List<Intersection<Ray, StaticShape>> hits = new ArrayList<>();
+        if (size == 0)
+            return hits;
+        Location origin = ray.origin;
+        int stamp = ++queryStamp;
+        chunkScratch.clear();
+        Physics.collectChunks(ray, 0.0, chunkScratch);
+        for (long key : chunkScratch) {
+            Node tree = tree(key);
+            if (tree != null)
+                tree.raycast(ray, origin.getX(), origin.getY(), origin.getZ(), stamp, hits);
+        }
+        hits.sort(Comparator.comparingDouble(Intersection::getDistance));
+        return hits;
+    }
+
+    /**
+     * @return The closest shape the ray passes through, or null if there isn't one.
+     */
+    public Intersection<Ray, StaticShape> raycastFirst(Ray ray) {
+        List<Intersection<Ray, StaticShape>> hits = raycast(ray);
+        return hits.isEmpty() ? null : hits.get(0);
+    }
+
+    /**
+     * Adds every shape whose bounds overlap the given area to the provided collection.
+     */
+    public void query(BoundingBox area, Collection<StaticShape> out) {
+        query(area.getMinX(), area.getMinY(), area.getMinZ(), area.getMaxX(), area.getMaxY(), area.getMaxZ(), out);
+    }
+
+    /**
+     * Adds every shape whose bounds overlap the given area to the provided collection, without allocating
+     * anything once the trees it touches are built.
+     */
+    public void query(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                      Collection<StaticShape> out) {
+        if (size == 0)
+            return;
+        int stamp = ++queryStamp;
+        int minChunkX = CellKey.cell(minX, CHUNK_SIZE), maxChunkX = CellKey.cell(maxX, CHUNK_SIZE),
+                minChunkZ = CellKey.cell(minZ, CHUNK_SIZE), maxChunkZ = CellKey.cell(maxZ, CHUNK_SIZE);
+        for (int x = minChunkX; x <= maxChunkX; x++)
+            for (int z = minChunkZ; z <= maxChunkZ; z++) {
+                Node tree = tree(CellKey.chunk(x, z));
+                if (tree != null)
+                    tree.query(minX, minY, minZ, maxX, maxY, maxZ, stamp, out);
+            }
+    }
+
+    /**
+     * @return The octree for the given chunk, built now if it hasn't been yet, or null if the chunk has no shapes
+     * or isn't loaded.
+     */
+    private Node tree(long key) {
+        Node tree = trees.get(key);
+        if (tree != null)
+            return tree;
+        ArrayList<StaticShape> shapes = registered.get(key);
+        if (shapes == null || !world.isChunkLoaded(CellKey.chunkX(key), CellKey.chunkZ(key)))
+            return null;
+
+        // the root covers every shape in the chunk, including the parts that hang over into its neighbours
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (StaticShape shape : shapes) {
+            minX = Math.min(minX, shape.getMinX());
+            minY = Math.min(minY, shape.getMinY());
+            minZ = Math.min(minZ, shape.getMinZ());
+            maxX = Math.max(maxX, shape.getMaxX());
+            maxY = Math.max(maxY, shape.getMaxY());
+            maxZ = Math.max(maxZ, shape.getMaxZ());
+        }
+        tree = new Node(minX, minY, minZ, maxX, maxY, maxZ, 0);
+        for (StaticShape shape : shapes)
+            tree.insert(shape);
+        trees.put(key, tree);
+        return tree;
+    }
+
+    /**
+     * Tests a ray against a single shape.
+     *
+     * @return The distance along the ray to the hit, or {@link Physics#MISS}.
+     */
+    private static double distance(Ray ray, StaticShape shape) {
+        double t = Physics.slab(ray.origin.getX(), ray.origin.getY(), ray.origin.getZ(),
+                ray.inverseX, ray.inverseY, ray.inverseZ,
+                shape.getMinX(), shape.getMinY(), shape.getMinZ(),
+                shape.getMaxX(), shape.getMaxY(), shape.getMaxZ(), ray.length);
+        Geometry geometry = shape.getGeometry();
+        if (t == Physics.MISS || geometry == null)
+            return t;
+        Intersection<Ray, Geometry> hit = geometry.intersection(ray);
+        if (!hit.hit())
+            return Physics.MISS;
+        double distance = hit.getDistance();
+        return Double.isNaN(distance) ? hit.getHitPoint().distance(ray.origin) : distance;
+    }
+
+    /**
+     * An octree node. Children are only created once something is put in them, and shapes that straddle the
+     * node's center on any axis stay in the node itself.
+     */
+    private static final class Node {
+        final double minX, minY, minZ, maxX, maxY, maxZ;
+        final double centerX, centerY, centerZ;
+        final int depth;
+        final ArrayList<StaticShape> shapes = new ArrayList<>(0);
+        Node[] children;
+
+        Node(double minX, double minY, double minZ, double maxX, double maxY, double maxZ, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            this.centerX = (minX + maxX) / 2.0;
+            this.centerY = (minY + maxY) / 2.0;
+            this.centerZ = (minZ + maxZ) / 2.0;
+            this.depth = depth;
+        }
+
+        /**
+         * @return False if the shape doesn't fit inside this node, in which case it wasn't added.
+         */
+        boolean insert(StaticShape shape) {
+            if (shape.getMinX() < minX || shape.getMinY() < minY || shape.getMinZ() < minZ
+                    || shape.getMaxX() > maxX || shape.getMaxY() > maxY || shape.getMaxZ() > maxZ)
+                return false;
+            place(shape);
+            return true;
+        }
+
+        private void place(StaticShape shape) {
+            if (children == null) {
+                if (shapes.size() < SPLIT_THRESHOLD || depth == MAX_DEPTH) {
+                    shapes.add(shape);
+                    return;
+                }
+                split();
+            }
+            Node child = child(shape);
+            if (child == null)
+                shapes.add(shape);
+            else
+                child.place(shape);
+        }
+
+        private void split() {
+            children = new Node[8];
+            ArrayList<StaticShape> held = new ArrayList<>(shapes);
+            shapes.clear();
+            for (StaticShape shape : held) {
+                Node child = child(shape);
+                if (child == null)
+                    shapes.add(shape);
+                else
+                    child.place(shape);
+            }
+        }
+
+        /**
+         * @return The child wholly containing the shape, created if need be, or null if the shape straddles the
+         * center.
+         */
+        private Node child(StaticShape shape) {
+            int octant = 0;
+            if (shape.getMinX() >= centerX) octant |= 1;
+            else if (shape.getMaxX() > centerX) return null;
+            if (shape.getMinY() >= centerY) octant |= 2;
+            else if (shape.getMaxY() > centerY) return null;
+            if (shape.getMinZ() >= centerZ) octant |= 4;
+            else if (shape.getMaxZ() > centerZ) return null;
+
+            Node child = children[octant];
+            if (child == null) {
+                boolean upperX = (octant & 1) != 0, upperY = (octant & 2) != 0, upperZ = (octant & 4) != 0;
+                child = new Node(upperX ? centerX : minX, upperY ? centerY : minY, upperZ ? centerZ : minZ,
+                        upperX ? maxX : centerX, upperY ? maxY : centerY, upperZ ? maxZ : centerZ, depth + 1);
+                children[octant] = child;
+            }
+            return child;
+        }
+
+        boolean remove(StaticShape shape) {
+            if (shapes.remove(shape))
+                return true;
+            if (children == null)
+                return false;
+            for (Node child : children)
+                if (child != null && child.remove(shape))
+                    return true;
+            return false;
+        }
+
+        void raycast(Ray ray, double originX, double originY, double originZ, int stamp,
+                     List<Intersection<Ray, StaticShape>> out) {
+            if (Physics.slab(originX, originY, originZ, ray.inverseX, ray.inverseY, ray.inverseZ,
+                    minX, minY, minZ, maxX, maxY, maxZ, ray.length) == Physics.MISS)
+                return;
+            for (int i = 0; i < shapes.size(); i++) {
+                StaticShape shape = shapes.get(i);
+                if (shape.queryStamp == stamp)
+                    continue;
+                shape.queryStamp = stamp;
+                double t = distance(ray, shape);
+                if (t != Physics.MISS)
+                    out.add(new Intersection<>(ray, shape, ray, t));
+            }
+            if (children != null)
+                for (Node child : children)
+                    if (child != null)
+                        child.raycast(ray, originX, originY, originZ, stamp, out);
+        }
+
+        void query(double qMinX, double qMinY, double qMinZ, double qMaxX, double qMaxY, double qMaxZ, int stamp,
+                   Collection<StaticShape> out) {
+            if (qMinX > maxX || qMaxX < minX || qMinY > maxY || qMaxY < minY || qMinZ > maxZ || qMaxZ < minZ)
+                return;
+            for (int i = 0; i < shapes.size(); i++) {
+                StaticShape shape = shapes.get(i);
+                if (shape.queryStamp == stamp)
+                    continue;
+                if (qMinX > shape.getMaxX() || qMaxX < shape.getMinX() || qMinY > shape.getMaxY()
+                        || qMaxY < shape.getMinY() || qMinZ > shape.getMaxZ() || qMaxZ < shape.getMinZ())
+                    continue;
+                shape.queryStamp = stamp;
+                out.add(shape);
+            }
+            if (children != null)
+                for (Node child : children)
+                    if (child != null)
+                        child.query(qMinX, qMinY, qMinZ, qMaxX, qMaxY, qMaxZ, stamp, out);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dev.blufantasyonline.embercore.physics.spatial;
+
+import dev.blufantasyonline.embercore.physics.raycast.Geometry;
+import org.bukkit.util.BoundingBox;
+
+/**
+ * A piece of custom collision geometry that doesn't move, registered with a world's {@link StaticGeometryIndex}.
+ * <br><br>
+ * Every shape has a bounding box, which is what projectiles collide with. Shapes may also carry a {@link Geometry}
+ * for rays to be tested against exactly, once they've made it inside the box. Shapes can't be changed once
+ * registered; remove the shape and register a new one instead.
+ */
+public final class StaticShape {
+    private static int nextId = 1;
+
+    private final int id;
+    private final BoundingBox bounds;
+    private final Geometry geometry;
+    private final Object data;
+    // the last query that reached this shape, so shapes spanning several chunks are only reported once
+    int queryStamp = 0;
+
+    public StaticShape(BoundingBox bounds) {
+        this(bounds, null, null);
+    }
+
+    /**
+     * @param geometry The exact shape inside the bounds that rays should be tested against, or null to use the
+     *                 bounds themselves.
+     * @param data     Anything the registering plugin wants to find the shape by when it's hit.
+     */
+    public StaticShape(BoundingBox bounds, Geometry geometry, Object data) {
+        this.id = nextId++;
+        this.bounds = bounds.clone();
+        this.geometry = geometry;
+        this.data = data;
+    }
+
+    /**
+     * @return A number unique to this shape while the server is running.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return A copy of the shape's bounds. The individual coordinates can be read without copying.
+     */
+    public BoundingBox getBounds() {
+        return bounds.clone();
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public Object getData() {
+        return data;
+    }
+
+    public double getMinX() {
+        return bounds.getMinX();
+    }
+
+    public double getMinY() {
+        return bounds.getMinY();
+    }
+
+    public double getMinZ() {
+        return bounds.getMinZ();
+    }
+
+    public double getMaxX() {
+        return bounds.getMaxX();
+    }
+
+    public double getMaxY() {
+        return bounds.getMaxY();
+    }
+
+    public double getMaxZ() {
+        return bounds.getMaxZ();
+    }
+}
@@ -95,6 +95,9 @@ public final class PluginLoader {
                         classes.add(Class.forName(className));
                     } catch (ClassNotFoundException ex) {
                         EmberCore.warn("  class %s not found. Skipping.", className);
+                    } catch (LinkageError ex) {
+                        // classes that need something the server doesn't have, such as an optional JDK module
+                        EmberCore.info("  class %s couldn't be loaded (%s). Skipping.", className, ex);
                     }
                 }
             }
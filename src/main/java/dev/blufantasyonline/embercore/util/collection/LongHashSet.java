@@ -0,0 +1,141 @@
+package dev.blufantasyonline.embercore.util.collection;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, stored in an open-addressed table with linear probing. Nothing is boxed, and adding,
+ * checking and removing never allocate unless the table has to grow.
+ * <br><br>
+ * 0 marks an empty slot in the table, so whether the set holds 0 itself is tracked separately.
+ */
+public final class LongHashSet {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private long[] keys;
+    private boolean hasZero = false;
+    private int size = 0;
+
+    public LongHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expected How many values the set should be able to hold before it has to grow.
+     */
+    public LongHashSet(int expected) {
+        keys = new long[tableSize(expected)];
+    }
+
+    /**
+     * @return True if the value wasn't already in the set.
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (hasZero)
+                return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(value) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == value)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        // keep the table at most half full so probes stay short
+        if (++size > keys.length / 2)
+            rehash(keys.length * 2);
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0)
+            return hasZero;
+        int mask = keys.length - 1;
+        for (int slot = hash(value) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == value)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return True if the value was in the set.
+     */
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!hasZero)
+                return false;
+            hasZero = false;
+            size--;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(value) & mask;
+        while (keys[slot] != value) {
+            if (keys[slot] == 0)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        // Shift later entries in the same probe run back into the gap, rather than leaving a tombstone.
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            // move the entry only if the gap lies between its home slot and where it is now
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes everything from the set, keeping its capacity.
+     */
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(keys, 0L);
+        hasZero = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value == 0)
+                continue;
+            int slot = hash(value) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = value;
+        }
+    }
+
+    private static int tableSize(int expected) {
+        int size = DEFAULT_CAPACITY;
+        while (size / 2 < expected)
+            size <<= 1;
+        return size;
+    }
+
+    private static int hash(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        return (int) (value ^ (value >>> 32));
+    }
+}
@@ -0,0 +1,176 @@
+package dev.blufantasyonline.embercore.util.collection;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel keyed in ticks. Scheduling, cancelling and expiring a timer are all O(1), no matter
+ * how many timers there are or how far away they're due, which makes it suitable for giving thousands of short-lived
+ * objects a lifetime without checking every one of them every tick.
+ * <br><br>
+ * The wheel has four levels of 64 slots. The first level holds timers due within 64 ticks of the current tick,
+ * one tick per slot; each level above covers 64 times the span of the one below. Timers in upper levels are moved
+ * down a level as their slot comes around, so every timer is handled at most four times before it fires. Timers due
+ * further out than the top level covers simply wait in it for another lap.
+ */
+public final class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    @SuppressWarnings("unchecked")
+    private final Timer[] heads = new TimingWheel.Timer[LEVELS * SLOTS];
+    private long now;
+    private int size = 0;
+
+    /**
+     * @param startTick The tick the wheel starts at. Timers due at or before it fire on the next {@link #advance}.
+     */
+    public TimingWheel(long startTick) {
+        now = startTick;
+    }
+
+    /**
+     * Schedules the given value to expire at the given tick.
+     *
+     * @return A handle that can be passed to {@link #cancel(Timer)}.
+     */
+    public Timer schedule(T value, long deadline) {
+        Timer timer = new Timer(value, deadline);
+        insert(timer, now + 1);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Removes a timer from the wheel before it fires. Does nothing if it has already fired or been cancelled.
+     */
+    public void cancel(Timer timer) {
+        if (timer == null || timer.bucket < 0)
+            return;
+        unlink(timer);
+        size--;
+    }
+
+    /**
+     * Moves the wheel forward to the given tick, handing everything that expires on the way to the consumer in the
+     * order it expires.
+     */
+    public void advance(long tick, Consumer<T> expired) {
+        while (now < tick) {
+            now++;
+            // Bring down any upper-level slots that have come around, highest first, so timers cascading from a
+            // high level can keep falling through lower ones in the same step.
+            int level = 0;
+            while (level + 1 < LEVELS && (now & ((1L << (SLOT_BITS * (level + 1))) - 1)) == 0)
+                level++;
+            for (; level > 0; level--)
+                cascade(level * SLOTS + slot(now, level));
+
+            int bucket = slot(now, 0);
+            Timer timer = heads[bucket];
+            heads[bucket] = null;
+            while (timer != null) {
+                Timer next = timer.next;
+                timer.prev = timer.next = null;
+                timer.bucket = -1;
+                if (timer.deadline <= now) {
+                    size--;
+                    expired.accept(timer.value);
+                } else
+                    insert(timer, now + 1);
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * @return The tick the wheel has been advanced to.
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * @return How many timers are waiting to fire.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int bucket) {
+        Timer timer = heads[bucket];
+        heads[bucket] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = timer.next = null;
+            timer.bucket = -1;
+            // the current tick's first-level slot hasn't fired yet, so timers due now can still go in it
+            insert(timer, now);
+            timer = next;
+        }
+    }
+
+    /**
+     * @param earliest The first tick whose first-level slot hasn't fired yet. Overdue timers go there.
+     */
+    private void insert(Timer timer, long earliest) {
+        long deadline = Math.max(timer.deadline, earliest);
+        long delay = deadline - now;
+        int level = 0;
+        while (level + 1 < LEVELS && delay >= 1L << (SLOT_BITS * (level + 1)))
+            level++;
+        int bucket = level * SLOTS + slot(deadline, level);
+        timer.bucket = bucket;
+        timer.prev = null;
+        timer.next = heads[bucket];
+        if (timer.next != null)
+            timer.next.prev = timer;
+        heads[bucket] = timer;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.prev != null)
+            timer.prev.next = timer.next;
+        else
+            heads[timer.bucket] = timer.next;
+        if (timer.next != null)
+            timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+        timer.bucket = -1;
+    }
+
+    private static int slot(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+    }
+
+    /**
+     * A scheduled expiry. Timers link into their slot directly, which is what makes cancelling O(1).
+     */
+    public final class Timer {
+        private final T value;
+        private final long deadline;
+        private Timer prev, next;
+        private int bucket = -1;
+
+        private Timer(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        public T value() {
+            return value;
+        }
+
+        public long deadline() {
+            return deadline;
+        }
+
+        /**
+         * @return Whether the timer is still waiting to fire.
+         */
+        public boolean isPending() {
+            return bucket >= 0;
+        }
+    }
+}
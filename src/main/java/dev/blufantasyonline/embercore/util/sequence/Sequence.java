@@ -1,5 +1,6 @@
 package dev.blufantasyonline.embercore.util.sequence;
 
+import dev.blufantasyonline.embercore.physics.PhysicsClock;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
 
@@ -41,12 +42,24 @@ public class Sequence {
             int iterations = 0;
             int ticksElapsed = 0;
             int steps = period;
-            long endTimeMs = System.currentTimeMillis() + durationMs;
+            long durationMsTicks = durationMs > 0 ? PhysicsClock.toTicks(durationMs) : -1;
+            long lastTick = PhysicsClock.currentTick();
+            boolean finished = false;
             Set<Sequence> concurrentCache = new HashSet<>();
 
             public void run() {
+                // Sequences are timed in simulation ticks, so after a lag spike they catch up along with everything
+                // else. Until the clock is running, they step once per server tick.
+                long now = PhysicsClock.currentTick();
+                long ticks = PhysicsClock.isRunning() ? now - lastTick : 1;
+                lastTick = now;
+                for (long i = 0; i < ticks && !finished; i++)
+                    step();
+            }
+
+            private void step() {
                 if (shouldTerminate())
-                    cancel();
+                    finish();
                 else {
                     concurrent.entrySet().stream().filter(entry -> entry.getValue().test(Sequence.this))
                             .forEach(entry -> concurrentCache.add(entry.getKey()));
@@ -68,18 +81,23 @@ public class Sequence {
                             .filter(entry -> entry.getValue().test(Sequence.this))
                             .findFirst().ifPresent(entry -> {
                                 entry.getKey().execute();
-                                cancel();
+                                finish();
                     });
                 }
             }
 
+            private void finish() {
+                finished = true;
+                cancel();
+            }
+
             private boolean shouldTick() {
                 return steps == period;
             }
 
             private boolean suspended() {
                 boolean suspended = suspendCondition.test(Sequence.this)
-                        || (durationMs > 0 && System.currentTimeMillis() >= endTimeMs)
+                        || (durationMsTicks > 0 && ticksElapsed >= durationMsTicks)
                         || (duration > 0 && ticksElapsed >= duration)
                         || (maxIterations > 0 && iterations >= maxIterations);
                 // don't shift a terminated sequence back to suspension, in the event that it could happen
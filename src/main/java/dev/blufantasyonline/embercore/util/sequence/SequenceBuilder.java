@@ -205,7 +205,7 @@ public final class SequenceBuilder {
     }
 
     public SequenceBuilder durationMs(long durationMs) {
-        current.durationMs = System.currentTimeMillis() + durationMs;
+        current.durationMs = durationMs;
         return this;
     }
 
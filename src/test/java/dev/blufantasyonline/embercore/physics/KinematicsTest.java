@@ -0,0 +1,146 @@
+package dev.blufantasyonline.embercore.physics;
+
+import org.bukkit.util.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KinematicsTest {
+    private static final double SPEED = 1.0, GRAVITY = 0.08;
+    // the furthest a shot at SPEED goes across flat ground
+    private static final double MAX_RANGE = SPEED * SPEED / GRAVITY;
+    private static final Vector ORIGIN = new Vector(0, 0, 0), STILL = new Vector(0, 0, 0),
+            DOWN = new Vector(0, -GRAVITY, 0);
+
+    @Test
+    void hitsTargetJustInsideMaxRange() {
+        // the low and high arcs land within a fraction of a tick of each other here
+        Vector target = new Vector(MAX_RANGE - 0.001, 0, 0);
+        Vector low = new Vector(), high = new Vector();
+        double tLow = Kinematics.intercept(ORIGIN, target, STILL, null, SPEED, DOWN, 100.0, false, low);
+        double tHigh = Kinematics.intercept(ORIGIN, target, STILL, null, SPEED, DOWN, 100.0, true, high);
+        assertHits(target, STILL, null, SPEED, low, tLow);
+        assertHits(target, STILL, null, SPEED, high, tHigh);
+        assertTrue(tLow < tHigh);
+        assertTrue(tHigh - tLow < 0.5);
+    }
+
+    @Test
+    void hitsTargetAtExactlyMaxRange() {
+        // only the 45 degree shot reaches, where the intercept quartic touches zero without crossing it
+        Vector target = new Vector(MAX_RANGE, 0, 0);
+        Vector velocity = new Vector();
+        double t = Kinematics.intercept(ORIGIN, target, STILL, null, SPEED, DOWN, 100.0, false, velocity);
+        assertEquals(Math.sqrt(2.0) * MAX_RANGE / SPEED, t, 1e-3);
+        assertHits(target, STILL, null, SPEED, velocity, t);
+    }
+
+    @Test
+    void missesTargetBeyondMaxRange() {
+        Vector velocity = new Vector();
+        double t = Kinematics.intercept(ORIGIN, new Vector(MAX_RANGE + 0.01, 0, 0), STILL, null, SPEED, DOWN,
+                100.0, false, velocity);
+        assertTrue(Double.isNaN(t));
+    }
+
+    @Test
+    void hitsTargetGrazingTheTopOfItsReach() {
+        // a target straight up at the very top of the shot's climb
+        Vector target = new Vector(0, SPEED * SPEED / (2 * GRAVITY), 0);
+        Vector velocity = new Vector();
+        double t = Kinematics.intercept(ORIGIN, target, STILL, null, SPEED, DOWN, 100.0, false, velocity);
+        assertEquals(SPEED / GRAVITY, t, 1e-3);
+        assertHits(target, STILL, null, SPEED, velocity, t);
+    }
+
+    @Test
+    void hitsFallingTargetWhileFallingItself() {
+        Vector target = new Vector(8, 4, 3), targetVelocity = new Vector(-0.1, 0.3, 0.05);
+        Vector velocity = new Vector();
+        double t = Kinematics.intercept(ORIGIN, target, targetVelocity, DOWN, SPEED, DOWN, 100.0, false, velocity);
+        assertHits(target, targetVelocity, DOWN, SPEED, velocity, t);
+    }
+
+    @Test
+    void batchedInterceptAgreesWithSingle() {
+        Random random = new Random(7);
+        int count = 200;
+        double[] shooters = new double[count * 3], targets = new double[count * 3],
+                targetVelocities = new double[count * 3], targetAccelerations = new double[count * 3],
+                speeds = new double[count];
+        for (int i = 0; i < count * 3; i++) {
+            targets[i] = random.nextDouble() * 30 - 15;
+            targetVelocities[i] = random.nextDouble() * 0.4 - 0.2;
+            targetAccelerations[i] = random.nextDouble() * 0.02 - 0.01;
+        }
+        for (int i = 0; i < count; i++)
+            speeds[i] = 1.0 + random.nextDouble();
+        double[] velocities = new double[count * 3], times = new double[count];
+        int solved = Kinematics.intercept(shooters, targets, targetVelocities, targetAccelerations, speeds,
+                new double[]{0, -GRAVITY, 0}, count, 200.0, false, velocities, times);
+
+        int expected = 0;
+        for (int i = 0; i < count; i++) {
+            int o = i * 3;
+            Vector target = new Vector(targets[o], targets[o + 1], targets[o + 2]),
+                    targetVelocity = new Vector(targetVelocities[o], targetVelocities[o + 1], targetVelocities[o + 2]),
+                    targetAcceleration = new Vector(targetAccelerations[o], targetAccelerations[o + 1],
+                            targetAccelerations[o + 2]);
+            Vector velocity = new Vector();
+            double t = Kinematics.intercept(ORIGIN, target, targetVelocity, targetAcceleration, speeds[i], DOWN,
+                    200.0, false, velocity);
+            assertEquals(t, times[i]);
+            if (Double.isNaN(t)) {
+                assertFalse(reachable(target, targetVelocity, targetAcceleration, speeds[i], 200.0));
+                continue;
+            }
+            expected++;
+            assertEquals(velocity.getX(), velocities[o]);
+            assertEquals(velocity.getY(), velocities[o + 1]);
+            assertEquals(velocity.getZ(), velocities[o + 2]);
+            assertHits(target, targetVelocity, targetAcceleration, speeds[i], velocity, t);
+        }
+        assertEquals(expected, solved);
+        assertTrue(solved > count / 2);
+    }
+
+    /**
+     * Checks by brute force whether a shot from the origin at the given speed can reach the target at any point
+     * before maxTime.
+     */
+    private static boolean reachable(Vector target, Vector targetVelocity, Vector targetAcceleration, double speed,
+                                     double maxTime) {
+        for (int i = 1; i <= 200_000; i++) {
+            double t = maxTime * i / 200_000;
+            double x = target.getX() + targetVelocity.getX() * t + targetAcceleration.getX() / 2 * t * t,
+                    y = target.getY() + targetVelocity.getY() * t + (targetAcceleration.getY() + GRAVITY) / 2 * t * t,
+                    z = target.getZ() + targetVelocity.getZ() * t + targetAcceleration.getZ() / 2 * t * t;
+            if (x * x + y * y + z * z <= speed * speed * t * t)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a shot from the origin, launched at the given speed and velocity, meets the target at time t.
+     */
+    private static void assertHits(Vector target, Vector targetVelocity, Vector targetAcceleration, double speed,
+                                   Vector velocity, double t) {
+        assertFalse(Double.isNaN(t));
+        assertTrue(t > 0);
+        assertEquals(speed, velocity.length(), 1e-6);
+        double tax = targetAcceleration == null ? 0 : targetAcceleration.getX(),
+                tay = targetAcceleration == null ? 0 : targetAcceleration.getY(),
+                taz = targetAcceleration == null ? 0 : targetAcceleration.getZ();
+        assertEquals(target.getX() + targetVelocity.getX() * t + tax / 2 * t * t,
+                velocity.getX() * t, 1e-6);
+        assertEquals(target.getY() + targetVelocity.getY() * t + tay / 2 * t * t,
+                velocity.getY() * t - GRAVITY / 2 * t * t, 1e-6);
+        assertEquals(target.getZ() + targetVelocity.getZ() * t + taz / 2 * t * t,
+                velocity.getZ() * t, 1e-6);
+    }
+}
@@ -0,0 +1,113 @@
+package dev.blufantasyonline.embercore.physics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PhysicsSlabTest {
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    /**
+     * A ray that doesn't move along Y, starting level with the bottom of a box, as a horizontal ray from an entity's
+     * feet does.
+     */
+    @Test
+    void hitsBoxWhenLevelWithItsMinFace() {
+        assertEquals(3.0, Physics.slab(0.0, 1.0, 0.5, 1.0, INF, INF,
+                3.0, 1.0, 0.0, 4.0, 2.0, 1.0, 10.0));
+    }
+
+    @Test
+    void hitsBoxWhenLevelWithItsMaxFace() {
+        assertEquals(3.0, Physics.slab(0.0, 2.0, 0.5, 1.0, INF, INF,
+                3.0, 1.0, 0.0, 4.0, 2.0, 1.0, 10.0));
+    }
+
+    @Test
+    void hitsBoxWhenLevelWithFacesOnTwoAxes() {
+        assertEquals(3.0, Physics.slab(0.0, 1.0, 1.0, 1.0, INF, -INF,
+                3.0, 1.0, 0.0, 4.0, 2.0, 1.0, 10.0));
+    }
+
+    @Test
+    void missesBoxJustOutsideItsFace() {
+        assertEquals(Physics.MISS, Physics.slab(0.0, Math.nextDown(1.0), 0.5, 1.0, INF, INF,
+                3.0, 1.0, 0.0, 4.0, 2.0, 1.0, 10.0));
+        assertEquals(Physics.MISS, Physics.slab(0.0, Math.nextUp(2.0), 0.5, 1.0, INF, INF,
+                3.0, 1.0, 0.0, 4.0, 2.0, 1.0, 10.0));
+    }
+
+    @Test
+    void hitsBoxWhenLevelWithItsFaceMovingBackwards() {
+        // a direction of -0.0 has an inverse of negative infinity
+        assertEquals(3.0, Physics.slab(7.0, 1.0, 0.5, -1.0, -INF, INF,
+                3.0, 1.0, 0.0, 4.0, 2.0, 1.0, 10.0));
+    }
+
+    @Test
+    void batchedSlabAgreesOnFaces() {
+        double[] minX = {3.0, 3.0, 3.0, 3.0, 3.0}, minY = {1.0, 0.0, 1.5, 2.0, 0.0},
+                minZ = {0.0, 0.0, 0.0, 0.0, 0.0}, maxX = {4.0, 4.0, 4.0, 4.0, 4.0},
+                maxY = {2.0, 1.0, 2.5, 3.0, 0.5}, maxZ = {1.0, 1.0, 1.0, 1.0, 1.0};
+        double[] out = new double[5];
+        int hits = Physics.slab(0.0, 1.0, 0.5, 1.0, INF, INF, minX, minY, minZ, maxX, maxY, maxZ, 5, 10.0, out);
+        assertEquals(2, hits);
+        assertEquals(3.0, out[0]);
+        assertEquals(3.0, out[1]);
+        assertEquals(Physics.MISS, out[2]);
+        assertEquals(Physics.MISS, out[3]);
+        assertEquals(Physics.MISS, out[4]);
+    }
+
+    /**
+     * Only runs when the tests are started with {@code --add-modules jdk.incubator.vector}.
+     */
+    @Test
+    void vectorizedSlabAgreesWithScalar() {
+        assumeTrue(Physics.isVectorized());
+        Random random = new Random(42);
+        int count = 64;
+        double[] minX = new double[count], minY = new double[count], minZ = new double[count],
+                maxX = new double[count], maxY = new double[count], maxZ = new double[count];
+        double[] vectorized = new double[count];
+        for (int ray = 0; ray < 2000; ray++) {
+            // whole-block coordinates, so origins often land exactly on faces
+            for (int i = 0; i < count; i++) {
+                minX[i] = random.nextInt(8);
+                minY[i] = random.nextInt(8);
+                minZ[i] = random.nextInt(8);
+                maxX[i] = minX[i] + 1 + random.nextInt(2);
+                maxY[i] = minY[i] + 1 + random.nextInt(2);
+                maxZ[i] = minZ[i] + 1 + random.nextInt(2);
+            }
+            double originX = random.nextInt(10), originY = random.nextInt(10), originZ = random.nextInt(10);
+            // each axis is still, forward or backward
+            double inverseX = inverse(random), inverseY = inverse(random), inverseZ = inverse(random);
+            int hits = VectorizedSlab.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                    minX, minY, minZ, maxX, maxY, maxZ, count, 8.0, vectorized);
+            int expectedHits = 0;
+            for (int i = 0; i < count; i++) {
+                double expected = Physics.slab(originX, originY, originZ, inverseX, inverseY, inverseZ,
+                        minX[i], minY[i], minZ[i], maxX[i], maxY[i], maxZ[i], 8.0);
+                assertEquals(expected, vectorized[i]);
+                if (expected != Physics.MISS)
+                    expectedHits++;
+            }
+            assertEquals(expectedHits, hits);
+        }
+    }
+
+    private static double inverse(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return random.nextBoolean() ? INF : -INF;
+            case 1:
+                return 1.0 / (0.25 + random.nextDouble());
+            default:
+                return -1.0 / (0.25 + random.nextDouble());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package dev.blufantasyonline.embercore.physics.raycast;
+
+import dev.blufantasyonline.embercore.physics.Physics;
+import dev.blufantasyonline.embercore.physics.raycast.BoundingVolume.SplitMethod;
+import org.bukkit.Location;
+import org.bukkit.util.BoundingBox;
+import org.bukkit.util.Vector;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks every query against testing each item's box by brute force.
+ */
+class BoundingVolumeTest {
+    private static final int ITEMS = 500, QUERIES = 300;
+
+    @Test
+    void sahAgreesWithBruteForce() {
+        check(SplitMethod.SAH, new Random(11));
+    }
+
+    @Test
+    void medianAgreesWithBruteForce() {
+        check(SplitMethod.MEDIAN, new Random(12));
+    }
+
+    @Test
+    void emptyHierarchyFindsNothing() {
+        BoundingVolume<BoundingBox> empty = BoundingVolume.build(new ArrayList<>(), SplitMethod.SAH);
+        Ray ray = new Ray(new Location(null, 0, 0, 0), new Vector(1, 0, 0), 10.0);
+        assertTrue(empty.raycast(ray).isEmpty());
+        assertNull(empty.raycastFirst(ray));
+        assertTrue(empty.query(new BoundingBox(-1, -1, -1, 1, 1, 1)).isEmpty());
+        assertTrue(empty.query(new Vector(0, 0, 0), 5.0).isEmpty());
+    }
+
+    private static void check(SplitMethod method, Random random) {
+        BoundingBox[] boxes = new BoundingBox[ITEMS];
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            boxes[i] = randomBox(random);
+            items.add(i);
+        }
+        BoundingVolume<Integer> tree = BoundingVolume.build(items, item -> boxes[item], method);
+        checkQueries(tree, boxes, random);
+
+        // move half the items a little and the rest anywhere, so refitted nodes overlap heavily
+        for (int i = 0; i < ITEMS; i++) {
+            boxes[i] = i % 2 == 0 ? boxes[i].clone().shift(random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2,
+                    random.nextDouble() * 4 - 2) : randomBox(random);
+            tree.setBounds(i, boxes[i]);
+        }
+        tree.refit();
+        checkQueries(tree, boxes, random);
+    }
+
+    private static void checkQueries(BoundingVolume<Integer> tree, BoundingBox[] boxes, Random random) {
+        for (int q = 0; q < QUERIES; q++) {
+            Ray ray = new Ray(new Location(null, random.nextDouble() * 80 - 8, random.nextDouble() * 80 - 8,
+                    random.nextDouble() * 80 - 8), randomDirection(random), random.nextDouble() * 100);
+            checkRaycast(tree, boxes, ray);
+
+            BoundingBox area = randomBox(random).expand(random.nextDouble() * 8);
+            checkArea(tree, boxes, area);
+
+            Vector center = new Vector(random.nextDouble() * 64, random.nextDouble() * 64, random.nextDouble() * 64);
+            checkSphere(tree, boxes, center, random.nextDouble() * 10);
+        }
+    }
+
+    private static void checkRaycast(BoundingVolume<Integer> tree, BoundingBox[] boxes, Ray ray) {
+        HashSet<Integer> expected = new HashSet<>();
+        double nearest = Physics.MISS;
+        for (int i = 0; i < boxes.length; i++) {
+            double t = Physics.distance(ray, boxes[i]);
+            if (t != Physics.MISS) {
+                expected.add(i);
+                nearest = Math.min(nearest, t);
+            }
+        }
+
+        List<Intersection<Ray, Integer>> hits = tree.raycast(ray);
+        HashSet<Integer> found = new HashSet<>();
+        double previous = 0.0;
+        for (Intersection<Ray, Integer> hit : hits) {
+            assertTrue(found.add(hit.second));
+            assertEquals(Physics.distance(ray, boxes[hit.second]), hit.getDistance());
+            assertTrue(hit.getDistance() >= previous);
+            previous = hit.getDistance();
+        }
+        assertEquals(expected, found);
+
+        Intersection<Ray, Integer> first = tree.raycastFirst(ray);
+        if (expected.isEmpty())
+            assertNull(first);
+        else {
+            assertEquals(nearest, first.getDistance());
+            assertEquals(nearest, Physics.distance(ray, boxes[first.second]));
+        }
+    }
+
+    private static void checkArea(BoundingVolume<Integer> tree, BoundingBox[] boxes, BoundingBox area) {
+        HashSet<Integer> expected = new HashSet<>();
+        for (int i = 0; i < boxes.length; i++)
+            if (boxes[i].getMinX() <= area.getMaxX() && boxes[i].getMaxX() >= area.getMinX()
+                    && boxes[i].getMinY() <= area.getMaxY() && boxes[i].getMaxY() >= area.getMinY()
+                    && boxes[i].getMinZ() <= area.getMaxZ() && boxes[i].getMaxZ() >= area.getMinZ())
+                expected.add(i);
+        checkSorted(tree.query(area), expected, boxes, area.getCenter());
+    }
+
+    private static void checkSphere(BoundingVolume<Integer> tree, BoundingBox[] boxes, Vector center,
+                                    double radius) {
+        HashSet<Integer> expected = new HashSet<>();
+        for (int i = 0; i < boxes.length; i++)
+            if (distanceSquared(boxes[i], center) <= radius * radius)
+                expected.add(i);
+        checkSorted(tree.query(center, radius), expected, boxes, center);
+    }
+
+    /**
+     * Checks that the items found are exactly the expected ones, each once, nearest to the given point first.
+     */
+    private static void checkSorted(List<Integer> found, HashSet<Integer> expected, BoundingBox[] boxes,
+                                    Vector center) {
+        assertEquals(expected.size(), found.size());
+        assertEquals(expected, new HashSet<>(found));
+        double previous = 0.0;
+        for (int item : found) {
+            double distance = distanceSquared(boxes[item], center);
+            assertTrue(distance >= previous);
+            previous = distance;
+        }
+    }
+
+    private static double distanceSquared(BoundingBox box, Vector point) {
+        double dx = Math.max(0.0, Math.max(box.getMinX() - point.getX(), point.getX() - box.getMaxX())),
+                dy = Math.max(0.0, Math.max(box.getMinY() - point.getY(), point.getY() - box.getMaxY())),
+                dz = Math.max(0.0, Math.max(box.getMinZ() - point.getZ(), point.getZ() - box.getMaxZ()));
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static BoundingBox randomBox(Random random) {
+        double x = random.nextDouble() * 64, y = random.nextDouble() * 64, z = random.nextDouble() * 64;
+        return new BoundingBox(x, y, z, x + random.nextDouble() * 3, y + random.nextDouble() * 3,
+                z + random.nextDouble() * 3);
+    }
+
+    private static Vector randomDirection(Random random) {
+        // some rays run exactly along an axis, to cover the slab test's infinite inverses
+        Vector direction = new Vector(random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1,
+                random.nextDouble() * 2 - 1);
+        switch (random.nextInt(6)) {
+            case 0:
+                direction.setY(0).setZ(0);
+                break;
+            case 1:
+                direction.setX(0);
+                break;
+            default:
+                break;
+        }
+        return direction.lengthSquared() == 0 ? new Vector(1, 0, 0) : direction;
+    }
+}
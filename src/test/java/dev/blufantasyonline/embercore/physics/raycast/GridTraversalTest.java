@@ -0,0 +1,100 @@
+package dev.blufantasyonline.embercore.physics.raycast;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GridTraversalTest {
+    @Test
+    void walksStraightAlongAnAxis() {
+        GridTraversal traversal = new GridTraversal().reset(0.5, 0.5, 0.5, 1, 0, 0, 3.0, 1.0);
+        List<String> cells = new ArrayList<>();
+        while (traversal.next())
+            cells.add(traversal.x() + "," + traversal.y() + "," + traversal.z());
+        assertEquals(List.of("0,0,0", "1,0,0", "2,0,0", "3,0,0"), cells);
+    }
+
+    @Test
+    void walksBackwardsFromACellBoundary() {
+        // starting exactly on a boundary going negative, the first cell is the one the origin floors into
+        GridTraversal traversal = new GridTraversal().reset(32.0, 5.0, -0.5, -1, 0, 0, 20.0, 16.0);
+        List<Integer> cells = new ArrayList<>();
+        while (traversal.next())
+            cells.add(traversal.x());
+        assertEquals(List.of(2, 1, 0), cells);
+    }
+
+    /**
+     * Walks random rays, some along axes, and checks that the cells form an unbroken path, in the order the ray
+     * passes through them, with the ray inside each one between its enter and exit.
+     */
+    @Test
+    void visitsExactlyTheCellsTheRayPassesThrough() {
+        Random random = new Random(6);
+        GridTraversal traversal = new GridTraversal();
+        for (int round = 0; round < 2_000; round++) {
+            double cellSize = random.nextBoolean() ? 1.0 : 16.0;
+            double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50,
+                    z = random.nextDouble() * 100 - 50;
+            if (random.nextInt(4) == 0)
+                x = Math.floor(x);
+            double dx = random.nextDouble() * 2 - 1, dy = random.nextDouble() * 2 - 1, dz = random.nextDouble() * 2 - 1;
+            if (random.nextInt(4) == 0)
+                dy = 0;
+            if (random.nextInt(4) == 0)
+                dz = 0;
+            double maxT = random.nextDouble() * 80;
+
+            traversal.reset(x, y, z, dx, dy, dz, maxT, cellSize);
+            HashSet<String> visited = new HashSet<>();
+            int previousX = 0, previousY = 0, previousZ = 0;
+            double previousExit = 0.0;
+            boolean first = true;
+            while (traversal.next()) {
+                int cx = traversal.x(), cy = traversal.y(), cz = traversal.z();
+                assertTrue(visited.add(cx + "," + cy + "," + cz));
+                if (first)
+                    assertEquals(0.0, traversal.enter());
+                else {
+                    assertEquals(1, Math.abs(cx - previousX) + Math.abs(cy - previousY) + Math.abs(cz - previousZ));
+                    assertEquals(previousExit, traversal.enter());
+                }
+                assertTrue(traversal.exit() >= traversal.enter());
+                // the ray is inside the cell between where it enters and leaves it, unless it only clips an edge
+                double t = (traversal.enter() + traversal.exit()) / 2.0;
+                if (traversal.exit() - traversal.enter() > 1e-9) {
+                    assertEquals(cx, (int) Math.floor((x + dx * t) / cellSize));
+                    assertEquals(cy, (int) Math.floor((y + dy * t) / cellSize));
+                    assertEquals(cz, (int) Math.floor((z + dz * t) / cellSize));
+                }
+                previousX = cx;
+                previousY = cy;
+                previousZ = cz;
+                previousExit = traversal.exit();
+                first = false;
+            }
+            assertEquals(maxT, previousExit);
+
+            // and no cell along the way was skipped
+            for (int i = 0; i <= 1_000; i++) {
+                double t = maxT * i / 1_000;
+                double px = (x + dx * t) / cellSize, py = (y + dy * t) / cellSize, pz = (z + dz * t) / cellSize;
+                // points right on a face belong to either cell
+                if (onFace(px) || onFace(py) || onFace(pz))
+                    continue;
+                assertTrue(visited.contains((int) Math.floor(px) + "," + (int) Math.floor(py) + ","
+                        + (int) Math.floor(pz)));
+            }
+        }
+    }
+
+    private static boolean onFace(double coordinate) {
+        return Math.abs(coordinate - Math.rint(coordinate)) < 1e-9;
+    }
+}
@@ -0,0 +1,66 @@
+package dev.blufantasyonline.embercore.util.collection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntHashSetTest {
+    @Test
+    void holdsZero() {
+        IntHashSet set = new IntHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertTrue(set.isEmpty());
+    }
+
+    /**
+     * Adds and removes values drawn from a small pool, so that probe runs grow long and removals have to shift
+     * entries back, and checks every answer against {@link HashSet}.
+     */
+    @Test
+    void agreesWithHashSet() {
+        Random random = new Random(4);
+        IntHashSet set = new IntHashSet(2);
+        HashSet<Integer> reference = new HashSet<>();
+        int[] pool = new int[500];
+        for (int i = 0; i < pool.length; i++)
+            // entity IDs, as the set is used for, plus 0 and some negatives
+            pool[i] = i == 0 ? 0 : i % 3 == 0 ? -random.nextInt(1_000) : random.nextInt(5_000);
+
+        for (int round = 0; round < 200_000; round++) {
+            int value = pool[random.nextInt(pool.length)];
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(reference.add(value), set.add(value));
+                    break;
+                case 1:
+                    assertEquals(reference.remove(value), set.remove(value));
+                    break;
+                default:
+                    assertEquals(reference.contains(value), set.contains(value));
+            }
+            assertEquals(reference.size(), set.size());
+            if (round % 50_000 == 0) {
+                for (int each : pool)
+                    assertEquals(reference.contains(each), set.contains(each));
+            }
+            if (round == 100_000) {
+                set.clear();
+                reference.clear();
+                assertTrue(set.isEmpty());
+            }
+        }
+        for (int each : pool)
+            assertEquals(reference.contains(each), set.contains(each));
+    }
+}
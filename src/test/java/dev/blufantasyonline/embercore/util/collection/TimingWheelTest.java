@@ -0,0 +1,103 @@
+package dev.blufantasyonline.embercore.util.collection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    // how far ahead timers are scheduled, reaching into each level
+    private static final int[] SPANS = {64, 5_000, 300_000, 2_000_000};
+
+    @Test
+    void firesOnDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(100);
+        List<String> fired = new ArrayList<>();
+        wheel.schedule("a", 105);
+        wheel.schedule("b", 103);
+        wheel.advance(104, fired::add);
+        assertEquals(List.of("b"), fired);
+        wheel.advance(105, fired::add);
+        assertEquals(List.of("b", "a"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void overdueTimersFireOnNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(100);
+        List<String> fired = new ArrayList<>();
+        wheel.schedule("late", 50);
+        wheel.schedule("now", 100);
+        wheel.advance(101, fired::add);
+        assertEquals(2, fired.size());
+    }
+
+    @Test
+    void cancelledTimersNeverFire() {
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+        List<String> fired = new ArrayList<>();
+        TimingWheel<String>.Timer timer = wheel.schedule("gone", 10_000);
+        wheel.schedule("kept", 10_000);
+        assertTrue(timer.isPending());
+        wheel.cancel(timer);
+        assertFalse(timer.isPending());
+        // a second cancel does nothing
+        wheel.cancel(timer);
+        assertEquals(1, wheel.size());
+        wheel.advance(20_000, fired::add);
+        assertEquals(List.of("kept"), fired);
+    }
+
+    /**
+     * Schedules and cancels timers across every level, including past the top level's span, and checks that each
+     * fires exactly once, on the tick it's due.
+     */
+    @Test
+    void agreesWithReferenceAcrossLevels() {
+        Random random = new Random(9);
+        long start = 1_000;
+        TimingWheel<Integer> wheel = new TimingWheel<>(start);
+        HashMap<Integer, Long> due = new HashMap<>();
+        HashMap<Integer, TimingWheel<Integer>.Timer> timers = new HashMap<>();
+        int[] fired = {0};
+        int next = 0;
+
+        while (wheel.now() < start + 40_000_000L) {
+            for (int i = random.nextInt(20); i > 0; i--) {
+                // mostly near, some far, a few beyond the 2^24 ticks the top level spans
+                long delay = random.nextInt(100) == 0 ? 17_000_000L + random.nextInt(5_000_000)
+                        : random.nextInt(SPANS[random.nextInt(SPANS.length)]);
+                // some are already overdue
+                long deadline = wheel.now() - 5 + delay;
+                int value = next++;
+                timers.put(value, wheel.schedule(value, deadline));
+                // nothing fires before the next advance
+                due.put(value, Math.max(deadline, wheel.now() + 1));
+            }
+            if (random.nextInt(3) == 0) {
+                TimingWheel<Integer>.Timer timer = timers.remove(random.nextInt(next));
+                if (timer != null) {
+                    wheel.cancel(timer);
+                    assertFalse(timer.isPending());
+                    due.remove(timer.value());
+                }
+            }
+            assertEquals(due.size(), wheel.size());
+
+            wheel.advance(wheel.now() + 1 + (random.nextInt(10) == 0 ? random.nextInt(400_000) : random.nextInt(100)),
+                    value -> {
+                        assertEquals(due.remove(value), wheel.now());
+                        assertFalse(timers.remove(value).isPending());
+                        fired[0]++;
+                    });
+        }
+        assertEquals(due.size(), wheel.size());
+        assertTrue(fired[0] > next / 2);
+    }
+}